@@ -0,0 +1,538 @@
+/*
+ * Copyright (C) 2021 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.r.gravitybox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.util.Log;
+import android.util.TypedValue;
+
+/**
+ * Persistent catalog of installed apps shared by app lists and pickers.
+ *
+ * Labels, versions and launchable activities are kept in an on-disk index so lists
+ * don't have to query and label every installed package each time they are opened.
+ * Index is verified against installed package versions once per process and after that
+ * only packages reported by package broadcasts are refreshed. Icons are rendered
+ * by cacheAppIcons()/cacheActivityIcons() and stored as small PNG files next to the index.
+ *
+ * All methods except loadIcon() of already cached icons may block and should not
+ * be called from the main thread.
+ */
+public class AppCatalog {
+    private static final String TAG = "GB:AppCatalog";
+    private static final boolean DEBUG = false;
+
+    private static final String INDEX_FILE_NAME = "app_catalog";
+    private static final String ICON_DIR_NAME = "app_catalog_icons";
+    private static final int MAGIC = 0x47424143;
+    private static final int FORMAT_VERSION = 1;
+    private static final int ICON_SIZE_DP = 48;
+    // use per-package queries only when there's just a few packages to refresh
+    private static final int PER_PACKAGE_QUERY_LIMIT = 16;
+
+    public static class Component {
+        public final String packageName;
+        public final String className;
+        public final String label;
+
+        private Component(String packageName, String className, String label) {
+            this.packageName = packageName;
+            this.className = className;
+            this.label = label;
+        }
+
+        public ComponentName getComponentName() {
+            return new ComponentName(packageName, className);
+        }
+    }
+
+    public static class App {
+        public final String packageName;
+        public final String label;
+        public final long versionCode;
+        public final long lastUpdateTime;
+        public final List<Component> launcherActivities;
+        public final List<Component> shortcutActivities;
+
+        private App(String packageName, String label, long versionCode, long lastUpdateTime,
+                List<Component> launcherActivities, List<Component> shortcutActivities) {
+            this.packageName = packageName;
+            this.label = label;
+            this.versionCode = versionCode;
+            this.lastUpdateTime = lastUpdateTime;
+            this.launcherActivities = launcherActivities;
+            this.shortcutActivities = shortcutActivities;
+        }
+    }
+
+    private static AppCatalog sInstance;
+
+    public static synchronized AppCatalog getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AppCatalog(context.getApplicationContext() != null ?
+                    context.getApplicationContext() : context);
+        }
+        return sInstance;
+    }
+
+    private final PackageManager mPackageManager;
+    private final File mIndexFile;
+    private final File mIconDir;
+    private final int mIconSizePx;
+    private final Set<String> mDirtyPackages = new HashSet<>();
+    private final Object mLock = new Object();
+
+    // guarded by mLock
+    private Map<String, App> mApps;
+    private List<App> mSortedApps;
+    private volatile String mLocaleTag;
+    private volatile boolean mVerified;
+
+    private AppCatalog(Context context) {
+        mPackageManager = context.getPackageManager();
+        mIndexFile = new File(Utils.getCacheDir(context), INDEX_FILE_NAME);
+        mIconDir = new File(Utils.getCacheDir(context), ICON_DIR_NAME);
+        mIconSizePx = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, ICON_SIZE_DP,
+                context.getResources().getDisplayMetrics());
+
+        IntentFilter intentFilter = new IntentFilter();
+        intentFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        intentFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        intentFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        intentFilter.addDataScheme("package");
+        context.registerReceiver(mPackageReceiver, intentFilter);
+    }
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Uri data = intent.getData();
+            String pkgName = (data != null ? data.getSchemeSpecificPart() : null);
+            if (pkgName == null) return;
+            if (DEBUG) Log.d(TAG, intent.getAction() + ": " + pkgName);
+            synchronized (mDirtyPackages) {
+                mDirtyPackages.add(pkgName);
+            }
+        }
+    };
+
+    /**
+     * @return true if getApps() is expected to return without refreshing anything
+     */
+    public boolean isReady() {
+        synchronized (mDirtyPackages) {
+            if (!mDirtyPackages.isEmpty()) return false;
+        }
+        return mVerified && getLocaleTag().equals(mLocaleTag);
+    }
+
+    /**
+     * @return installed apps sorted by label; blocks while catalog is being refreshed
+     */
+    public List<App> getApps() {
+        synchronized (mLock) {
+            // labels are localized so index is rebuilt when locale changes
+            if (mApps == null || !getLocaleTag().equals(mLocaleTag)) {
+                mLocaleTag = getLocaleTag();
+                mApps = readIndex();
+                mSortedApps = null;
+                mVerified = false;
+            }
+
+            Set<String> stale;
+            if (!mVerified) {
+                stale = findStalePackages();
+                synchronized (mDirtyPackages) {
+                    mDirtyPackages.clear();
+                }
+                mVerified = true;
+            } else {
+                synchronized (mDirtyPackages) {
+                    stale = new HashSet<>(mDirtyPackages);
+                    mDirtyPackages.clear();
+                }
+            }
+
+            if (!stale.isEmpty()) {
+                refreshPackages(stale);
+                mSortedApps = null;
+                writeIndex();
+            }
+
+            if (mSortedApps == null) {
+                List<App> sorted = new ArrayList<>(mApps.values());
+                final Collator collator = Collator.getInstance();
+                Collections.sort(sorted, (a1, a2) -> collator.compare(a1.label, a2.label));
+                mSortedApps = Collections.unmodifiableList(sorted);
+            }
+            return mSortedApps;
+        }
+    }
+
+    private Set<String> findStalePackages() {
+        Set<String> stale = new HashSet<>();
+        Set<String> installed = new HashSet<>();
+        for (PackageInfo pi : mPackageManager.getInstalledPackages(0)) {
+            installed.add(pi.packageName);
+            App app = mApps.get(pi.packageName);
+            if (app == null || app.versionCode != pi.getLongVersionCode() ||
+                    app.lastUpdateTime != pi.lastUpdateTime) {
+                stale.add(pi.packageName);
+            }
+        }
+        for (String pkgName : mApps.keySet()) {
+            if (!installed.contains(pkgName)) {
+                stale.add(pkgName);
+            }
+        }
+        if (DEBUG) Log.d(TAG, "findStalePackages: " + stale.size() + " of " + installed.size());
+        return stale;
+    }
+
+    private void refreshPackages(Set<String> packages) {
+        final long startTime = System.currentTimeMillis();
+
+        List<PackageInfo> packageInfos = new ArrayList<>();
+        for (String pkgName : packages) {
+            deleteIcons(pkgName);
+            try {
+                packageInfos.add(mPackageManager.getPackageInfo(pkgName, 0));
+            } catch (PackageManager.NameNotFoundException e) {
+                mApps.remove(pkgName);
+            }
+        }
+        if (packageInfos.isEmpty()) return;
+
+        // resolve activities in one go when refreshing many packages
+        final Map<String, List<ResolveInfo>> launcherActivities;
+        final Map<String, List<ResolveInfo>> shortcutActivities;
+        if (packageInfos.size() > PER_PACKAGE_QUERY_LIMIT) {
+            launcherActivities = groupByPackage(queryActivities(getLauncherIntent(), null));
+            shortcutActivities = groupByPackage(queryActivities(getShortcutIntent(), null));
+        } else {
+            launcherActivities = null;
+            shortcutActivities = null;
+        }
+
+        // loading labels is the expensive part so it's spread across worker threads
+        ExecutorService executor = createWorkerPool();
+        try {
+            List<Future<App>> futures = new ArrayList<>();
+            for (final PackageInfo pi : packageInfos) {
+                futures.add(executor.submit((Callable<App>) () -> createApp(pi,
+                        launcherActivities != null ? launcherActivities.get(pi.packageName) :
+                                queryActivities(getLauncherIntent(), pi.packageName),
+                        shortcutActivities != null ? shortcutActivities.get(pi.packageName) :
+                                queryActivities(getShortcutIntent(), pi.packageName))));
+            }
+            for (Future<App> future : futures) {
+                try {
+                    App app = future.get();
+                    mApps.put(app.packageName, app);
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Error loading package info", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (DEBUG) Log.d(TAG, "refreshPackages: " + packageInfos.size() + " packages refreshed in " +
+                (System.currentTimeMillis() - startTime) + "ms");
+    }
+
+    private static ExecutorService createWorkerPool() {
+        return Executors.newFixedThreadPool(Math.max(1, Math.min(4,
+                Runtime.getRuntime().availableProcessors() - 1)));
+    }
+
+    private App createApp(PackageInfo pi, List<ResolveInfo> launcherActivities,
+            List<ResolveInfo> shortcutActivities) {
+        String label = (pi.applicationInfo != null ?
+                pi.applicationInfo.loadLabel(mPackageManager).toString() : pi.packageName);
+        return new App(pi.packageName, label, pi.getLongVersionCode(), pi.lastUpdateTime,
+                createComponents(launcherActivities), createComponents(shortcutActivities));
+    }
+
+    private List<Component> createComponents(List<ResolveInfo> activities) {
+        if (activities == null || activities.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Component> components = new ArrayList<>(activities.size());
+        for (ResolveInfo ri : activities) {
+            components.add(new Component(ri.activityInfo.packageName, ri.activityInfo.name,
+                    ri.loadLabel(mPackageManager).toString()));
+        }
+        return components;
+    }
+
+    private static Intent getLauncherIntent() {
+        Intent intent = new Intent(Intent.ACTION_MAIN);
+        intent.addCategory(Intent.CATEGORY_LAUNCHER);
+        return intent;
+    }
+
+    private static Intent getShortcutIntent() {
+        return new Intent(Intent.ACTION_CREATE_SHORTCUT);
+    }
+
+    private List<ResolveInfo> queryActivities(Intent intent, String pkgName) {
+        if (pkgName != null) {
+            intent.setPackage(pkgName);
+        }
+        return mPackageManager.queryIntentActivities(intent, 0);
+    }
+
+    private static Map<String, List<ResolveInfo>> groupByPackage(List<ResolveInfo> activities) {
+        Map<String, List<ResolveInfo>> map = new HashMap<>();
+        for (ResolveInfo ri : activities) {
+            List<ResolveInfo> list = map.get(ri.activityInfo.packageName);
+            if (list == null) {
+                list = new ArrayList<>();
+                map.put(ri.activityInfo.packageName, list);
+            }
+            list.add(ri);
+        }
+        return map;
+    }
+
+    // Icons
+
+    private File getIconFile(String pkgName, String className) {
+        return new File(mIconDir, (className == null ?
+                pkgName : pkgName + "@" + className) + ".png");
+    }
+
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private void deleteIcons(String pkgName) {
+        File[] files = mIconDir.listFiles((dir, name) ->
+                name.equals(pkgName + ".png") || name.startsWith(pkgName + "@"));
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+    }
+
+    /**
+     * Renders and stores icons of given apps that are not cached yet
+     */
+    public void cacheAppIcons(List<App> apps) {
+        List<String[]> icons = new ArrayList<>(apps.size());
+        for (App app : apps) {
+            icons.add(new String[] { app.packageName, null });
+        }
+        cacheIcons(icons);
+    }
+
+    /**
+     * Renders and stores icons of given activities that are not cached yet
+     */
+    public void cacheActivityIcons(List<Component> components) {
+        List<String[]> icons = new ArrayList<>(components.size());
+        for (Component c : components) {
+            icons.add(new String[] { c.packageName, c.className });
+        }
+        cacheIcons(icons);
+    }
+
+    private void cacheIcons(List<String[]> icons) {
+        List<Callable<Bitmap>> tasks = new ArrayList<>();
+        for (final String[] icon : icons) {
+            final File iconFile = getIconFile(icon[0], icon[1]);
+            if (!iconFile.exists()) {
+                tasks.add(() -> renderIcon(icon[0], icon[1], iconFile));
+            }
+        }
+        if (tasks.isEmpty()) return;
+
+        final long startTime = System.currentTimeMillis();
+        ExecutorService executor = createWorkerPool();
+        try {
+            executor.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+        if (DEBUG) Log.d(TAG, "cacheIcons: " + tasks.size() + " icons rendered in " +
+                (System.currentTimeMillis() - startTime) + "ms");
+    }
+
+    /**
+     * Loads icon of an app or its activity from icon cache. Icons are expected to be cached
+     * in advance so this only decodes a small file; icon is rendered as a fallback otherwise.
+     * @param className - activity class name or null for app icon
+     * @return icon bitmap of catalog icon size or null if icon is not available
+     */
+    public Bitmap loadIcon(String pkgName, String className) {
+        File iconFile = getIconFile(pkgName, className);
+        if (iconFile.exists()) {
+            Bitmap bitmap = BitmapFactory.decodeFile(iconFile.getPath());
+            if (bitmap != null) return bitmap;
+        }
+        return renderIcon(pkgName, className, iconFile);
+    }
+
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private Bitmap renderIcon(String pkgName, String className, File iconFile) {
+        try {
+            Drawable d = (className == null ?
+                    mPackageManager.getApplicationIcon(pkgName) :
+                    mPackageManager.getActivityIcon(new ComponentName(pkgName, className)));
+            Bitmap bitmap = BitmapUtils.drawableToBitmap(d);
+            if (bitmap == null) return null;
+            bitmap = Bitmap.createScaledBitmap(bitmap, mIconSizePx, mIconSizePx, true);
+
+            mIconDir.mkdirs();
+            File tmpFile = new File(iconFile.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+            try (FileOutputStream fos = new FileOutputStream(tmpFile)) {
+                bitmap.compress(Bitmap.CompressFormat.PNG, 100, fos);
+            }
+            if (!tmpFile.renameTo(iconFile)) {
+                tmpFile.delete();
+            }
+            return bitmap;
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.e(TAG, "Error caching icon of " + pkgName, e);
+            return null;
+        }
+    }
+
+    // Index persistence
+
+    private static String getLocaleTag() {
+        return Locale.getDefault().toLanguageTag();
+    }
+
+    /**
+     * @return apps stored in index or empty map if index doesn't exist,
+     *         is not valid or was created for a different locale
+     */
+    private Map<String, App> readIndex() {
+        Map<String, App> apps = new HashMap<>();
+        if (!mIndexFile.canRead()) return apps;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(mIndexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION ||
+                    !getLocaleTag().equals(in.readUTF())) {
+                return apps;
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String pkgName = in.readUTF();
+                String label = in.readUTF();
+                long versionCode = in.readLong();
+                long lastUpdateTime = in.readLong();
+                List<Component> launcherActivities = readComponents(in, pkgName);
+                List<Component> shortcutActivities = readComponents(in, pkgName);
+                apps.put(pkgName, new App(pkgName, label, versionCode, lastUpdateTime,
+                        launcherActivities, shortcutActivities));
+            }
+            if (DEBUG) Log.d(TAG, "readIndex: " + apps.size() + " apps");
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading app catalog index", e);
+            apps.clear();
+        }
+        return apps;
+    }
+
+    private static List<Component> readComponents(DataInputStream in, String pkgName) throws IOException {
+        final int count = in.readInt();
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+        List<Component> components = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            components.add(new Component(pkgName, in.readUTF(), in.readUTF()));
+        }
+        return components;
+    }
+
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private void writeIndex() {
+        File tmpFile = new File(mIndexFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmpFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(getLocaleTag());
+            out.writeInt(mApps.size());
+            for (App app : mApps.values()) {
+                out.writeUTF(app.packageName);
+                out.writeUTF(app.label);
+                out.writeLong(app.versionCode);
+                out.writeLong(app.lastUpdateTime);
+                writeComponents(out, app.launcherActivities);
+                writeComponents(out, app.shortcutActivities);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing app catalog index", e);
+            tmpFile.delete();
+            return;
+        }
+        if (!tmpFile.renameTo(mIndexFile)) {
+            Log.e(TAG, "Unable to rename " + tmpFile + " to " + mIndexFile);
+            tmpFile.delete();
+        }
+    }
+
+    private static void writeComponents(DataOutputStream out, List<Component> components) throws IOException {
+        out.writeInt(components.size());
+        for (Component c : components) {
+            out.writeUTF(c.className);
+            out.writeUTF(c.label);
+        }
+    }
+}
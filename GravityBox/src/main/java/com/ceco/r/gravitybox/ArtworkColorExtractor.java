@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2021 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.r.gravitybox;
+
+import java.util.Arrays;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+import androidx.palette.graphics.Palette;
+import de.robv.android.xposed.XposedBridge;
+
+/**
+ * Extracts accent color of media artwork off the main thread.
+ * Artwork is downsampled to a small fixed size first and results are cached
+ * by content hash of downsampled pixels so the same album art is quantized only once
+ * even when delivered as a new Bitmap instance.
+ */
+public class ArtworkColorExtractor {
+    private static final String TAG = "GB:ArtworkColorExtractor";
+    private static final boolean DEBUG = false;
+
+    private static final int SAMPLE_SIZE = 64;
+    private static final int CACHE_SIZE = 16;
+
+    private static void log(String message) {
+        XposedBridge.log(TAG + ": " + message);
+    }
+
+    public interface Callback {
+        /**
+         * Called on main thread
+         * @param color - extracted color or Color.TRANSPARENT when artwork has no usable swatch
+         */
+        void onArtworkColorExtracted(int color);
+    }
+
+    private final LruCache<Integer, Integer> mCache = new LruCache<>(CACHE_SIZE);
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    public void extract(final Bitmap artwork, final Callback callback) {
+        AsyncTask.execute(() -> {
+            int color = Color.TRANSPARENT;
+            try {
+                color = extractColor(artwork);
+            } catch (Throwable t) {
+                GravityBox.log(TAG, "Error extracting artwork color:", t);
+            }
+            final int result = color;
+            mHandler.post(() -> callback.onArtworkColorExtracted(result));
+        });
+    }
+
+    private int extractColor(Bitmap artwork) {
+        final Bitmap sample = Bitmap.createScaledBitmap(artwork, SAMPLE_SIZE, SAMPLE_SIZE, true);
+        try {
+            final int[] pixels = new int[SAMPLE_SIZE * SAMPLE_SIZE];
+            sample.getPixels(pixels, 0, SAMPLE_SIZE, 0, 0, SAMPLE_SIZE, SAMPLE_SIZE);
+            final int key = Arrays.hashCode(pixels);
+            Integer color = mCache.get(key);
+            if (color != null) {
+                if (DEBUG) log("Cache hit for artwork: " + key);
+                return color;
+            }
+
+            color = getSwatchColor(Palette.from(sample).generate());
+            mCache.put(key, color);
+            return color;
+        } finally {
+            if (sample != artwork) {
+                sample.recycle();
+            }
+        }
+    }
+
+    private static int getSwatchColor(Palette palette) {
+        int color = palette.getVibrantColor(Color.TRANSPARENT);
+        if (color == Color.TRANSPARENT) {
+            color = palette.getLightVibrantColor(color);
+            if (color == Color.TRANSPARENT) {
+                color = palette.getDarkVibrantColor(color);
+            }
+        }
+        return color;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2021 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.r.gravitybox;
+
+import java.text.NumberFormat;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.DrawableWrapper;
+import android.util.LruCache;
+import android.util.SparseArray;
+import android.util.TypedValue;
+
+/**
+ * Draws notification count badge over wrapped icon without copying the icon.
+ * Badge glyphs ("1".."99+") are rendered once per density and reused.
+ */
+public class BadgeDrawable extends DrawableWrapper {
+    private static final int MAX_COUNT = 100;
+    private static final int GLYPH_CACHE_SIZE = 24;
+    private static final float TEXT_SIZE_DP = 10f;
+
+    private static final SparseArray<GlyphCache> sGlyphCaches = new SparseArray<>();
+
+    private final GlyphCache mGlyphCache;
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private int mCount;
+
+    public BadgeDrawable(Context gbContext, Drawable icon) {
+        super(icon);
+        mGlyphCache = getGlyphCache(gbContext);
+    }
+
+    private static GlyphCache getGlyphCache(Context gbContext) {
+        final int densityDpi = gbContext.getResources().getConfiguration().densityDpi;
+        GlyphCache cache = sGlyphCaches.get(densityDpi);
+        if (cache == null) {
+            cache = new GlyphCache(gbContext);
+            sGlyphCaches.put(densityDpi, cache);
+        }
+        return cache;
+    }
+
+    public void setCount(int count) {
+        count = Math.min(count, MAX_COUNT);
+        if (mCount != count) {
+            mCount = count;
+            invalidateSelf();
+        }
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        super.draw(canvas);
+        if (mCount <= 0) return;
+
+        final Bitmap glyph = mGlyphCache.get(mCount);
+        final Rect bounds = getBounds();
+        final int iw = getIntrinsicWidth();
+        final int ih = getIntrinsicHeight();
+        canvas.save();
+        canvas.translate(bounds.right, bounds.bottom);
+        // keep badge proportional to icon when bounds differ from intrinsic size
+        if (iw > 0 && ih > 0 && (bounds.width() != iw || bounds.height() != ih)) {
+            canvas.scale((float) bounds.width() / iw, (float) bounds.height() / ih);
+        }
+        canvas.drawBitmap(glyph, -glyph.getWidth(), -glyph.getHeight(), mPaint);
+        canvas.restore();
+    }
+
+    private static final class GlyphCache {
+        private final Drawable mBackground;
+        private final Paint mTextPaint;
+        private final NumberFormat mNumberFormat = NumberFormat.getIntegerInstance();
+        private final LruCache<Integer, Bitmap> mGlyphs = new LruCache<>(GLYPH_CACHE_SIZE);
+        private final Rect mTmpRect = new Rect();
+
+        GlyphCache(Context gbContext) {
+            mBackground = gbContext.getDrawable(R.drawable.ic_notification_overlay);
+            mTextPaint = new Paint();
+            mTextPaint.setTextAlign(Paint.Align.CENTER);
+            mTextPaint.setColor(Color.WHITE);
+            mTextPaint.setAntiAlias(true);
+            mTextPaint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP,
+                    TEXT_SIZE_DP, gbContext.getResources().getDisplayMetrics()));
+        }
+
+        Bitmap get(int count) {
+            Bitmap glyph = mGlyphs.get(count);
+            if (glyph == null) {
+                glyph = render(count);
+                mGlyphs.put(count, glyph);
+            }
+            return glyph;
+        }
+
+        private Bitmap render(int count) {
+            final String text = (count >= MAX_COUNT ? "99+" : mNumberFormat.format(count));
+            final Rect r = mTmpRect;
+            mTextPaint.getTextBounds(text, 0, text.length(), r);
+            final int tw = r.right - r.left;
+            final int th = r.bottom - r.top;
+            mBackground.getPadding(r);
+            int dw = r.left + tw + r.right;
+            if (dw < mBackground.getMinimumWidth()) {
+                dw = mBackground.getMinimumWidth();
+            }
+            final int xFromRight = r.right + ((dw - r.right - r.left) / 2);
+            int dh = r.top + th + r.bottom;
+            if (dh < mBackground.getMinimumHeight()) {
+                dh = mBackground.getMinimumHeight();
+            }
+            if (dw < dh) dw = dh;
+            final int y = dh - r.bottom - ((dh - r.top - th - r.bottom) / 2);
+
+            Bitmap glyph = Bitmap.createBitmap(dw, dh, Bitmap.Config.ARGB_8888);
+            Canvas c = new Canvas(glyph);
+            mBackground.setBounds(0, 0, dw, dh);
+            mBackground.draw(c);
+            c.drawText(text, dw - xFromRight, y, mTextPaint);
+            return glyph;
+        }
+    }
+}
@@ -42,8 +42,6 @@ import android.view.Gravity;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.ViewGroup.MarginLayoutParams;
-import android.view.animation.AccelerateInterpolator;
-import android.view.animation.Animation;
 import android.view.animation.DecelerateInterpolator;
 import android.widget.FrameLayout;
 import android.widget.RelativeLayout;
@@ -53,11 +51,13 @@ public class BatteryBarView extends View implements IconManagerListener,
                                                     BroadcastMediator.Receiver,
                                                     BatteryStatusListener,
                                                     ProgressBarController.ProgressStateListener,
-                                                    StatusBarStateChangedListener {
+                                                    StatusBarStateChangedListener,
+                                                    BatteryChargeAnimator.Listener {
     private static final String TAG = "GB:BatteryBarView";
     private static final boolean DEBUG = false;
 
     private static final int ANIM_DURATION = 1500;
+    private static final int CHARGE_ANIM_FRAME_INTERVAL = 33;
 
     private enum Position { TOP, BOTTOM }
 
@@ -74,7 +74,8 @@ public class BatteryBarView extends View implements IconManagerListener,
     private int mTintColor = Color.WHITE;
     private int mLevel;
     private boolean mCharging;
-    private ObjectAnimator mChargingAnimator;
+    private final BatteryChargeAnimator mChargingAnimator;
+    private float mChargingAnimStartScale;
     private boolean mHiddenByProgressBar;
     private boolean mCentered;
     private int mStatusBarState;
@@ -93,6 +94,7 @@ public class BatteryBarView extends View implements IconManagerListener,
 
         mContainer = container;
         mContainerType = containerType;
+        mChargingAnimator = new BatteryChargeAnimator(this, this);
 
         mEnabled = prefs.getBoolean(GravityBoxSettings.PREF_KEY_BATTERY_BAR_SHOW, false);
         mChargingOnly = prefs.getBoolean(GravityBoxSettings.PREF_KEY_BATTERY_BAR_SHOW_CHARGING, false);
@@ -144,6 +146,18 @@ public class BatteryBarView extends View implements IconManagerListener,
         unsetListeners();
     }
 
+    @Override
+    public void onVisibilityAggregated(boolean isVisible) {
+        super.onVisibilityAggregated(isVisible);
+        mChargingAnimator.setHostVisible(isVisible);
+    }
+
+    @Override
+    public void onScreenStateChanged(int screenState) {
+        super.onScreenStateChanged(screenState);
+        mChargingAnimator.setScreenOn(screenState == SCREEN_STATE_ON);
+    }
+
     @Override
     public void onSizeChanged(int w, int h, int oldw, int oldh) {
         if (DEBUG) log("w=" + w + "; h=" + h);
@@ -230,19 +244,20 @@ public class BatteryBarView extends View implements IconManagerListener,
     }
 
     private void startAnimation() {
-        stopAnimation();
-        mChargingAnimator = ObjectAnimator.ofFloat(this, "scaleX", mLevel/100f, 1f);
-        mChargingAnimator.setInterpolator(new AccelerateInterpolator());
-        mChargingAnimator.setDuration(ANIM_DURATION);
-        mChargingAnimator.setRepeatCount(Animation.INFINITE);
-        mChargingAnimator.start();
+        mChargingAnimStartScale = mLevel/100f;
+        mChargingAnimator.start(ANIM_DURATION, CHARGE_ANIM_FRAME_INTERVAL);
     }
 
     private void stopAnimation() {
-        if (mChargingAnimator != null) {
-            mChargingAnimator.cancel();
-            mChargingAnimator = null;
-        }
+        mChargingAnimator.stop();
+    }
+
+    @Override
+    public void onChargeAnimationFrame(float fraction) {
+        // accelerate interpolation; scaleX is render node property so no redraw is needed
+        final float scale = mChargingAnimStartScale +
+                (1f - mChargingAnimStartScale) * fraction * fraction;
+        setScaleX(scale);
     }
 
     private void updatePosition() {
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2021 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.r.gravitybox;
+
+import android.view.Choreographer;
+import android.view.Display;
+import android.view.View;
+
+/**
+ * Drives endless battery charging animations from Choreographer frames throttled
+ * to requested frame interval. Frames are produced only while host view is attached,
+ * visible and screen is on. Listener is expected to update only transform properties
+ * of already recorded render nodes.
+ *
+ * Host view has to forward onVisibilityAggregated() and onScreenStateChanged().
+ */
+public class BatteryChargeAnimator implements Choreographer.FrameCallback {
+
+    public interface Listener {
+        /**
+         * @param fraction - position within current animation cycle in range [0..1)
+         */
+        void onChargeAnimationFrame(float fraction);
+    }
+
+    private final View mHost;
+    private final Listener mListener;
+    private long mCycleDurationMs;
+    private long mFrameIntervalMs;
+    private boolean mStarted;
+    private boolean mHostVisible;
+    private boolean mScreenOn = true;
+    private boolean mRunning;
+    private long mCycleStartMs;
+
+    public BatteryChargeAnimator(View host, Listener listener) {
+        mHost = host;
+        mListener = listener;
+    }
+
+    /**
+     * Starts animation or updates timing of already started animation
+     * @param cycleDurationMs - duration of single animation cycle
+     * @param frameIntervalMs - minimum interval between two frames
+     */
+    public void start(long cycleDurationMs, long frameIntervalMs) {
+        mCycleDurationMs = Math.max(cycleDurationMs, 1);
+        mFrameIntervalMs = frameIntervalMs;
+        if (!mStarted) {
+            mStarted = true;
+            mCycleStartMs = System.nanoTime() / 1000000;
+        }
+        updateRunning();
+    }
+
+    public void stop() {
+        mStarted = false;
+        updateRunning();
+    }
+
+    public boolean isStarted() {
+        return mStarted;
+    }
+
+    public void setHostVisible(boolean visible) {
+        mHostVisible = visible;
+        updateRunning();
+    }
+
+    public void setScreenOn(boolean screenOn) {
+        mScreenOn = screenOn;
+        updateRunning();
+    }
+
+    private void updateRunning() {
+        final boolean running = mStarted && mHostVisible && mScreenOn &&
+                mHost.isAttachedToWindow();
+        if (mRunning == running) return;
+
+        mRunning = running;
+        Choreographer choreographer = Choreographer.getInstance();
+        choreographer.removeFrameCallback(this);
+        if (running) {
+            choreographer.postFrameCallback(this);
+        }
+    }
+
+    private long getVsyncIntervalMs() {
+        Display display = mHost.getDisplay();
+        float refreshRate = (display != null ? display.getRefreshRate() : 60f);
+        return (long) (1000f / (refreshRate > 0 ? refreshRate : 60f));
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!mRunning) return;
+
+        final long frameTimeMs = frameTimeNanos / 1000000;
+        final long elapsed = Math.max(frameTimeMs - mCycleStartMs, 0);
+        mListener.onChargeAnimationFrame((elapsed % mCycleDurationMs) / (float) mCycleDurationMs);
+
+        // wake up only for frame that is due instead of on every vsync
+        final long delay = mFrameIntervalMs - getVsyncIntervalMs();
+        Choreographer.getInstance().postFrameCallbackDelayed(this, Math.max(delay, 0));
+    }
+}
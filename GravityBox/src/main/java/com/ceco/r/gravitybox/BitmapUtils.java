@@ -32,11 +32,14 @@ import android.renderscript.Element;
 import android.renderscript.RenderScript;
 import android.renderscript.ScriptIntrinsicBlur;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 public class BitmapUtils {
 
+    private static final Object sBlurLock = new Object();
+    private static RenderScript sRenderScript;
+    private static ScriptIntrinsicBlur sBlurScript;
+
     public static Bitmap drawableToBitmap (Drawable drawable) {
         if (drawable == null) return null;
 
@@ -63,21 +66,29 @@ public class BitmapUtils {
 
     public static Bitmap blurBitmap(Context context, Bitmap bmp, float radius) {
         Bitmap out = Bitmap.createBitmap(bmp);
-        RenderScript rs = RenderScript.create(context);
         radius = Math.min(Math.max(radius, 0), 25);
 
-        Allocation input = Allocation.createFromBitmap(
-                rs, bmp, Allocation.MipmapControl.MIPMAP_NONE, Allocation.USAGE_SCRIPT);
-        Allocation output = Allocation.createTyped(rs, input.getType());
+        // RenderScript context and blur script are created once per process and reused
+        synchronized (sBlurLock) {
+            if (sRenderScript == null) {
+                Context appContext = context.getApplicationContext();
+                sRenderScript = RenderScript.create(appContext != null ? appContext : context);
+                sBlurScript = ScriptIntrinsicBlur.create(sRenderScript, Element.U8_4(sRenderScript));
+            }
+
+            Allocation input = Allocation.createFromBitmap(sRenderScript, bmp,
+                    Allocation.MipmapControl.MIPMAP_NONE, Allocation.USAGE_SCRIPT);
+            Allocation output = Allocation.createTyped(sRenderScript, input.getType());
 
-        ScriptIntrinsicBlur script = ScriptIntrinsicBlur.create(rs, Element.U8_4(rs));
-        script.setInput(input);
-        script.setRadius(radius);
-        script.forEach(output);
+            sBlurScript.setInput(input);
+            sBlurScript.setRadius(radius);
+            sBlurScript.forEach(output);
 
-        output.copyTo(out);
+            output.copyTo(out);
 
-        rs.destroy();
+            input.destroy();
+            output.destroy();
+        }
         return out;
     }
 
@@ -89,25 +100,24 @@ public class BitmapUtils {
 
         bmp.getPixels(pixels, 0, width, 0, 0, width, height);
 
-        Map<Integer, Integer> tmpMap = new HashMap<>();
-        for (int pixel : pixels) {
-            Integer counter = tmpMap.get(pixel);
-            if (counter == null) counter = 0;
-            counter++;
-            tmpMap.put(pixel, counter);
-        }
-
-        Map.Entry<Integer, Integer> maxEntry = null;
-        for (Map.Entry<Integer, Integer> entry : tmpMap.entrySet()) {
+        // sorted pixels form runs of equal colors so they can be counted without boxing
+        Arrays.sort(pixels);
+        int maxColor = Color.TRANSPARENT;
+        int maxCount = 0;
+        int i = 0;
+        while (i < pixels.length) {
+            final int color = pixels[i];
+            int j = i + 1;
+            while (j < pixels.length && pixels[j] == color) j++;
             // discard transparent pixels
-            if (entry.getKey() == Color.TRANSPARENT) continue;
-
-            if (maxEntry == null || entry.getValue() > maxEntry.getValue()) {
-                maxEntry = entry;
+            if (color != Color.TRANSPARENT && j - i > maxCount) {
+                maxColor = color;
+                maxCount = j - i;
             }
+            i = j;
         }
 
-        return maxEntry.getKey();
+        return maxColor;
     }
 
     public static Bitmap getCircleBitmap(Bitmap bitmap) {
@@ -152,4 +162,22 @@ public class BitmapUtils {
 
         return inSampleSize;
     }
+
+    /**
+     * Decodes image file downsampled to be at least as big as requested size
+     * @return decoded bitmap or null if file could not be decoded
+     */
+    public static Bitmap decodeSampledBitmap(String path, int reqWidth, int reqHeight,
+                                             Bitmap.Config config) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = config;
+        return BitmapFactory.decodeFile(path, options);
+    }
 }
@@ -22,34 +22,16 @@ import com.ceco.r.gravitybox.quicksettings.TileOrderActivity;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.os.Build;
 
 public class BootCompletedReceiver extends BroadcastReceiver {
     @Override
     public void onReceive(Context context, Intent intent) {
         if (Intent.ACTION_LOCKED_BOOT_COMPLETED.equals(intent.getAction())) {
             maybePerformTasksAfterRestore(context);
-            //prepareAssets(context);
             SettingsManager.getInstance(context).fixFolderPermissionsAsync();
         }
     }
 
-    // copies required files from assets to file system
-    private void prepareAssets(Context context) {
-        File f;
-
-        // prepare alternative screenrecord binary if doesn't exist yet
-        f = new File(Utils.getFilesDir(context) + "/screenrecord");
-        if (!f.exists()) {
-            String assetName = Build.SUPPORTED_64_BIT_ABIS.length > 0 ?
-                    "screenrecord_arm64" : "screenrecord";
-            Utils.writeAssetToFile(context, assetName, f);
-        }
-        if (f.exists()) {
-            f.setExecutable(true);
-        }
-    }
-
     // performs necessary tasks after last restore of the settings
     private void maybePerformTasksAfterRestore(Context context) {
         File uuidFile = null;
@@ -33,28 +33,27 @@ import android.graphics.DashPathEffect;
 import android.graphics.Paint;
 import android.graphics.Paint.Align;
 import android.graphics.Rect;
+import android.graphics.RecordingCanvas;
 import android.graphics.RectF;
-import android.os.Handler;
+import android.graphics.RenderNode;
 import android.util.TypedValue;
 import android.widget.ImageView;
 import de.robv.android.xposed.XposedBridge;
 
 @SuppressLint({"AppCompatCustomView", "ViewConstructor"})
-public class CmCircleBattery extends ImageView implements IconManagerListener, BatteryStatusListener {
+public class CmCircleBattery extends ImageView implements IconManagerListener, BatteryStatusListener,
+                                                        BatteryChargeAnimator.Listener {
     private static final String TAG = "GB:CircleBattery";
     private static final boolean DEBUG = false;
 
     public enum Style { SOLID, DASHED }
 
-    private Handler mHandler;
-
     // state variables
     private boolean mAttached;      // whether or not attached to a window
     private boolean mIsCharging;    // whether or not device is currently charging
     private boolean mIsFastCharging; // whether or not device is currently fast charging
     private int     mLevel;         // current battery level
     private int     mAnimOffset;    // current level of charging animation
-    private boolean mIsAnimating;   // stores charge-animation status to reliably remove callbacks
     private boolean mPercentage;    // whether to show percentage
     private BatteryStyleController mController;
 
@@ -75,25 +74,26 @@ public class CmCircleBattery extends ImageView implements IconManagerListener, B
     private float mStrokeWidthFactor;
     private DashPathEffect mPathEffect;
 
+    // pre-recorded layers; charging animation only rotates mCircleNode
+    private final RenderNode mCircleNode = new RenderNode("GbCircleBattery");
+    private final RenderNode mTextNode = new RenderNode("GbCircleBatteryText");
+    private boolean mNodesDirty = true;
+    private final BatteryChargeAnimator mChargeAnimator;
+
     private static void log(String message) {
         XposedBridge.log(TAG + ": " + message);
     }
 
-    // runnable to invalidate view via mHandler.postDelayed() call
-    private final Runnable mInvalidate = new Runnable() {
-        public void run() {
-            if(mAttached) {
-                invalidate();
-            }
-        }
-    };
-
     // keeps track of current battery level and charger-plugged-state
     @Override
     public void onBatteryStatusChanged(BatteryData batteryData) {
+        if (mLevel != batteryData.level) {
+            mNodesDirty = true;
+        }
         mLevel = batteryData.level;
         mIsCharging = batteryData.charging;
         mIsFastCharging = batteryData.fastCharging;
+        updateChargeAnim();
         if (mAttached) {
             invalidate();
         }
@@ -106,7 +106,7 @@ public class CmCircleBattery extends ImageView implements IconManagerListener, B
         super(context);
 
         mController = controller;
-        mHandler = new Handler();
+        mChargeAnimator = new BatteryChargeAnimator(this, this);
 
         // initialize and setup all paint variables
         // stroke width is later set in initSizeBasedStuff()
@@ -150,6 +150,7 @@ public class CmCircleBattery extends ImageView implements IconManagerListener, B
 
     public void setPercentage(boolean enable) {
         mPercentage = enable;
+        mNodesDirty = true;
         if (mAttached) {
             invalidate();
         }
@@ -167,6 +168,7 @@ public class CmCircleBattery extends ImageView implements IconManagerListener, B
                 break;
         }
         mRectLeft = null;
+        mNodesDirty = true;
         if (mAttached) {
             invalidate();
         }
@@ -183,7 +185,6 @@ public class CmCircleBattery extends ImageView implements IconManagerListener, B
             if (SysUiManagers.BatteryInfoManager != null) {
                 SysUiManagers.BatteryInfoManager.registerListener(this);
             }
-            mHandler.postDelayed(mInvalidate, 250);
         }
     }
 
@@ -202,9 +203,24 @@ public class CmCircleBattery extends ImageView implements IconManagerListener, B
                                 // recalculated on next attach
             mCircleSize = 0;    // makes sure, mCircleSize is reread from icons on
                                 // next attach
+            mCircleNode.discardDisplayList();
+            mTextNode.discardDisplayList();
+            mNodesDirty = true;
         }
     }
 
+    @Override
+    public void onVisibilityAggregated(boolean isVisible) {
+        super.onVisibilityAggregated(isVisible);
+        mChargeAnimator.setHostVisible(isVisible);
+    }
+
+    @Override
+    public void onScreenStateChanged(int screenState) {
+        super.onScreenStateChanged(screenState);
+        mChargeAnimator.setScreenOn(screenState == SCREEN_STATE_ON);
+    }
+
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
         if (mCircleSize == 0) {
@@ -219,11 +235,14 @@ public class CmCircleBattery extends ImageView implements IconManagerListener, B
         initSizeBasedStuff();
     }
 
-    private void drawCircle(Canvas canvas, int level, int animOffset, float textX, RectF drawRect) {
+    private Paint getLevelPaint(int level) {
         final Paint usePaint = level <= 15 ? mPaintRed : mPaintSystem;
         usePaint.setAntiAlias(true);
         usePaint.setPathEffect(mPathEffect);
+        return usePaint;
+    }
 
+    private void drawArcs(Canvas canvas, int level, int animOffset, RectF drawRect) {
         // pad circle percentage to 100% once it reaches 97%
         // for one, the circle looks odd with a too small gap,
         // for another, some phones never reach 100% due to hardware design
@@ -235,17 +254,43 @@ public class CmCircleBattery extends ImageView implements IconManagerListener, B
         // draw thin gray ring first
         canvas.drawArc(drawRect, 270, 360, false, mPaintGray);
         // draw colored arc representing charge level
-        canvas.drawArc(drawRect, 270 + animOffset, 3.6f * padLevel, false, usePaint);
+        canvas.drawArc(drawRect, 270 + animOffset, 3.6f * padLevel, false, getLevelPaint(level));
+    }
+
+    private void drawText(Canvas canvas, int level, float textX) {
         // if chosen by options, draw percentage text in the middle
         // always skip percentage when 100, so layout doesnt break
         if (level < 100 && mPercentage) {
+            final Paint usePaint = getLevelPaint(level);
             mPaintFont.setColor(usePaint.getColor());
             // Workarround for drawing bug on Samsung Roms
             if (Utils.isSamsungRom()) mPaintFont.setStyle(Paint.Style.FILL);
             canvas.drawText(Integer.toString(level), textX, mTextY, mPaintFont);
             if (Utils.isSamsungRom()) mPaintFont.setStyle(Paint.Style.STROKE);
         }
+    }
 
+    private void recordNodes() {
+        final int w = getWidth();
+        final int h = getHeight();
+        mCircleNode.setPosition(0, 0, w, h);
+        mCircleNode.setPivotX(mRectLeft.centerX());
+        mCircleNode.setPivotY(mRectLeft.centerY());
+        RecordingCanvas c = mCircleNode.beginRecording(w, h);
+        try {
+            drawArcs(c, mLevel, 0, mRectLeft);
+        } finally {
+            mCircleNode.endRecording();
+        }
+
+        mTextNode.setPosition(0, 0, w, h);
+        c = mTextNode.beginRecording(w, h);
+        try {
+            drawText(c, mLevel, mTextLeftX);
+        } finally {
+            mTextNode.endRecording();
+        }
+        mNodesDirty = false;
     }
 
     @Override
@@ -254,36 +299,45 @@ public class CmCircleBattery extends ImageView implements IconManagerListener, B
             initSizeBasedStuff();
         }
 
-        updateChargeAnim();
+        if (!canvas.isHardwareAccelerated()) {
+            drawArcs(canvas, mLevel, (mIsCharging ? mAnimOffset : 0), mRectLeft);
+            drawText(canvas, mLevel, mTextLeftX);
+            return;
+        }
 
-        drawCircle(canvas, mLevel, (mIsCharging ? mAnimOffset : 0), mTextLeftX, mRectLeft);
+        if (mNodesDirty || !mCircleNode.hasDisplayList()) {
+            recordNodes();
+        }
+        mCircleNode.setRotationZ(mIsCharging ? mAnimOffset : 0);
+        canvas.drawRenderNode(mCircleNode);
+        canvas.drawRenderNode(mTextNode);
     }
 
     /***
-     * updates the animation counter
-     * cares for timed callbacks to continue animation cycles
-     * uses mInvalidate for delayed invalidate() callbacks
+     * starts or stops charging animation based on current battery state
+     * animation frames only rotate pre-recorded circle layer
      */
     private void updateChargeAnim() {
         if (!mIsCharging || mLevel >= 97) {
-            if (mIsAnimating) {
-                mIsAnimating = false;
+            if (mChargeAnimator.isStarted()) {
+                mChargeAnimator.stop();
                 mAnimOffset = 0;
-                mHandler.removeCallbacks(mInvalidate);
             }
             return;
         }
 
-        mIsAnimating = true;
-
-        if (mAnimOffset >= 360) {
-            mAnimOffset = 0;
+        // keep original pace: 3 deg per 50ms or 6 deg per 30ms when fast charging
+        if (mIsFastCharging) {
+            mChargeAnimator.start(1800, 30);
         } else {
-            mAnimOffset += mIsFastCharging ? 6 : 3;
+            mChargeAnimator.start(6000, 50);
         }
+    }
 
-        mHandler.removeCallbacks(mInvalidate);
-        mHandler.postDelayed(mInvalidate, mIsFastCharging ? 30 : 50);
+    @Override
+    public void onChargeAnimationFrame(float fraction) {
+        mAnimOffset = (int) (fraction * 360);
+        invalidate();
     }
 
     /***
@@ -302,6 +356,7 @@ public class CmCircleBattery extends ImageView implements IconManagerListener, B
         mPaintRed.setStrokeWidth(strokeWidth);
         mPaintSystem.setStrokeWidth(strokeWidth);
         mPaintGray.setStrokeWidth(strokeWidth);
+        mNodesDirty = true;
 
         // calculate rectangle for drawArc calls
         int pLeft = getPaddingLeft();
@@ -335,6 +390,7 @@ public class CmCircleBattery extends ImageView implements IconManagerListener, B
     public void setColor(int color) {
         mPaintSystem.setColor(color);
         mPaintFont.setColor(color);
+        mNodesDirty = true;
         invalidate();
     }
 
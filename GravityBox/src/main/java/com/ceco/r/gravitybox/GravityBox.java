@@ -71,21 +71,21 @@ public class GravityBox implements IXposedHookZygoteInit, IXposedHookLoadPackage
 
         MODULE_PATH = startupParam.modulePath;
         if (XposedBridge.getXposedVersion() < 93) {
-            prefs = new XSharedPreferences(prefsFileProt);
-            uncPrefs = new XSharedPreferences(uncPrefsFileProt);
-            qhPrefs = new XSharedPreferences(qhPrefsFileProt);
-            tunerPrefs = new XSharedPreferences(tunerPrefsFileProt);
+            prefs = new SnapshotPreferences(prefsFileProt);
+            uncPrefs = new SnapshotPreferences(uncPrefsFileProt);
+            qhPrefs = new SnapshotPreferences(qhPrefsFileProt);
+            tunerPrefs = new SnapshotPreferences(tunerPrefsFileProt);
         } else {
-            prefs = new XSharedPreferences(PACKAGE_NAME);
+            prefs = new SnapshotPreferences(PACKAGE_NAME, PACKAGE_NAME + "_preferences");
             prefs.makeWorldReadable();
             prefs.reload();
-            uncPrefs = new XSharedPreferences(PACKAGE_NAME, "ledcontrol");
+            uncPrefs = new SnapshotPreferences(PACKAGE_NAME, "ledcontrol");
             uncPrefs.makeWorldReadable();
             uncPrefs.reload();
-            qhPrefs = new XSharedPreferences(PACKAGE_NAME, "quiet_hours");
+            qhPrefs = new SnapshotPreferences(PACKAGE_NAME, "quiet_hours");
             qhPrefs.makeWorldReadable();
             qhPrefs.reload();
-            tunerPrefs = new XSharedPreferences(PACKAGE_NAME, "tuner");
+            tunerPrefs = new SnapshotPreferences(PACKAGE_NAME, "tuner");
             tunerPrefs.makeWorldReadable();
             tunerPrefs.reload();
         }
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2021 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.r.gravitybox;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import android.graphics.Bitmap;
+
+/**
+ * Raw ARGB_8888 image file used to pass "last screen" keyguard image
+ * from KeyguardImageService to SystemUI without encoding and decoding.
+ *
+ * Layout: magic(int), format(int), width(int), height(int), source hash(long), pixels
+ */
+public class KeyguardImageFile {
+    public static final String FILE_NAME = "kis_image.raw";
+
+    private static final int MAGIC = 0x47424b49;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+
+    /**
+     * @return hash of source the image file was created from or 0 if file is not valid
+     */
+    public static long readSourceHash(File file) {
+        if (!file.canRead()) return 0;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() < HEADER_SIZE || raf.readInt() != MAGIC ||
+                    raf.readInt() != FORMAT_VERSION) return 0;
+            raf.seek(16);
+            return raf.readLong();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    public static void write(File file, Bitmap bmp, long sourceHash) throws IOException {
+        if (bmp.getConfig() != Bitmap.Config.ARGB_8888) {
+            bmp = bmp.copy(Bitmap.Config.ARGB_8888, false);
+        }
+        final int size = HEADER_SIZE + bmp.getByteCount();
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw");
+             FileChannel channel = raf.getChannel()) {
+            raf.setLength(size);
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(MAGIC);
+            buffer.putInt(FORMAT_VERSION);
+            buffer.putInt(bmp.getWidth());
+            buffer.putInt(bmp.getHeight());
+            buffer.putLong(sourceHash);
+            bmp.copyPixelsToBuffer(buffer);
+        }
+        tmpFile.setReadable(true, false);
+        if (!tmpFile.renameTo(file)) {
+            tmpFile.delete();
+            throw new IOException("Unable to rename " + tmpFile + " to " + file);
+        }
+    }
+
+    /**
+     * Maps image file and copies pixels directly into new bitmap
+     * @return bitmap or null if file does not exist or is not valid
+     */
+    public static Bitmap read(File file) {
+        if (!file.canRead()) return null;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            final long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) return null;
+            ByteBuffer buffer;
+            try {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } catch (IOException e) {
+                // mapping might not be permitted; read the file instead
+                buffer = ByteBuffer.allocateDirect((int) size);
+                while (buffer.hasRemaining() && channel.read(buffer) > 0);
+                buffer.flip();
+            }
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) return null;
+            final int width = buffer.getInt();
+            final int height = buffer.getInt();
+            buffer.getLong();
+            if (width <= 0 || height <= 0 || buffer.remaining() < (long) width * height * 4) {
+                return null;
+            }
+            Bitmap bmp = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            bmp.copyPixelsFromBuffer(buffer);
+            return bmp;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
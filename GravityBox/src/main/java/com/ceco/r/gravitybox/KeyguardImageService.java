@@ -14,10 +14,10 @@
  */
 package com.ceco.r.gravitybox;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.util.zip.CRC32;
+
 import android.annotation.SuppressLint;
 import android.app.Service;
 import android.content.Intent;
@@ -92,10 +92,14 @@ public class KeyguardImageService extends Service {
         }
     }
 
+    @SuppressWarnings("ResultOfMethodCallIgnored")
     @Override
     public void onCreate() {
         super.onCreate();
-        mKisImageFile = new File(SettingsManager.getInstance(this).getPreferenceDir(), "kis_image.png");
+        mKisImageFile = new File(SettingsManager.getInstance(this).getPreferenceDir(),
+                KeyguardImageFile.FILE_NAME);
+        // remove image stored by previous versions
+        new File(SettingsManager.getInstance(this).getPreferenceDir(), "kis_image.png").delete();
         mPrefs = SettingsManager.getInstance(this).getMainPrefs();
     }
 
@@ -105,18 +109,37 @@ public class KeyguardImageService extends Service {
     }
 
     @SuppressWarnings("ResultOfMethodCallIgnored")
-    @SuppressLint("SetWorldReadable")
     private boolean saveImage() {
         try {
-            Bitmap tmpBmp = BitmapFactory.decodeStream(
-                    new ByteArrayInputStream(mOutputStream.toByteArray()));
+            final boolean blur = mPrefs.getBoolean(
+                    GravityBoxSettings.PREF_KEY_LOCKSCREEN_BACKGROUND_BLUR_EFFECT, false);
+            final int blurIntensity = mPrefs.getInt(
+                    GravityBoxSettings.PREF_KEY_LOCKSCREEN_BACKGROUND_BLUR_INTENSITY, 14);
+
+            // skip unchanged screen content processed with the same settings
+            final byte[] data = mOutputStream.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            final long hash = (crc.getValue() << 16) | (blur ? 0x8000 : 0) | (blurIntensity & 0x7fff);
+            if (hash == KeyguardImageFile.readSourceHash(mKisImageFile)) {
+                return false;
+            }
+
+            Bitmap tmpBmp = BitmapFactory.decodeByteArray(data, 0, data.length);
             if (tmpBmp != null) {
-                if (mPrefs.getBoolean(GravityBoxSettings.PREF_KEY_LOCKSCREEN_BACKGROUND_BLUR_EFFECT, false)) {
-                    tmpBmp = BitmapUtils.blurBitmap(this, tmpBmp, mPrefs.getInt(
-                            GravityBoxSettings.PREF_KEY_LOCKSCREEN_BACKGROUND_BLUR_INTENSITY, 14));
+                if (blur) {
+                    // blur at half resolution with half radius for the same visual result
+                    Bitmap scaled = Bitmap.createScaledBitmap(tmpBmp,
+                            Math.max(1, tmpBmp.getWidth() / 2), Math.max(1, tmpBmp.getHeight() / 2), true);
+                    if (scaled != tmpBmp) {
+                        tmpBmp.recycle();
+                    }
+                    tmpBmp = BitmapUtils.blurBitmap(this, scaled, Math.max(1, blurIntensity / 2f));
+                    if (tmpBmp != scaled) {
+                        scaled.recycle();
+                    }
                 }
-                tmpBmp.compress(Bitmap.CompressFormat.PNG, 100, new FileOutputStream(mKisImageFile));
-                mKisImageFile.setReadable(true, false);
+                KeyguardImageFile.write(mKisImageFile, tmpBmp, hash);
                 tmpBmp.recycle();
                 return true;
             }
@@ -15,7 +15,6 @@
 package com.ceco.r.gravitybox;
 
 import java.io.File;
-import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -27,16 +26,9 @@ import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Paint;
-import android.graphics.Rect;
-import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.Handler;
 import android.provider.CallLog;
-import android.service.notification.StatusBarNotification;
 import android.util.TypedValue;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -134,6 +126,13 @@ public class LockscreenAppBar implements SysUiKeyguardStateMonitor.Listener,
             GravityBox.log(TAG, t);
         }
         updateScale();
+        // badges are rendered for density of GB context
+        for (AppInfo ai : mAppSlots) {
+            if (ai.mBadgeIcon != null) {
+                ai.mBadgeIcon = null;
+                ai.updateIcon();
+            }
+        }
     }
 
     private void updateScale() {
@@ -165,7 +164,11 @@ public class LockscreenAppBar implements SysUiKeyguardStateMonitor.Listener,
 
     public void setShowBadges(boolean showBadges) {
         mShowBadges = showBadges;
-        onNotificationDataChanged(null);
+        for (AppInfo ai : mAppSlots) {
+            if (ai.getPackageName() != null) {
+                ai.updateIcon();
+            }
+        }
     }
 
     public void setScale(int scale) {
@@ -231,13 +234,13 @@ public class LockscreenAppBar implements SysUiKeyguardStateMonitor.Listener,
     }
 
     @Override
-    public void onNotificationDataChanged(final StatusBarNotification sbn) {
-        for (AppInfo ai : mAppSlots) {
-            if (ai.getPackageName() == null)
-                continue;
+    public void onNotificationCountChanged(final String pkg, final int count) {
+        if (!mShowBadges) return;
 
-            if (sbn == null || sbn.getPackageName() == null ||
-                    sbn.getPackageName().equals(ai.getPackageName())) {
+        for (AppInfo ai : mAppSlots) {
+            // missed call badge is based on call log so refresh it on any telecom change
+            if (pkg.equals(ai.getPackageName()) && (ai.mBadgeCount != count ||
+                    ModTelecom.PACKAGE_NAME.equals(pkg))) {
                 ai.updateIcon();
             }
         }
@@ -294,13 +297,13 @@ public class LockscreenAppBar implements SysUiKeyguardStateMonitor.Listener,
 
     private final class AppInfo implements View.OnClickListener {
         private Intent mIntent;
-        private Resources mResources;
         private Resources mGbResources;
         private ImageView mView;
         private Drawable mIcon;
+        private BadgeDrawable mBadgeIcon;
+        private int mBadgeCount;
 
         public AppInfo(int resId) {
-            mResources = mContext.getResources();
             mGbResources = mGbContext.getResources();
             mView = mRootView.findViewById(resId);
             mView.setVisibility(View.GONE);
@@ -310,6 +313,8 @@ public class LockscreenAppBar implements SysUiKeyguardStateMonitor.Listener,
         private void reset() {
             mIntent = null;
             mIcon = null;
+            mBadgeIcon = null;
+            mBadgeCount = 0;
             mView.setImageDrawable(null);
             mView.setVisibility(View.GONE);
         }
@@ -379,13 +384,19 @@ public class LockscreenAppBar implements SysUiKeyguardStateMonitor.Listener,
 
             Drawable d = mIcon;
 
+            int count = 0;
             final int mode = mIntent.getIntExtra("mode", AppPickerPreference.MODE_APP);
             if (mShowBadges && mode == AppPickerPreference.MODE_APP) {
-                int count = getNotifCount();
+                count = getNotifCount();
                 if (count > 0) {
-                    d = createBadgeDrawable(d, count);
+                    if (mBadgeIcon == null) {
+                        mBadgeIcon = new BadgeDrawable(mGbContext, mIcon);
+                    }
+                    mBadgeIcon.setCount(count);
+                    d = mBadgeIcon;
                 }
             }
+            mBadgeCount = count;
 
             mView.setImageDrawable(d);
         }
@@ -401,51 +412,6 @@ public class LockscreenAppBar implements SysUiKeyguardStateMonitor.Listener,
             }
         }
 
-        private Drawable createBadgeDrawable(Drawable d, int count) {
-            if (d == null) return null;
-
-            NumberFormat f = NumberFormat.getIntegerInstance();
-            String countStr = count > 99 ? "99+" : f.format(count);
-
-            Bitmap b = BitmapUtils.drawableToBitmap(d);
-            b = b.copy(Bitmap.Config.ARGB_8888, true);
-            Canvas c = new Canvas(b);
-
-            Paint p = new Paint();
-            p.setTextAlign(Paint.Align.CENTER);
-            p.setColor(Color.WHITE);
-            p.setAntiAlias(true);
-            p.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 10,
-                    mResources.getDisplayMetrics()));
-
-            Drawable bg = mGbContext.getDrawable(R.drawable.ic_notification_overlay);
-
-            final int w = b.getWidth();
-            final int h = b.getHeight();
-            final Rect r = new Rect();
-            p.getTextBounds(countStr, 0, countStr.length(), r);
-            final int tw = r.right - r.left;
-            final int th = r.bottom - r.top;
-            bg.getPadding(r);
-            int dw = r.left + tw + r.right;
-            if (dw < bg.getMinimumWidth()) {
-                dw = bg.getMinimumWidth();
-            }
-            int x = w-r.right-((dw-r.right-r.left)/2);
-            int dh = r.top + th + r.bottom;
-            if (dh < bg.getMinimumHeight()) {
-                dh = bg.getMinimumHeight();
-            }
-            if (dw < dh) dw = dh;
-            int y = h-r.bottom-((dh-r.top-th-r.bottom)/2);
-            bg.setBounds(w-dw, h-dh, w, h);
-
-            bg.draw(c);
-            c.drawText(countStr, x, y, p);
-
-            return new BitmapDrawable(mResources, b);
-        }
-
         public boolean isUnsafeAction() {
             return (mIntent != null &&
                     !ShortcutActivity.isActionSafe(mIntent.getStringExtra(
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2021 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.r.gravitybox;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.DisplayMetrics;
+import android.view.WindowManager;
+import de.robv.android.xposed.XposedBridge;
+
+/**
+ * Decodes lockscreen background images off the main thread, downsampled to display size.
+ * Blurred results are cached in cache dir keyed by source file mtime and blur radius
+ * so that blur is not recomputed on every settings change or SystemUI restart.
+ * Only result of the most recent request is published.
+ */
+public class LockscreenBackgroundLoader {
+    private static final String TAG = "GB:LockscreenBackgroundLoader";
+    private static final boolean DEBUG = false;
+    private static final String CACHE_FILE_PREFIX = "gb_lockscreen_bg_";
+
+    private static void log(String message) {
+        XposedBridge.log(TAG + ": " + message);
+    }
+
+    public interface Callback {
+        void onBackgroundLoaded(Bitmap bitmap);
+    }
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final AtomicInteger mGeneration = new AtomicInteger();
+
+    public LockscreenBackgroundLoader(Context context) {
+        mContext = context;
+        mHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Invalidates pending requests so that their results won't be published
+     */
+    public void cancel() {
+        mGeneration.incrementAndGet();
+    }
+
+    /**
+     * Loads image file asynchronously
+     * @param blurRadius - blur radius or 0 for no blur
+     * @param callback - invoked on main thread with loaded bitmap or null
+     */
+    public void load(File file, int blurRadius, Callback callback) {
+        submit(generation -> decode(file, blurRadius, generation), callback);
+    }
+
+    /**
+     * Loads image stored in {@link KeyguardImageFile} format asynchronously
+     * @param callback - invoked on main thread with loaded bitmap or null
+     */
+    public void loadKeyguardImage(File file, Callback callback) {
+        submit(generation -> KeyguardImageFile.read(file), callback);
+    }
+
+    private interface Decoder {
+        Bitmap decode(int generation);
+    }
+
+    private void submit(Decoder decoder, Callback callback) {
+        final int generation = mGeneration.incrementAndGet();
+        AsyncTask.execute(() -> {
+            if (generation != mGeneration.get()) return;
+            Bitmap bmp = null;
+            try {
+                bmp = decoder.decode(generation);
+            } catch (Throwable t) {
+                GravityBox.log(TAG, "Error loading background", t);
+            }
+            final Bitmap result = bmp;
+            mHandler.post(() -> {
+                if (generation == mGeneration.get()) {
+                    callback.onBackgroundLoaded(result);
+                }
+            });
+        });
+    }
+
+    private Bitmap decode(File file, int blurRadius, int generation) {
+        if (!file.canRead()) {
+            if (DEBUG) log("decode: file not readable: " + file);
+            return null;
+        }
+
+        DisplayMetrics dm = new DisplayMetrics();
+        WindowManager wm = (WindowManager) mContext.getSystemService(Context.WINDOW_SERVICE);
+        wm.getDefaultDisplay().getRealMetrics(dm);
+        final int width = Math.min(dm.widthPixels, dm.heightPixels);
+        final int height = Math.max(dm.widthPixels, dm.heightPixels);
+
+        if (blurRadius <= 0) {
+            return BitmapUtils.decodeSampledBitmap(file.getPath(), width, height,
+                    Bitmap.Config.HARDWARE);
+        }
+
+        File cacheFile = new File(mContext.getCacheDir(), CACHE_FILE_PREFIX +
+                file.lastModified() + "_" + blurRadius + "_" + width + "x" + height + ".png");
+        if (cacheFile.canRead()) {
+            Bitmap cached = BitmapUtils.decodeSampledBitmap(cacheFile.getPath(), width, height,
+                    Bitmap.Config.HARDWARE);
+            if (cached != null) {
+                if (DEBUG) log("decode: using cached " + cacheFile.getName());
+                return cached;
+            }
+        }
+
+        // blur works on software ARGB_8888 bitmaps only
+        Bitmap bmp = BitmapUtils.decodeSampledBitmap(file.getPath(), width, height,
+                Bitmap.Config.ARGB_8888);
+        if (bmp == null) return null;
+        Bitmap blurred = BitmapUtils.blurBitmap(mContext, bmp, blurRadius);
+        if (blurred != bmp) {
+            bmp.recycle();
+        }
+        if (generation == mGeneration.get()) {
+            writeCache(cacheFile, blurred);
+        }
+        return blurred;
+    }
+
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private void writeCache(File cacheFile, Bitmap bmp) {
+        File dir = cacheFile.getParentFile();
+        if (dir == null) return;
+        File[] stale = dir.listFiles((d, name) -> name.startsWith(CACHE_FILE_PREFIX));
+        if (stale != null) {
+            for (File f : stale) {
+                f.delete();
+            }
+        }
+        File tmpFile = new File(dir, cacheFile.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmpFile)) {
+            bmp.compress(Bitmap.CompressFormat.PNG, 100, out);
+        } catch (Exception e) {
+            tmpFile.delete();
+            if (DEBUG) log("writeCache: " + e.getMessage());
+            return;
+        }
+        if (!tmpFile.renameTo(cacheFile)) {
+            tmpFile.delete();
+        } else if (DEBUG) {
+            log("writeCache: " + cacheFile.getName() + " written");
+        }
+    }
+}
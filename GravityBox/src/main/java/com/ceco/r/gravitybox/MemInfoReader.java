@@ -16,45 +16,119 @@
 
 package com.ceco.r.gravitybox;
 
-import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 
 import android.os.StrictMode;
 
+/**
+ * Reader of /proc/meminfo keeping file descriptor open between reads.
+ * File is read from offset 0 into reusable direct buffer and values are parsed
+ * in place. Line offsets of known fields are remembered so that subsequent
+ * reads only verify them instead of scanning whole file.
+ */
 public class MemInfoReader {
-    byte[] mBuffer = new byte[1024];
+    private static final String MEMINFO_PATH = "/proc/meminfo";
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    private static final int MAX_BUFFER_SIZE = 65536;
+
+    private static final int MEM_TOTAL = 0;
+    private static final int MEM_FREE = 1;
+    private static final int MEM_AVAILABLE = 2;
+    private static final int BUFFERS = 3;
+    private static final int CACHED = 4;
+    private static final int SWAP_CACHED = 5;
+    private static final int SWAP_TOTAL = 6;
+    private static final int SWAP_FREE = 7;
+    private static final int SHMEM = 8;
+
+    private static final byte[][] FIELD_KEYS = {
+            key("MemTotal:"), key("MemFree:"), key("MemAvailable:"),
+            key("Buffers:"), key("Cached:"), key("SwapCached:"),
+            key("SwapTotal:"), key("SwapFree:"), key("Shmem:")
+    };
+    private static final int FIELD_COUNT = FIELD_KEYS.length;
+
+    private static byte[] key(String name) {
+        return name.getBytes(StandardCharsets.US_ASCII);
+    }
 
-    private long mTotalSize;
-    private long mFreeSize;
-    private long mCachedSize;
+    private FileChannel mChannel;
+    private ByteBuffer mBuffer = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+    private int mLength;
+    private final int[] mLineOffsets = new int[FIELD_COUNT];
+    private final long[] mValues = new long[FIELD_COUNT];
+    private boolean mOffsetsValid;
+
+    private boolean fill() throws IOException {
+        if (mChannel == null) {
+            mChannel = new RandomAccessFile(MEMINFO_PATH, "r").getChannel();
+        }
+        while (true) {
+            mBuffer.clear();
+            int pos = 0;
+            int n;
+            while (mBuffer.hasRemaining() && (n = mChannel.read(mBuffer, pos)) > 0) {
+                pos += n;
+            }
+            if (mBuffer.hasRemaining() || mBuffer.capacity() >= MAX_BUFFER_SIZE) {
+                mLength = pos;
+                return pos > 0;
+            }
+            // file did not fit; grow buffer and read again from the start
+            mBuffer = ByteBuffer.allocateDirect(mBuffer.capacity() * 2);
+            mOffsetsValid = false;
+        }
+    }
 
-    private boolean matchText(byte[] buffer, int index, String text) {
-        int N = text.length();
-        if ((index+N) >= buffer.length) {
+    private boolean matchKey(int offset, byte[] key) {
+        if (offset < 0 || offset + key.length > mLength ||
+                (offset > 0 && mBuffer.get(offset - 1) != '\n')) {
             return false;
         }
-        for (int i=0; i<N; i++) {
-            if (buffer[index+i] != text.charAt(i)) {
+        for (int i = 0; i < key.length; i++) {
+            if (mBuffer.get(offset + i) != key[i]) {
                 return false;
             }
         }
         return true;
     }
 
-    private long extractMemValue(byte[] buffer, int index) {
-        while (index < buffer.length && buffer[index] != '\n') {
-            if (buffer[index] >= '0' && buffer[index] <= '9') {
-                int start = index;
-                index++;
-                while (index < buffer.length && buffer[index] >= '0'
-                    && buffer[index] <= '9') {
-                    index++;
+    private void indexLines() {
+        for (int f = 0; f < FIELD_COUNT; f++) {
+            mLineOffsets[f] = -1;
+        }
+        int lineStart = 0;
+        while (lineStart < mLength) {
+            for (int f = 0; f < FIELD_COUNT; f++) {
+                if (mLineOffsets[f] < 0 && matchKey(lineStart, FIELD_KEYS[f])) {
+                    mLineOffsets[f] = lineStart;
+                    break;
                 }
-                String str = new String(buffer, 0, start, index-start);
-                return ((long)Integer.parseInt(str)) * 1024;
             }
+            while (lineStart < mLength && mBuffer.get(lineStart) != '\n') {
+                lineStart++;
+            }
+            lineStart++;
+        }
+        mOffsetsValid = true;
+    }
+
+    private long extractMemValue(int index) {
+        while (index < mLength && mBuffer.get(index) == ' ') {
+            index++;
+        }
+        long value = 0;
+        byte b;
+        while (index < mLength && (b = mBuffer.get(index)) >= '0' && b <= '9') {
+            value = value * 10 + (b - '0');
             index++;
         }
-        return 0;
+        // values are reported in kB
+        return value * 1024;
     }
 
     public void readMemInfo() {
@@ -63,47 +137,87 @@ public class MemInfoReader {
         // /proc/ and /sys/ files perhaps?
         StrictMode.ThreadPolicy savedPolicy = StrictMode.allowThreadDiskReads();
         try {
-            mTotalSize = 0;
-            mFreeSize = 0;
-            mCachedSize = 0;
-            FileInputStream is = new FileInputStream("/proc/meminfo");
-            int len = is.read(mBuffer);
-            is.close();
-            final int BUFLEN = mBuffer.length;
-            int count = 0;
-            for (int i=0; i<len && count < 3; i++) {
-                if (matchText(mBuffer, i, "MemTotal")) {
-                    i += 8;
-                    mTotalSize = extractMemValue(mBuffer, i);
-                    count++;
-                } else if (matchText(mBuffer, i, "MemFree")) {
-                    i += 7;
-                    mFreeSize = extractMemValue(mBuffer, i);
-                    count++;
-                } else if (matchText(mBuffer, i, "Cached")) {
-                    i += 6;
-                    mCachedSize = extractMemValue(mBuffer, i);
-                    count++;
-                }
-                while (i < BUFLEN && mBuffer[i] != '\n') {
-                    i++;
+            if (!fill()) {
+                clearValues();
+                return;
+            }
+            if (mOffsetsValid) {
+                for (int f = 0; f < FIELD_COUNT; f++) {
+                    if (mLineOffsets[f] >= 0 && !matchKey(mLineOffsets[f], FIELD_KEYS[f])) {
+                        mOffsetsValid = false;
+                        break;
+                    }
                 }
             }
-        } catch (java.io.IOException ignored) {
+            if (!mOffsetsValid) {
+                indexLines();
+            }
+            for (int f = 0; f < FIELD_COUNT; f++) {
+                final int offset = mLineOffsets[f];
+                mValues[f] = (offset >= 0 ? extractMemValue(offset + FIELD_KEYS[f].length) : 0);
+            }
+        } catch (IOException e) {
+            clearValues();
+            closeChannel();
         } finally {
             StrictMode.setThreadPolicy(savedPolicy);
         }
     }
 
+    private void clearValues() {
+        for (int f = 0; f < FIELD_COUNT; f++) {
+            mValues[f] = 0;
+        }
+    }
+
+    private void closeChannel() {
+        if (mChannel != null) {
+            try {
+                mChannel.close();
+            } catch (IOException ignored) { }
+            mChannel = null;
+            mOffsetsValid = false;
+        }
+    }
+
     public long getTotalSize() {
-        return mTotalSize;
+        return mValues[MEM_TOTAL];
     }
 
     public long getFreeSize() {
-        return mFreeSize;
+        return mValues[MEM_FREE];
     }
 
     public long getCachedSize() {
-        return mCachedSize;
+        return mValues[CACHED];
+    }
+
+    /**
+     * @return MemAvailable as estimated by kernel or free + cached size
+     * on kernels not reporting it
+     */
+    public long getAvailableSize() {
+        return (mLineOffsets[MEM_AVAILABLE] >= 0 && mOffsetsValid ?
+                mValues[MEM_AVAILABLE] : mValues[MEM_FREE] + mValues[CACHED]);
+    }
+
+    public long getBuffersSize() {
+        return mValues[BUFFERS];
+    }
+
+    public long getSwapCachedSize() {
+        return mValues[SWAP_CACHED];
+    }
+
+    public long getSwapTotalSize() {
+        return mValues[SWAP_TOTAL];
+    }
+
+    public long getSwapFreeSize() {
+        return mValues[SWAP_FREE];
+    }
+
+    public long getShmemSize() {
+        return mValues[SHMEM];
     }
 }
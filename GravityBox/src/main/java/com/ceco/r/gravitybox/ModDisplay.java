@@ -430,8 +430,9 @@ public class ModDisplay {
                                 tmpBmp = Bitmap.createScaledBitmap(bmp, newWidth, newHeight, true);
                             }
 
+                            // fast lossy encoding is sufficient for transport to KeyguardImageService
                             final ByteArrayOutputStream os = new ByteArrayOutputStream();
-                            tmpBmp.compress(CompressFormat.PNG, 100, os);
+                            tmpBmp.compress(CompressFormat.JPEG, 95, os);
                             try {
                                os.close();
                             } catch (IOException ignored) { }
@@ -447,7 +448,11 @@ public class ModDisplay {
                                         try {
                                             if (msg.what == KeyguardImageService.MSG_GET_NEXT_CHUNK) {
                                                 byte[] data = new byte[204800];
-                                                if (mKisImageStream.read(data) != -1) {
+                                                final int len = mKisImageStream.read(data);
+                                                if (len != -1) {
+                                                    if (len < data.length) {
+                                                        data = Arrays.copyOf(data, len);
+                                                    }
                                                     Bundle bundle = new Bundle();
                                                     bundle.putByteArray("data", data);
                                                     Message dataMsg = Message.obtain(null, KeyguardImageService.MSG_WRITE_OUTPUT);
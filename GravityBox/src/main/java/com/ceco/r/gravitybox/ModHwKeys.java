@@ -20,15 +20,11 @@ import java.lang.reflect.Method;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import android.annotation.SuppressLint;
 import android.app.ActivityManager;
 import android.app.KeyguardManager;
-import android.app.ActivityManager.RunningTaskInfo;
 import android.content.ActivityNotFoundException;
 import android.content.ComponentName;
 import android.content.ContentResolver;
@@ -36,7 +32,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
-import android.content.pm.ResolveInfo;
 import android.content.res.Resources;
 import android.hardware.input.InputManager;
 import android.media.AudioManager;
@@ -61,6 +56,7 @@ import android.widget.Toast;
 import com.ceco.r.gravitybox.ledcontrol.QuietHoursActivity;
 import com.ceco.r.gravitybox.managers.BroadcastMediator;
 import com.ceco.r.gravitybox.managers.FrameworkManagers;
+import com.ceco.r.gravitybox.managers.FrameworkTaskStateTracker;
 import com.ceco.r.gravitybox.managers.SysUiAppLauncher;
 import com.ceco.r.gravitybox.shortcuts.AShortcut;
 import com.ceco.r.gravitybox.shortcuts.RingerModeShortcut;
@@ -130,21 +126,10 @@ public class ModHwKeys {
     private static String mStrNoPrevApp;
     private static String mStrCustomAppNone;
     private static String mStrCustomAppMissing;
-    private static boolean mIsMenuLongPressed = false;
-    private static boolean mIsMenuDoubleTap = false;
-    private static boolean mWasMenuDoubleTap = false;
-    private static boolean mIsBackLongPressed = false;
-    private static boolean mIsBackDoubleTap = false;
-    private static boolean mWasBackDoubleTap = false;
-    private static boolean mRecentsKeyPressed = false;
-    private static boolean mIsRecentsLongPressed = false;
-    private static boolean mIsRecentsDoubleTap = false;
-    private static boolean mWasRecentsDoubleTap = false;
     private static boolean mIsHomeLongPressed = false;
     private static int mLockscreenTorch = 0;
     private static boolean mHomeDoubletapDisabled;
     private static int mHomeDoubletapDefaultAction;
-    private static Map<HwKeyTrigger, HwKeyAction> mHwKeyActions;
     private static int mDoubletapSpeed = GravityBoxSettings.HWKEY_DOUBLETAP_SPEED_DEFAULT;
     private static int mKillDelay = GravityBoxSettings.HWKEY_KILL_DELAY_DEFAULT;
     private static String mVolumeRockerWake = "default";
@@ -153,12 +138,6 @@ public class ModHwKeys {
     private static XSharedPreferences mPrefs;
     private static int mPieMode;
     private static int mExpandedDesktopMode;
-    private static boolean mMenuKeyPressed;
-    private static boolean mBackKeyPressed;
-    private static boolean mIsCustomKeyLongPressed = false;
-    private static boolean mCustomKeyDoubletapPending = false;
-    private static boolean mWasCustomKeyDoubletap = false;
-    private static boolean mCustomKeyPressed = false;
     private static long[] mVkVibePattern;
     private static String[] mHeadsetUri = new String[2]; // index 0 = unplugged, index 1 = plugged 
     private static Method mLaunchAssistAction = null;
@@ -186,21 +165,64 @@ public class ModHwKeys {
         CUSTOM
     }
 
+    private enum HwKeyGesture {
+        SINGLETAP,
+        LONGPRESS,
+        DOUBLETAP
+    }
+
     private enum HwKeyTrigger {
-        MENU_SINGLETAP,
-        MENU_LONGPRESS,
-        MENU_DOUBLETAP,
-        HOME_LONGPRESS,
-        HOME_DOUBLETAP,
-        BACK_SINGLETAP,
-        BACK_LONGPRESS,
-        BACK_DOUBLETAP,
-        RECENTS_SINGLETAP,
-        RECENTS_LONGPRESS,
-        RECENTS_DOUBLETAP,
-        CUSTOM_SINGLETAP,
-        CUSTOM_LONGPRESS,
-        CUSTOM_DOUBLETAP
+        MENU_SINGLETAP(HwKey.MENU, HwKeyGesture.SINGLETAP,
+                GravityBoxSettings.PREF_KEY_HWKEY_MENU_SINGLETAP, "0"),
+        MENU_LONGPRESS(HwKey.MENU, HwKeyGesture.LONGPRESS,
+                GravityBoxSettings.PREF_KEY_HWKEY_MENU_LONGPRESS, "0"),
+        MENU_DOUBLETAP(HwKey.MENU, HwKeyGesture.DOUBLETAP,
+                GravityBoxSettings.PREF_KEY_HWKEY_MENU_DOUBLETAP, "0"),
+        HOME_LONGPRESS(HwKey.HOME, HwKeyGesture.LONGPRESS,
+                GravityBoxSettings.PREF_KEY_HWKEY_HOME_LONGPRESS, "0"),
+        HOME_DOUBLETAP(HwKey.HOME, HwKeyGesture.DOUBLETAP,
+                GravityBoxSettings.PREF_KEY_HWKEY_HOME_DOUBLETAP, "0"),
+        BACK_SINGLETAP(HwKey.BACK, HwKeyGesture.SINGLETAP,
+                GravityBoxSettings.PREF_KEY_HWKEY_BACK_SINGLETAP, "0"),
+        BACK_LONGPRESS(HwKey.BACK, HwKeyGesture.LONGPRESS,
+                GravityBoxSettings.PREF_KEY_HWKEY_BACK_LONGPRESS, "0"),
+        BACK_DOUBLETAP(HwKey.BACK, HwKeyGesture.DOUBLETAP,
+                GravityBoxSettings.PREF_KEY_HWKEY_BACK_DOUBLETAP, "0"),
+        RECENTS_SINGLETAP(HwKey.RECENTS, HwKeyGesture.SINGLETAP,
+                GravityBoxSettings.PREF_KEY_HWKEY_RECENTS_SINGLETAP, "0"),
+        RECENTS_LONGPRESS(HwKey.RECENTS, HwKeyGesture.LONGPRESS,
+                GravityBoxSettings.PREF_KEY_HWKEY_RECENTS_LONGPRESS, "0"),
+        RECENTS_DOUBLETAP(HwKey.RECENTS, HwKeyGesture.DOUBLETAP,
+                GravityBoxSettings.PREF_KEY_HWKEY_RECENTS_DOUBLETAP, "0"),
+        CUSTOM_SINGLETAP(HwKey.CUSTOM, HwKeyGesture.SINGLETAP,
+                GravityBoxSettings.PREF_KEY_NAVBAR_CUSTOM_KEY_SINGLETAP, "12"),
+        CUSTOM_LONGPRESS(HwKey.CUSTOM, HwKeyGesture.LONGPRESS,
+                GravityBoxSettings.PREF_KEY_NAVBAR_CUSTOM_KEY_LONGPRESS, "0"),
+        CUSTOM_DOUBLETAP(HwKey.CUSTOM, HwKeyGesture.DOUBLETAP,
+                GravityBoxSettings.PREF_KEY_NAVBAR_CUSTOM_KEY_DOUBLETAP, "0");
+
+        private static final HwKeyTrigger[] VALUES = values();
+
+        final HwKey key;
+        final HwKeyGesture gesture;
+        final String prefKey;
+        final String defaultValue;
+
+        HwKeyTrigger(HwKey key, HwKeyGesture gesture, String prefKey, String defaultValue) {
+            this.key = key;
+            this.gesture = gesture;
+            this.prefKey = prefKey;
+            this.defaultValue = defaultValue;
+        }
+
+        static HwKeyTrigger fromPrefKey(String prefKey) {
+            for (HwKeyTrigger trigger : VALUES) {
+                if (trigger.prefKey.equals(prefKey)) {
+                    return trigger;
+                }
+            }
+            return null;
+        }
     }
 
     public static class HwKeyAction {
@@ -216,6 +238,225 @@ public class ModHwKeys {
         }
     }
 
+    // actions resolved from prefs indexed by HwKeyTrigger ordinal
+    private static final HwKeyAction[] mHwKeyActions = new HwKeyAction[HwKeyTrigger.VALUES.length];
+    static {
+        for (int i = 0; i < mHwKeyActions.length; i++) {
+            mHwKeyActions[i] = new HwKeyAction(0, null);
+        }
+    }
+
+    // gesture state machines indexed by HwKey ordinal; HOME is left to framework
+    private static final KeyGesture[] mKeyGestures = new KeyGesture[HwKey.values().length];
+    static {
+        addKeyGesture(new KeyGesture(HwKey.MENU, KeyEvent.KEYCODE_MENU, "Menu",
+                KeyGesture.FLAG_HW_KEY | KeyGesture.FLAG_INJECT_DEFAULT | KeyGesture.FLAG_OXYGEN_HAPTIC |
+                KeyGesture.FLAG_IGNORE_CANCELED));
+        addKeyGesture(new KeyGesture(HwKey.BACK, KeyEvent.KEYCODE_BACK, "Back",
+                KeyGesture.FLAG_HW_KEY | KeyGesture.FLAG_INJECT_DEFAULT | KeyGesture.FLAG_IGNORE_CANCELED));
+        addKeyGesture(new KeyGesture(HwKey.RECENTS, KeyEvent.KEYCODE_APP_SWITCH, "Recents",
+                KeyGesture.FLAG_HW_KEY | KeyGesture.FLAG_INJECT_DEFAULT | KeyGesture.FLAG_IGNORE_CANCELED));
+        addKeyGesture(new KeyGesture(HwKey.CUSTOM, KeyEvent.KEYCODE_SOFT_LEFT, "Custom",
+                KeyGesture.FLAG_LONGPRESS_ON_REPEAT | KeyGesture.FLAG_OXYGEN_HAPTIC));
+    }
+
+    private static void addKeyGesture(KeyGesture keyGesture) {
+        mKeyGestures[keyGesture.key.ordinal()] = keyGesture;
+    }
+
+    private static KeyGesture getKeyGesture(int keyCode) {
+        for (KeyGesture keyGesture : mKeyGestures) {
+            if (keyGesture != null && keyGesture.keyCode == keyCode) {
+                return keyGesture;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Single-tap, long-press and double-tap state machine of a key driven by event timestamps.
+     * Pending long-press and double-tap timeouts are served by one reusable timer per key.
+     */
+    private static final class KeyGesture implements Runnable {
+        // physical key handled only when coming from system and subject to HW keys disable
+        static final int FLAG_HW_KEY = 1;
+        // inject original key when single-tap action is default
+        static final int FLAG_INJECT_DEFAULT = 1 << 1;
+        // long-press is reported by key repeat instead of timeout
+        static final int FLAG_LONGPRESS_ON_REPEAT = 1 << 2;
+        // OxygenOS does not perform its own feedback for the key
+        static final int FLAG_OXYGEN_HAPTIC = 1 << 3;
+        // single-tap is not performed when key up was canceled
+        static final int FLAG_IGNORE_CANCELED = 1 << 4;
+
+        final HwKey key;
+        final int keyCode;
+        private final int mFlags;
+        private final HwKeyTrigger[] mTriggers = new HwKeyTrigger[HwKeyGesture.values().length];
+        private final String mHapticReason;
+        private final String mLongPressHapticReason;
+        private volatile boolean mHasAction;
+        private Handler mHandler;
+        private boolean mPressed;
+        private boolean mLongPressed;
+        private boolean mWasDoubleTap;
+        private long mLongPressDeadline;
+        private long mDoubleTapDeadline;
+
+        KeyGesture(HwKey key, int keyCode, String name, int flags) {
+            this.key = key;
+            this.keyCode = keyCode;
+            mFlags = flags;
+            mHapticReason = "GravityBox - " + name + " Key";
+            mLongPressHapticReason = mHapticReason + " Longpress";
+            for (HwKeyTrigger trigger : HwKeyTrigger.VALUES) {
+                if (trigger.key == key) {
+                    mTriggers[trigger.gesture.ordinal()] = trigger;
+                }
+            }
+            updateHasAction();
+        }
+
+        private boolean hasFlag(int flag) {
+            return (mFlags & flag) != 0;
+        }
+
+        private HwKeyTrigger getTrigger(HwKeyGesture gesture) {
+            return mTriggers[gesture.ordinal()];
+        }
+
+        private boolean isSet(HwKeyGesture gesture) {
+            HwKeyTrigger trigger = getTrigger(gesture);
+            return (trigger != null && getActionFor(trigger).actionId !=
+                    GravityBoxSettings.HWKEY_ACTION_DEFAULT);
+        }
+
+        void updateHasAction() {
+            // keys without original action to fall back to are always handled
+            mHasAction = !hasFlag(FLAG_INJECT_DEFAULT) || isSet(HwKeyGesture.SINGLETAP) ||
+                    isSet(HwKeyGesture.LONGPRESS) || isSet(HwKeyGesture.DOUBLETAP);
+            if (DEBUG) log("HWKEY " + key + " has action = " + mHasAction);
+        }
+
+        boolean shouldHandle(boolean isFromSystem) {
+            if (!hasFlag(FLAG_HW_KEY)) return true;
+            return (isFromSystem && (mHasAction || !areHwKeysEnabled()));
+        }
+
+        /**
+         * Called on input thread while timeouts are processed on PhoneWindowManager handler
+         * so both entry points are synchronized to keep gesture state consistent
+         * @return true if event was consumed
+         */
+        synchronized boolean onKeyEvent(KeyEvent event, boolean down, boolean isFromSystem, Handler handler) {
+            mHandler = handler;
+            processTimeouts(event.getEventTime());
+            final boolean consumed = down ? onKeyDown(event, isFromSystem) : onKeyUp(event);
+            scheduleTimer();
+            return consumed;
+        }
+
+        private boolean onKeyDown(KeyEvent event, boolean isFromSystem) {
+            if (event.getRepeatCount() > 0) {
+                if (!hasFlag(FLAG_LONGPRESS_ON_REPEAT)) return false;
+                mDoubleTapDeadline = 0;
+                onLongPress();
+                return true;
+            }
+
+            mPressed = true;
+            if (mDoubleTapDeadline != 0) {
+                mDoubleTapDeadline = 0;
+                mWasDoubleTap = true;
+                if (DEBUG) log(key + " double-tap action");
+                performAction(getTrigger(HwKeyGesture.DOUBLETAP));
+            } else {
+                mWasDoubleTap = false;
+                mLongPressed = false;
+                if (isFromSystem && isSet(HwKeyGesture.DOUBLETAP)) {
+                    mDoubleTapDeadline = event.getDownTime() + mDoubletapSpeed;
+                }
+                if (!hasFlag(FLAG_LONGPRESS_ON_REPEAT) && isSet(HwKeyGesture.LONGPRESS)) {
+                    mLongPressDeadline = event.getDownTime() + getLongpressTimeoutForAction(
+                            getActionFor(getTrigger(HwKeyGesture.LONGPRESS)).actionId);
+                }
+            }
+            if (isFromSystem && (hasFlag(FLAG_OXYGEN_HAPTIC) || !Utils.isOxygenOsRom())) {
+                performHapticFeedback(HapticFeedbackConstants.VIRTUAL_KEY, false, mHapticReason);
+            }
+            return true;
+        }
+
+        private boolean onKeyUp(KeyEvent event) {
+            mPressed = false;
+            mLongPressDeadline = 0;
+            if (mLongPressed) {
+                mLongPressed = false;
+            } else if (hasFlag(FLAG_HW_KEY) && !areHwKeysEnabled()) {
+                if (DEBUG) log(key + " KeyEvent coming from HW key and keys disabled. Ignoring.");
+            } else if (mDoubleTapDeadline != 0) {
+                // we are still waiting for double-tap
+                if (DEBUG) log(key + " doubletap pending. Ignoring.");
+            } else if (!mWasDoubleTap &&
+                    !(hasFlag(FLAG_IGNORE_CANCELED) && event.isCanceled())) {
+                performSingleTap();
+            }
+            return true;
+        }
+
+        private void onLongPress() {
+            mLongPressed = true;
+            if (DEBUG) log(key + " long-press action");
+            performAction(getTrigger(HwKeyGesture.LONGPRESS));
+            performHapticFeedback(HapticFeedbackConstants.LONG_PRESS, false, mLongPressHapticReason);
+        }
+
+        private void performSingleTap() {
+            if (!hasFlag(FLAG_INJECT_DEFAULT) || isSet(HwKeyGesture.SINGLETAP)) {
+                if (DEBUG) log(key + " single-tap action");
+                performAction(getTrigger(HwKeyGesture.SINGLETAP));
+            } else {
+                if (DEBUG) log("Triggering original DOWN/UP events for " + key + " key");
+                injectKey(keyCode);
+            }
+        }
+
+        private void processTimeouts(long now) {
+            if (mLongPressDeadline != 0 && now >= mLongPressDeadline) {
+                mLongPressDeadline = 0;
+                onLongPress();
+            }
+            if (mDoubleTapDeadline != 0 && now >= mDoubleTapDeadline) {
+                mDoubleTapDeadline = 0;
+                // doubletap timed out and since we blocked single-tap action while waiting for doubletap
+                // let's perform it now, but only in case key is not still pressed as we might still be
+                // waiting for long-press action
+                if (!mPressed && (!hasFlag(FLAG_HW_KEY) || areHwKeysEnabled())) {
+                    if (DEBUG) log(key + " double tap timed out and key not pressed");
+                    performSingleTap();
+                }
+            }
+        }
+
+        private void scheduleTimer() {
+            if (mHandler == null) return;
+            long deadline = mLongPressDeadline;
+            if (mDoubleTapDeadline != 0 && (deadline == 0 || mDoubleTapDeadline < deadline)) {
+                deadline = mDoubleTapDeadline;
+            }
+            mHandler.removeCallbacks(this);
+            if (deadline != 0) {
+                mHandler.postAtTime(this, deadline);
+            }
+        }
+
+        @Override
+        public synchronized void run() {
+            processTimeouts(SystemClock.uptimeMillis());
+            scheduleTimer();
+        }
+    }
+
     private static BroadcastMediator.Receiver mBroadcastReceiver = (context, intent) -> {
         if (DEBUG) log("Broadcast received: " + intent.toString());
 
@@ -228,21 +469,11 @@ public class ModHwKeys {
         String customApp = intent.getStringExtra(GravityBoxSettings.EXTRA_HWKEY_CUSTOM_APP);
 
         if (action.equals(GravityBoxSettings.ACTION_PREF_HWKEY_CHANGED)) {
-            if (GravityBoxSettings.PREF_KEY_HWKEY_MENU_SINGLETAP.equals(key)) {
-                setActionFor(HwKeyTrigger.MENU_SINGLETAP, value, customApp);
-                if (DEBUG) log("Menu singletap action set to: " + value);
-            } else if (GravityBoxSettings.PREF_KEY_HWKEY_MENU_LONGPRESS.equals(key)) {
-                setActionFor(HwKeyTrigger.MENU_LONGPRESS, value, customApp);
-                if (DEBUG) log("Menu long-press action set to: " + value);
-            } else if (GravityBoxSettings.PREF_KEY_HWKEY_MENU_DOUBLETAP.equals(key)) {
-                setActionFor(HwKeyTrigger.MENU_DOUBLETAP, value, customApp);
-                if (DEBUG) log("Menu double-tap action set to: " + value);
-            } else if (GravityBoxSettings.PREF_KEY_HWKEY_HOME_LONGPRESS.equals(key)) {
-                setActionFor(HwKeyTrigger.HOME_LONGPRESS, value, customApp);
-                if (DEBUG) log("Home long-press action set to: " + value);
-            } else if (GravityBoxSettings.PREF_KEY_HWKEY_HOME_DOUBLETAP.equals(key)) {
-                setActionFor(HwKeyTrigger.HOME_DOUBLETAP, value, customApp);
-                if (mPhoneWindowManager != null) {
+            HwKeyTrigger trigger = HwKeyTrigger.fromPrefKey(key);
+            if (trigger != null) {
+                setActionFor(trigger, value, customApp);
+                if (DEBUG) log(trigger + " action set to: " + value);
+                if (trigger == HwKeyTrigger.HOME_DOUBLETAP && mPhoneWindowManager != null) {
                     try {
                         XposedHelpers.setIntField(mPhoneWindowManager, "mDoubleTapOnHomeBehavior",
                                 value == 0 ? mHomeDoubletapDefaultAction : 1);
@@ -250,7 +481,6 @@ public class ModHwKeys {
                         GravityBox.log(TAG, "PhoneWindowManager: Error settings mDoubleTapOnHomeBehavior: ", t);
                     }
                 }
-                if (DEBUG) log("Home double-tap action set to: " + value);
             } else if (intent.hasExtra(GravityBoxSettings.EXTRA_HWKEY_HOME_DOUBLETAP_DISABLE)) {
                 mHomeDoubletapDisabled = intent.getBooleanExtra(
                     GravityBoxSettings.EXTRA_HWKEY_HOME_DOUBLETAP_DISABLE, false);
@@ -264,33 +494,6 @@ public class ModHwKeys {
                         GravityBox.log(TAG, "PhoneWindowManager: Error settings mDoubleTapOnHomeBehavior: ", t);
                     }
                 }
-            } else if (GravityBoxSettings.PREF_KEY_HWKEY_BACK_SINGLETAP.equals(key)) {
-                setActionFor(HwKeyTrigger.BACK_SINGLETAP, value, customApp);
-                if (DEBUG) log("Back single-tap action set to: " + value);
-            } else if (GravityBoxSettings.PREF_KEY_HWKEY_BACK_LONGPRESS.equals(key)) {
-                setActionFor(HwKeyTrigger.BACK_LONGPRESS, value, customApp);
-                if (DEBUG) log("Back long-press action set to: " + value);
-            } else if (GravityBoxSettings.PREF_KEY_HWKEY_BACK_DOUBLETAP.equals(key)) {
-                setActionFor(HwKeyTrigger.BACK_DOUBLETAP, value, customApp);
-                if (DEBUG) log("Back double-tap action set to: " + value);
-            } else if (GravityBoxSettings.PREF_KEY_HWKEY_RECENTS_SINGLETAP.equals(key)) {
-                setActionFor(HwKeyTrigger.RECENTS_SINGLETAP, value, customApp);
-                if (DEBUG) log("Recents single-tap action set to: " + value);
-            } else if (GravityBoxSettings.PREF_KEY_HWKEY_RECENTS_LONGPRESS.equals(key)) {
-                setActionFor(HwKeyTrigger.RECENTS_LONGPRESS, value, customApp);
-                if (DEBUG) log("Recents long-press action set to: " + value);
-            } else if (GravityBoxSettings.PREF_KEY_HWKEY_RECENTS_DOUBLETAP.equals(key)) {
-                setActionFor(HwKeyTrigger.RECENTS_DOUBLETAP, value, customApp);
-                if (DEBUG) log("Recents double-tap action set to: " + value);
-            } else if (GravityBoxSettings.PREF_KEY_NAVBAR_CUSTOM_KEY_SINGLETAP.equals(key)) {
-                setActionFor(HwKeyTrigger.CUSTOM_SINGLETAP, value, customApp);
-                if (DEBUG) log("Custom key singletap action set to: " + value);
-            } else if (GravityBoxSettings.PREF_KEY_NAVBAR_CUSTOM_KEY_LONGPRESS.equals(key)) {
-                setActionFor(HwKeyTrigger.CUSTOM_LONGPRESS, value, customApp);
-                if (DEBUG) log("Custom key longpress action set to: " + value);
-            } else if (GravityBoxSettings.PREF_KEY_NAVBAR_CUSTOM_KEY_DOUBLETAP.equals(key)) {
-                setActionFor(HwKeyTrigger.CUSTOM_DOUBLETAP, value, customApp);
-                if (DEBUG) log("Custom key doubletap action set to: " + value);
             }
         } else if (action.equals(GravityBoxSettings.ACTION_PREF_HWKEY_DOUBLETAP_SPEED_CHANGED)) {
             mDoubletapSpeed = value;
@@ -419,72 +622,18 @@ public class ModHwKeys {
         try {
             mPrefs = prefs;
 
-            Map<HwKeyTrigger, HwKeyAction> map = new HashMap<>();
-            map.put(HwKeyTrigger.MENU_SINGLETAP, new HwKeyAction(0, null));
-            map.put(HwKeyTrigger.MENU_DOUBLETAP, new HwKeyAction(0, null));
-            map.put(HwKeyTrigger.MENU_LONGPRESS, new HwKeyAction(0, null));
-            map.put(HwKeyTrigger.HOME_LONGPRESS, new HwKeyAction(0, null));
-            map.put(HwKeyTrigger.HOME_DOUBLETAP, new HwKeyAction(0, null));
-            map.put(HwKeyTrigger.BACK_SINGLETAP, new HwKeyAction(0, null));
-            map.put(HwKeyTrigger.BACK_LONGPRESS, new HwKeyAction(0, null));
-            map.put(HwKeyTrigger.BACK_DOUBLETAP, new HwKeyAction(0, null));
-            map.put(HwKeyTrigger.RECENTS_SINGLETAP, new HwKeyAction(0, null));
-            map.put(HwKeyTrigger.RECENTS_LONGPRESS, new HwKeyAction(0, null));
-            map.put(HwKeyTrigger.RECENTS_DOUBLETAP, new HwKeyAction(0, null));
-            map.put(HwKeyTrigger.CUSTOM_SINGLETAP, new HwKeyAction(0, null));
-            map.put(HwKeyTrigger.CUSTOM_LONGPRESS, new HwKeyAction(0, null));
-            map.put(HwKeyTrigger.CUSTOM_DOUBLETAP, new HwKeyAction(0, null));
-            mHwKeyActions = Collections.unmodifiableMap(map);
-
             try {
-                setActionFor(HwKeyTrigger.MENU_SINGLETAP, Integer.valueOf(
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_MENU_SINGLETAP, "0")), 
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_MENU_SINGLETAP+"_custom", null));
-                setActionFor(HwKeyTrigger.MENU_LONGPRESS, Integer.valueOf(
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_MENU_LONGPRESS, "0")), 
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_MENU_LONGPRESS+"_custom", null));
-                setActionFor(HwKeyTrigger.MENU_DOUBLETAP, Integer.valueOf(
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_MENU_DOUBLETAP, "0")),
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_MENU_DOUBLETAP+"_custom", null));
-                setActionFor(HwKeyTrigger.HOME_LONGPRESS, Integer.valueOf(
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_HOME_LONGPRESS, "0")),
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_HOME_LONGPRESS+"_custom", null));
-                setActionFor(HwKeyTrigger.HOME_DOUBLETAP, Integer.valueOf(
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_HOME_DOUBLETAP, "0")),
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_HOME_DOUBLETAP+"_custom", null));
-                setActionFor(HwKeyTrigger.BACK_SINGLETAP, Integer.valueOf(
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_BACK_SINGLETAP, "0")),
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_BACK_SINGLETAP+"_custom", null));
-                setActionFor(HwKeyTrigger.BACK_LONGPRESS, Integer.valueOf(
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_BACK_LONGPRESS, "0")),
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_BACK_LONGPRESS+"_custom", null));
-                setActionFor(HwKeyTrigger.BACK_DOUBLETAP, Integer.valueOf(
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_BACK_DOUBLETAP, "0")),
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_BACK_DOUBLETAP+"_custom", null));
-                setActionFor(HwKeyTrigger.RECENTS_SINGLETAP, Integer.valueOf(
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_RECENTS_SINGLETAP, "0")),
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_RECENTS_SINGLETAP+"_custom", null));
-                setActionFor(HwKeyTrigger.RECENTS_LONGPRESS, Integer.valueOf(
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_RECENTS_LONGPRESS, "0")),
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_RECENTS_LONGPRESS+"_custom", null));
-                setActionFor(HwKeyTrigger.RECENTS_DOUBLETAP, Integer.valueOf(
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_RECENTS_DOUBLETAP, "0")),
-                        prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_RECENTS_DOUBLETAP+"_custom", null));
+                for (HwKeyTrigger trigger : HwKeyTrigger.VALUES) {
+                    setActionFor(trigger, Integer.valueOf(
+                            prefs.getString(trigger.prefKey, trigger.defaultValue)),
+                            prefs.getString(trigger.prefKey + "_custom", null));
+                }
                 mDoubletapSpeed = Integer.valueOf(
                         prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_DOUBLETAP_SPEED, "400"));
                 mKillDelay = Integer.valueOf(
                         prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_KILL_DELAY, "1000"));
                 mLockscreenTorch = Integer.valueOf(
                         prefs.getString(GravityBoxSettings.PREF_KEY_HWKEY_LOCKSCREEN_TORCH, "0"));
-                setActionFor(HwKeyTrigger.CUSTOM_SINGLETAP, Integer.valueOf(prefs.getString(
-                        GravityBoxSettings.PREF_KEY_NAVBAR_CUSTOM_KEY_SINGLETAP, "12")),
-                        prefs.getString(GravityBoxSettings.PREF_KEY_NAVBAR_CUSTOM_KEY_SINGLETAP+"_custom", null));
-                setActionFor(HwKeyTrigger.CUSTOM_LONGPRESS, Integer.valueOf(prefs.getString(
-                        GravityBoxSettings.PREF_KEY_NAVBAR_CUSTOM_KEY_LONGPRESS, "0")),
-                        prefs.getString(GravityBoxSettings.PREF_KEY_NAVBAR_CUSTOM_KEY_LONGPRESS+"_custom", null));
-                setActionFor(HwKeyTrigger.CUSTOM_DOUBLETAP, Integer.valueOf(prefs.getString(
-                        GravityBoxSettings.PREF_KEY_NAVBAR_CUSTOM_KEY_DOUBLETAP, "0")),
-                        prefs.getString(GravityBoxSettings.PREF_KEY_NAVBAR_CUSTOM_KEY_DOUBLETAP+"_custom", null));
             } catch (NumberFormatException e) {
                 GravityBox.log(TAG, e);
             }
@@ -616,63 +765,12 @@ public class ModHwKeys {
                         return;
                     }
 
-                    if (keyCode == KeyEvent.KEYCODE_BACK && isFromSystem && !isTaskLocked() &&
-                            (hasAction(HwKey.BACK) || !areHwKeysEnabled())) {
-
-                        if (!down) {
-                            mBackKeyPressed = false;
-                            handler.removeCallbacks(mBackLongPress);
-                            if (mIsBackLongPressed) {
-                                mIsBackLongPressed = false;
-                                param.setResult(0);
-                                return;
-                            } else if (event.getRepeatCount() == 0) {
-                                if (!areHwKeysEnabled()) {
-                                    if (DEBUG) log("BACK KeyEvent coming from HW key and keys disabled. Ignoring.");
-                                } else if (mIsBackDoubleTap) {
-                                    // we are still waiting for double-tap
-                                    if (DEBUG) log("BACK doubletap pending. Ignoring.");
-                                } else if (!mWasBackDoubleTap && !event.isCanceled()) {
-                                    if (getActionFor(HwKeyTrigger.BACK_SINGLETAP).actionId !=
-                                            GravityBoxSettings.HWKEY_ACTION_DEFAULT) {
-                                        performAction(HwKeyTrigger.BACK_SINGLETAP);
-                                    } else {
-                                        if (DEBUG) log("Triggering original DOWN/UP events for BACK key");
-                                        injectKey(KeyEvent.KEYCODE_BACK);
-                                    }
-                                }
-                                param.setResult(0);
-                                return;
-                            }
-                        } else if (event.getRepeatCount() == 0) {
-                            mBackKeyPressed = true;
-                            mWasBackDoubleTap = mIsBackDoubleTap;
-                            if (mIsBackDoubleTap) {
-                                performAction(HwKeyTrigger.BACK_DOUBLETAP);
-                                handler.removeCallbacks(mBackDoubleTapReset);
-                                mIsBackDoubleTap = false;
-                            } else {
-                                mIsBackLongPressed = false;
-                                mIsBackDoubleTap = false;
-                                if (getActionFor(HwKeyTrigger.BACK_DOUBLETAP).actionId !=
-                                        GravityBoxSettings.HWKEY_ACTION_DEFAULT) {
-                                    mIsBackDoubleTap = true;
-                                    handler.postDelayed(mBackDoubleTapReset, mDoubletapSpeed);
-                                }
-                                if (getActionFor(HwKeyTrigger.BACK_LONGPRESS).actionId !=
-                                        GravityBoxSettings.HWKEY_ACTION_DEFAULT) {
-                                    handler.postDelayed(mBackLongPress,
-                                            getLongpressTimeoutForAction(
-                                                    getActionFor(HwKeyTrigger.BACK_LONGPRESS).actionId));
-                                }
-                            }
-                            if (!Utils.isOxygenOsRom()) {
-                                performHapticFeedback(HapticFeedbackConstants.VIRTUAL_KEY, false,
-                                        "GravityBox - Back Key");
-                            }
+                    final KeyGesture keyGesture = getKeyGesture(keyCode);
+                    if (keyGesture != null && keyGesture.shouldHandle(isFromSystem) && !isTaskLocked()) {
+                        if (keyGesture.onKeyEvent(event, down, isFromSystem, handler)) {
                             param.setResult(0);
-                            return;
                         }
+                        return;
                     }
 
                     if (keyCode == KeyEvent.KEYCODE_HOME && !isTaskLocked()) {
@@ -709,158 +807,6 @@ public class ModHwKeys {
                             return;
                         }
                     }
-
-                    if (keyCode == KeyEvent.KEYCODE_APP_SWITCH && isFromSystem && !isTaskLocked() &&
-                            (hasAction(HwKey.RECENTS) || !areHwKeysEnabled())) {
-                        if (!down) {
-                            mRecentsKeyPressed = false;
-                            handler.removeCallbacks(mRecentsLongPress);
-                            if (mIsRecentsLongPressed) {
-                                mIsRecentsLongPressed = false;
-                                param.setResult(0);
-                            } else if (event.getRepeatCount() == 0) {
-                                if (!areHwKeysEnabled()) {
-                                    if (DEBUG) log("RECENTS KeyEvent coming from HW key and keys disabled. Ignoring.");
-                                } else if (mIsRecentsDoubleTap) {
-                                    // we are still waiting for double-tap
-                                    if (DEBUG) log("RECENTS doubletap pending. Ignoring.");
-                                } else if (!mWasRecentsDoubleTap && !event.isCanceled()) {
-                                    if (getActionFor(HwKeyTrigger.RECENTS_SINGLETAP).actionId !=
-                                            GravityBoxSettings.HWKEY_ACTION_DEFAULT) {
-                                        performAction(HwKeyTrigger.RECENTS_SINGLETAP);
-                                    } else {
-                                        if (DEBUG) log("Triggering original DOWN/UP events for RECENTS key");
-                                        injectKey(KeyEvent.KEYCODE_APP_SWITCH);
-                                    }
-                                }
-                                param.setResult(0);
-                            }
-                        } else if (event.getRepeatCount() == 0) {
-                            mRecentsKeyPressed = true;
-                            mWasRecentsDoubleTap = mIsRecentsDoubleTap;
-                            if (mIsRecentsDoubleTap) {
-                                performAction(HwKeyTrigger.RECENTS_DOUBLETAP);
-                                handler.removeCallbacks(mRecentsDoubleTapReset);
-                                mIsRecentsDoubleTap = false;
-                            } else {
-                                mIsRecentsLongPressed = false;
-                                mIsRecentsDoubleTap = false;
-                                if (getActionFor(HwKeyTrigger.RECENTS_DOUBLETAP).actionId !=
-                                        GravityBoxSettings.HWKEY_ACTION_DEFAULT) {
-                                    mIsRecentsDoubleTap = true;
-                                    handler.postDelayed(mRecentsDoubleTapReset, mDoubletapSpeed);
-                                }
-                                if (getActionFor(HwKeyTrigger.RECENTS_LONGPRESS).actionId !=
-                                        GravityBoxSettings.HWKEY_ACTION_DEFAULT) {
-                                    handler.postDelayed(mRecentsLongPress,
-                                            getLongpressTimeoutForAction(
-                                                    getActionFor(HwKeyTrigger.RECENTS_LONGPRESS).actionId));
-                                }
-                            }
-                            if (!Utils.isOxygenOsRom()) {
-                                performHapticFeedback(HapticFeedbackConstants.VIRTUAL_KEY, false,
-                                        "GravityBox - Recents Key");
-                            }
-                            param.setResult(0);
-                        }
-                    }
-
-                    if (keyCode == KeyEvent.KEYCODE_MENU && isFromSystem && !isTaskLocked() &&
-                            (hasAction(HwKey.MENU) || !areHwKeysEnabled())) {
-                        if (!down) {
-                            mMenuKeyPressed = false;
-                            handler.removeCallbacks(mMenuLongPress);
-                            if (mIsMenuLongPressed) {
-                                mIsMenuLongPressed = false;
-                                param.setResult(0);
-                                return;
-                            } else if (event.getRepeatCount() == 0) {
-                                if (!areHwKeysEnabled()) {
-                                    if (DEBUG) log("MENU KeyEvent coming from HW key and keys disabled. Ignoring.");
-                                } else if (mIsMenuDoubleTap) {
-                                    // we are still waiting for double-tap
-                                    if (DEBUG) log("MENU doubletap pending. Ignoring.");
-                                } else if (!mWasMenuDoubleTap && !event.isCanceled()) {
-                                    if (getActionFor(HwKeyTrigger.MENU_SINGLETAP).actionId !=
-                                            GravityBoxSettings.HWKEY_ACTION_DEFAULT) {
-                                        performAction(HwKeyTrigger.MENU_SINGLETAP);
-                                    } else {
-                                        if (DEBUG) log("Triggering original DOWN/UP events for MENU key");
-                                        injectKey(KeyEvent.KEYCODE_MENU);
-                                    }
-                                }
-                                param.setResult(0);
-                                return;
-                            }
-                        } else if (event.getRepeatCount() == 0) {
-                            mMenuKeyPressed = true;
-                            mWasMenuDoubleTap = mIsMenuDoubleTap;
-                            if (mIsMenuDoubleTap) {
-                                performAction(HwKeyTrigger.MENU_DOUBLETAP);
-                                handler.removeCallbacks(mMenuDoubleTapReset);
-                                mIsMenuDoubleTap = false;
-                            } else {
-                                mIsMenuLongPressed = false;
-                                mIsMenuDoubleTap = false;
-                                if (getActionFor(HwKeyTrigger.MENU_DOUBLETAP).actionId !=
-                                        GravityBoxSettings.HWKEY_ACTION_DEFAULT) {
-                                    mIsMenuDoubleTap = true;
-                                    handler.postDelayed(mMenuDoubleTapReset, mDoubletapSpeed);
-                                }
-                                if (getActionFor(HwKeyTrigger.MENU_LONGPRESS).actionId !=
-                                        GravityBoxSettings.HWKEY_ACTION_DEFAULT) {
-                                    handler.postDelayed(mMenuLongPress,
-                                            getLongpressTimeoutForAction(
-                                                    getActionFor(HwKeyTrigger.MENU_LONGPRESS).actionId));
-                                }
-                            }
-                            performHapticFeedback(HapticFeedbackConstants.VIRTUAL_KEY, false,
-                                    "GravityBox - Menu Key");
-                            param.setResult(0);
-                            return;
-                        }
-                    }
-
-                    if (keyCode == KeyEvent.KEYCODE_SOFT_LEFT && !isTaskLocked()) {
-                        if (!down) {
-                            mCustomKeyPressed = false;
-                            if (!mIsCustomKeyLongPressed && 
-                                    !mCustomKeyDoubletapPending && !mWasCustomKeyDoubletap) {
-                                if (DEBUG) log("Custom key singletap action");
-                                performAction(HwKeyTrigger.CUSTOM_SINGLETAP);
-                            }
-                            mIsCustomKeyLongPressed = false;
-                        } else {
-                            mCustomKeyPressed = true;
-                            if (event.getRepeatCount() == 0) {
-                                if (mCustomKeyDoubletapPending) {
-                                    handler.removeCallbacks(mCustomKeyDoubletapReset);
-                                    mWasCustomKeyDoubletap = true;
-                                    mCustomKeyDoubletapPending = false;
-                                    if (DEBUG) log("Custom key double-tap action");
-                                    performAction(HwKeyTrigger.CUSTOM_DOUBLETAP);
-                                } else if (getActionFor(HwKeyTrigger.CUSTOM_DOUBLETAP).actionId != 
-                                        GravityBoxSettings.HWKEY_ACTION_DEFAULT && isFromSystem) {
-                                    mCustomKeyDoubletapPending = true;
-                                    mWasCustomKeyDoubletap = false;
-                                    handler.postDelayed(mCustomKeyDoubletapReset, mDoubletapSpeed);
-                                }
-                                if (isFromSystem) {
-                                    performHapticFeedback(HapticFeedbackConstants.VIRTUAL_KEY, false,
-                                            "GravityBox - Custom Key");
-                                }
-                            } else {
-                                handler.removeCallbacks(mCustomKeyDoubletapReset);
-                                mCustomKeyDoubletapPending = false;
-                                mIsCustomKeyLongPressed = true;
-                                if (DEBUG) log("Custom key long-press action");
-                                performAction(HwKeyTrigger.CUSTOM_LONGPRESS);
-                                performHapticFeedback(HapticFeedbackConstants.LONG_PRESS, false,
-                                        "GravityBox - Custom Key");
-                            }
-                        }
-                        param.setResult(0);
-                    }
                 }
             });
 
@@ -978,92 +924,6 @@ public class ModHwKeys {
                   !ModPieControls.isPieEnabled(mContext, mPieMode, mExpandedDesktopMode));
     }
 
-    private static Runnable mMenuLongPress = () -> {
-        if (DEBUG) log("mMenuLongPress runnable launched");
-        mIsMenuLongPressed = true;
-        performAction(HwKeyTrigger.MENU_LONGPRESS);
-        performHapticFeedback(HapticFeedbackConstants.LONG_PRESS, false,
-                "GravityBox - Menu Key Longpress");
-    };
-
-    private static Runnable mMenuDoubleTapReset = () -> {
-        mIsMenuDoubleTap = false;
-        // doubletap timed out and since we blocked default MENU key action while waiting for doubletap
-        // let's inject it now additionally, but only in case it's not still pressed as we might still be waiting
-        // for long-press action
-        if (!mMenuKeyPressed && areHwKeysEnabled()) {
-            if (getActionFor(HwKeyTrigger.MENU_SINGLETAP).actionId !=
-                    GravityBoxSettings.HWKEY_ACTION_DEFAULT) {
-                if (DEBUG) log("MENU key double tap timed out and key not pressed; performing singletap action");
-                performAction(HwKeyTrigger.MENU_SINGLETAP);
-            } else {
-                if (DEBUG) log("MENU key double tap timed out and key not pressed; injecting MENU key");
-                injectKey(KeyEvent.KEYCODE_MENU);
-            }
-        }
-    };
-
-    private static Runnable mBackLongPress = () -> {
-        if (DEBUG) log("mBackLongPress runnable launched");
-        mIsBackLongPressed = true;
-        performAction(HwKeyTrigger.BACK_LONGPRESS);
-        performHapticFeedback(HapticFeedbackConstants.LONG_PRESS, false,
-                "GravityBox - Back Key Longpress");
-    };
-
-    private static Runnable mBackDoubleTapReset = () -> {
-        mIsBackDoubleTap = false;
-        // doubletap timed out and since we blocked default BACK key action while waiting for doubletap
-        // let's inject it now additionally, but only in case it's not still pressed as we might still be waiting
-        // for long-press action
-        if (!mBackKeyPressed && areHwKeysEnabled()) {
-            if (getActionFor(HwKeyTrigger.BACK_SINGLETAP).actionId !=
-                    GravityBoxSettings.HWKEY_ACTION_DEFAULT) {
-                if (DEBUG) log("BACK key double tap timed out and key not pressed; performing singletap action");
-                performAction(HwKeyTrigger.BACK_SINGLETAP);
-            } else {
-                if (DEBUG) log("BACK key double tap timed out and key not pressed; injecting BACK key");
-                injectKey(KeyEvent.KEYCODE_BACK);
-            }
-        }
-    };
-
-    private static Runnable mRecentsLongPress = () -> {
-        if (DEBUG) log("mRecentsLongPress runnable launched");
-        mIsRecentsLongPressed = true;
-        performAction(HwKeyTrigger.RECENTS_LONGPRESS);
-        performHapticFeedback(HapticFeedbackConstants.LONG_PRESS, false,
-                "GravityBox - Recents Key Longpress");
-    };
-
-    private static Runnable mRecentsDoubleTapReset = () -> {
-        mIsRecentsDoubleTap = false;
-        // doubletap timed out and since we blocked default RECENTS key action while waiting for doubletap
-        // let's inject it now additionally, but only in case it's not still pressed as we might still be waiting
-        // for long-press action
-        if (!mRecentsKeyPressed && areHwKeysEnabled()) {
-            if (getActionFor(HwKeyTrigger.RECENTS_SINGLETAP).actionId !=
-                    GravityBoxSettings.HWKEY_ACTION_DEFAULT) {
-                if (DEBUG) log("RECENTS key double tap timed out and key not pressed; performing singletap action");
-                performAction(HwKeyTrigger.RECENTS_SINGLETAP);
-            } else {
-                if (DEBUG) log("RECENTS key double tap timed out and key not pressed; injecting RECENTS key");
-                injectKey(KeyEvent.KEYCODE_APP_SWITCH);
-            }
-        }
-    };
-
-    private static Runnable mCustomKeyDoubletapReset = () -> {
-        mCustomKeyDoubletapPending = false;
-        // doubletap timed out and since we blocked single-tap action while waiting for doubletap
-        // let's inject it now additionally, but only in case it's not still pressed as we might still be waiting
-        // for long-press action
-        if (!mCustomKeyPressed) {
-            if (DEBUG) log("Custom key double tap timed out and key not pressed; injecting key");
-            performAction(HwKeyTrigger.CUSTOM_SINGLETAP);
-        }
-    };
-
     private static Runnable mLockscreenTorchRunnable = () -> {
         if (DEBUG) log("mLockscreenTorchRunnable runnable launched");
         if (mLockscreenTorch == GravityBoxSettings.HWKEY_TORCH_HOME_LONGPRESS) {
@@ -1097,36 +957,17 @@ public class ModHwKeys {
     };
 
     private static HwKeyAction getActionFor(HwKeyTrigger keyTrigger) {
-        return mHwKeyActions.get(keyTrigger);
+        return mHwKeyActions[keyTrigger.ordinal()];
     }
 
     private static void setActionFor(HwKeyTrigger keyTrigger, int value, String customApp) {
-        mHwKeyActions.get(keyTrigger).actionId = value;
-        mHwKeyActions.get(keyTrigger).customApp = customApp;
-    }
-
-    private static boolean hasAction(HwKey key) {
-        boolean retVal = false;
-        if (key == HwKey.MENU) {
-            retVal |= getActionFor(HwKeyTrigger.MENU_SINGLETAP).actionId != GravityBoxSettings.HWKEY_ACTION_DEFAULT;
-            retVal |= getActionFor(HwKeyTrigger.MENU_LONGPRESS).actionId != GravityBoxSettings.HWKEY_ACTION_DEFAULT;
-            retVal |= getActionFor(HwKeyTrigger.MENU_DOUBLETAP).actionId != GravityBoxSettings.HWKEY_ACTION_DEFAULT;
-        } else if (key == HwKey.HOME) {
-            retVal |= getActionFor(HwKeyTrigger.HOME_LONGPRESS).actionId != GravityBoxSettings.HWKEY_ACTION_DEFAULT;
-        } else if (key == HwKey.BACK) {
-            retVal |= getActionFor(HwKeyTrigger.BACK_SINGLETAP).actionId != GravityBoxSettings.HWKEY_ACTION_DEFAULT;
-            retVal |= getActionFor(HwKeyTrigger.BACK_LONGPRESS).actionId != GravityBoxSettings.HWKEY_ACTION_DEFAULT;
-            retVal |= getActionFor(HwKeyTrigger.BACK_DOUBLETAP).actionId != GravityBoxSettings.HWKEY_ACTION_DEFAULT;
-        } else if (key == HwKey.RECENTS) {
-            retVal |= getActionFor(HwKeyTrigger.RECENTS_SINGLETAP).actionId != GravityBoxSettings.HWKEY_ACTION_DEFAULT;
-            retVal |= getActionFor(HwKeyTrigger.RECENTS_LONGPRESS).actionId != GravityBoxSettings.HWKEY_ACTION_DEFAULT;
-            retVal |= getActionFor(HwKeyTrigger.RECENTS_DOUBLETAP).actionId != GravityBoxSettings.HWKEY_ACTION_DEFAULT;
-        } else if (key == HwKey.CUSTOM) {
-            retVal = true;
+        HwKeyAction action = mHwKeyActions[keyTrigger.ordinal()];
+        action.actionId = value;
+        action.customApp = customApp;
+        KeyGesture keyGesture = mKeyGestures[keyTrigger.key.ordinal()];
+        if (keyGesture != null) {
+            keyGesture.updateHasAction();
         }
-
-        if (DEBUG) log("HWKEY " + key + " has action = " + retVal);
-        return retVal;
     }
 
     private static int getLongpressTimeoutForAction(int action) {
@@ -1219,30 +1060,24 @@ public class ModHwKeys {
 
         handler.post(() -> {
             try {
-                final Intent intent = new Intent(Intent.ACTION_MAIN);
                 final PackageManager pm = mContext.getPackageManager();
-                String defaultHomePackage = "com.android.launcher";
-                intent.addCategory(Intent.CATEGORY_HOME);
-
-                final ResolveInfo res = pm.resolveActivity(intent, 0);
-                if (res.activityInfo != null && !res.activityInfo.packageName.equals("android")) {
-                    defaultHomePackage = res.activityInfo.packageName;
-                }
+                final FrameworkTaskStateTracker tracker = FrameworkManagers.TaskStateTracker;
+                final String defaultHomePackage = tracker.getHomePackage();
 
                 ActivityManager am = getActivityManager();
-                List<RunningTaskInfo> apps = am.getRunningTasks(1);
+                FrameworkTaskStateTracker.RecentTask[] apps = tracker.getRecentTasks();
 
                 String targetKilled = null;
-                if (apps.size() > 0) {
-                    ComponentName cn = apps.get(0).topActivity;
-                    if (!mKillIgnoreList.contains(cn.getPackageName()) &&
-                            !cn.getPackageName().startsWith(defaultHomePackage)) {
-                        if (DEBUG) log("Force stopping: " + cn.getPackageName());
-                        XposedHelpers.callMethod(am, "forceStopPackage", cn.getPackageName());
-                        targetKilled = cn.getPackageName();
+                if (apps.length > 0) {
+                    String pkgName = apps[0].packageName;
+                    if (!mKillIgnoreList.contains(pkgName) &&
+                            !pkgName.startsWith(defaultHomePackage)) {
+                        if (DEBUG) log("Force stopping: " + pkgName);
+                        XposedHelpers.callMethod(am, "forceStopPackage", pkgName);
+                        targetKilled = pkgName;
                         try {
                             Object service = XposedHelpers.callMethod(am, "getService");
-                            XposedHelpers.callMethod(service, "removeTask", apps.get(0).id);
+                            XposedHelpers.callMethod(service, "removeTask", apps[0].id);
                         } catch (Throwable ignore) {}
                     }
                 }
@@ -1280,21 +1115,16 @@ public class ModHwKeys {
             int lastAppId = 0;
             int looper = 1;
             String packageName;
-            final Intent intent = new Intent(Intent.ACTION_MAIN);
             final ActivityManager am = getActivityManager();
-            String defaultHomePackage = "com.android.launcher";
-            intent.addCategory(Intent.CATEGORY_HOME);
-            final ResolveInfo res = mContext.getPackageManager().resolveActivity(intent, 0);
-            if (res.activityInfo != null && !res.activityInfo.packageName.equals("android")) {
-                defaultHomePackage = res.activityInfo.packageName;
-            }
-            List <RunningTaskInfo> tasks = am.getRunningTasks(5);
+            final FrameworkTaskStateTracker tracker = FrameworkManagers.TaskStateTracker;
+            final String defaultHomePackage = tracker.getHomePackage();
+            FrameworkTaskStateTracker.RecentTask[] tasks = tracker.getRecentTasks();
             // lets get enough tasks to find something to switch to
             // Note, we'll only get as many as the system currently has - up to 5
-            while ((lastAppId == 0) && (looper < tasks.size())) {
-                packageName = tasks.get(looper).topActivity.getPackageName();
+            while ((lastAppId == 0) && (looper < tasks.length)) {
+                packageName = tasks[looper].packageName;
                 if (!packageName.equals(defaultHomePackage) && !packageName.equals("com.android.systemui")) {
-                    lastAppId = tasks.get(looper).id;
+                    lastAppId = tasks[looper].id;
                 }
                 looper++;
             }
@@ -1775,8 +1605,7 @@ public class ModHwKeys {
     }
 
     private static boolean isTaskLocked() {
-        return getActivityManager().getLockTaskModeState() !=
-                ActivityManager.LOCK_TASK_MODE_NONE;
+        return FrameworkManagers.TaskStateTracker.isTaskLocked();
     }
 
     private static void toggleSplitScreen() {
@@ -23,6 +23,7 @@ import java.util.List;
 import java.util.Map;
 
 import com.ceco.r.gravitybox.ModStatusBar.StatusBarState;
+import com.ceco.r.gravitybox.ledcontrol.LedPolicyTable;
 import com.ceco.r.gravitybox.ledcontrol.LedSettings;
 import com.ceco.r.gravitybox.ledcontrol.QuietHours;
 import com.ceco.r.gravitybox.ledcontrol.QuietHoursActivity;
@@ -108,7 +109,7 @@ public class ModLedControl {
     private static boolean mUncActiveScreenEnabled;
     private static boolean mUncActiveScreenPocketModeEnabled;
     private static boolean mUncActiveScreenIgnoreQh;
-    private static Map<String,LedSettings> mUncAppPrefs = new HashMap<>();
+    private static volatile LedPolicyTable mUncPolicyTable = LedPolicyTable.empty();
 
     private static SensorEventListener mProxSensorEventListener = new SensorEventListener() {
         @Override
@@ -158,11 +159,13 @@ public class ModLedControl {
                         LedSettings.PREF_KEY_ACTIVE_SCREEN_IGNORE_QUIET_HOURS, false);
                 if (DEBUG) log("mUncActiveScreenIgnoreQh=" + mUncActiveScreenIgnoreQh);
             }
-            if (intent.hasExtra(LedSettings.EXTRA_UNC_PACKAGE_NAME) &&
+            if (mUncPrefs.hasFileChanged()) {
+                rebuildUncPolicyTable();
+            } else if (intent.hasExtra(LedSettings.EXTRA_UNC_PACKAGE_NAME) &&
                     intent.hasExtra(LedSettings.EXTRA_UNC_PACKAGE_SETTINGS)) {
                 String pkgName = intent.getStringExtra(LedSettings.EXTRA_UNC_PACKAGE_NAME);
-                mUncAppPrefs.put(pkgName, LedSettings.deserialize(pkgName,
-                        intent.getStringArrayListExtra(LedSettings.EXTRA_UNC_PACKAGE_SETTINGS)));
+                mUncPolicyTable = mUncPolicyTable.withPackage(pkgName,
+                        intent.getStringArrayListExtra(LedSettings.EXTRA_UNC_PACKAGE_SETTINGS));
                 if (DEBUG) log("Settings for " + pkgName + " updated");
             }
         } else if (action.equals(QuietHoursActivity.ACTION_QUIET_HOURS_CHANGED)) {
@@ -199,6 +202,15 @@ public class ModLedControl {
         mUncActiveScreenPocketModeEnabled = mUncPrefs.getBoolean(LedSettings.PREF_KEY_ACTIVE_SCREEN_POCKET_MODE, true);
         mUncActiveScreenIgnoreQh = mUncPrefs.getBoolean(LedSettings.PREF_KEY_ACTIVE_SCREEN_IGNORE_QUIET_HOURS, false);
 
+        try {
+            mNotificationLightConstructor = XposedHelpers.findConstructorExact(
+                    CLASS_NOTIFICATION_RECORD+".Light", classLoader,
+                    int.class, int.class, int.class);
+        } catch (Throwable t) {
+            GravityBox.log(TAG, "Error finding notification light constructor", t);
+        }
+        rebuildUncPolicyTable();
+
         try {
             final Class<?> nmsClass = XposedHelpers.findClass(CLASS_NOTIFICATION_MANAGER_SERVICE, classLoader);
             XposedBridge.hookAllConstructors(nmsClass, new XC_MethodHook() {
@@ -261,13 +273,14 @@ public class ModLedControl {
         }
     }
 
-    private static LedSettings resolveLedSettings(String pkgName) {
-        if (mUncAppPrefs.containsKey(pkgName)) {
-            if (DEBUG) log("resolveLedSettings: getting in-memory settings for " + pkgName);
-            return mUncAppPrefs.get(pkgName);
-        } else {
-            if (DEBUG) log("resolveLedSettings: getting in-prefs settings for " + pkgName);
-            return LedSettings.deserialize(mUncPrefs.getStringSet(pkgName, null));
+    private static void rebuildUncPolicyTable() {
+        try {
+            mUncPrefs.reload();
+            mUncPolicyTable = LedPolicyTable.build(mUncPrefs.getAll(),
+                    ModLedControl::createNotificationLight);
+            if (DEBUG) log("UNC policy table rebuilt: " + mUncPolicyTable.size() + " packages");
+        } catch (Throwable t) {
+            GravityBox.log(TAG, "Error building UNC policy table", t);
         }
     }
 
@@ -289,19 +302,20 @@ public class ModLedControl {
                 final String pkgName = sbn.getPackageName();
                 final boolean userPresent = isUserPresent();
 
-                LedSettings ls;
+                final LedSettings ls;
+                final Object light;
                 if (n.extras.containsKey("gbUncPreviewNotification")) {
                     ls = LedSettings.deserialize("preview", n.extras.getStringArrayList(
                             LedSettings.EXTRA_UNC_PACKAGE_SETTINGS));
+                    light = null;
                     if (DEBUG) log("Received UNC preview notification");
                 } else {
-                    ls = resolveLedSettings(pkgName);
-                    if (!ls.getEnabled()) {
-                        // use default settings in case they are active
-                        ls = resolveLedSettings("default");
-                        if (!ls.getEnabled() && !mQuietHours.quietHoursActive(ls, n, userPresent)) {
-                            return;
-                        }
+                    // resolves to default settings in case package settings are not active
+                    final LedPolicyTable.Policy policy = mUncPolicyTable.resolve(pkgName);
+                    ls = policy.settings;
+                    light = policy.light;
+                    if (!ls.getEnabled() && !mQuietHours.quietHoursActive(ls, n, userPresent)) {
+                        return;
                     }
                     if (DEBUG) log(pkgName + ": " + ls.toString());
                 }
@@ -346,7 +360,7 @@ public class ModLedControl {
                     if (DEBUG) log("Removing light");
                 } else if (ls.getEnabled() && ls.getLedMode() == LedMode.OVERRIDE &&
                         !(isOngoing && !ls.getOngoing())) {
-                    XposedHelpers.setObjectField(param.thisObject, "mLight",
+                    XposedHelpers.setObjectField(param.thisObject, "mLight", light != null ? light :
                             createNotificationLight(ls.getColor(), ls.getLedOffMs(), ls.getLedOffMs()));
                     if (DEBUG) log("Overriding light");
                 }
@@ -14,6 +14,7 @@
  */
 package com.ceco.r.gravitybox;
 
+import java.io.File;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -29,7 +30,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Color;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
@@ -87,6 +87,7 @@ public class ModLockscreen {
     private static Context mContext;
     private static Context mGbContext;
     private static Bitmap mCustomBg;
+    private static LockscreenBackgroundLoader mBgLoader;
     private static QuietHours mQuietHours;
     private static DirectUnlock mDirectUnlock = DirectUnlock.OFF;
     private static UnlockPolicy mDirectUnlockPolicy = UnlockPolicy.DEFAULT;
@@ -769,33 +770,41 @@ public class ModLockscreen {
 
     private static synchronized void prepareCustomBackground(boolean updateMediaMetadata) {
         try {
-            if (mCustomBg != null) {
-                mCustomBg = null;
+            if (mBgLoader == null) {
+                mBgLoader = new LockscreenBackgroundLoader(mContext);
             }
             final String bgType = mPrefs.getString(
                   GravityBoxSettings.PREF_KEY_LOCKSCREEN_BACKGROUND,
                   GravityBoxSettings.LOCKSCREEN_BG_DEFAULT);
     
             if (bgType.equals(GravityBoxSettings.LOCKSCREEN_BG_COLOR)) {
+                mBgLoader.cancel();
                 int color = mPrefs.getInt(
                       GravityBoxSettings.PREF_KEY_LOCKSCREEN_BACKGROUND_COLOR, Color.BLACK);
+                // blurring a solid color makes no difference
                 mCustomBg = BitmapUtils.drawableToBitmap(new ColorDrawable(color));
+                if (updateMediaMetadata) {
+                    updateMediaMetaData();
+                }
             } else if (bgType.equals(GravityBoxSettings.LOCKSCREEN_BG_IMAGE)) {
-                String wallpaperFile = mPrefs.getFile().getParent() + "/lockwallpaper";
-                mCustomBg = BitmapFactory.decodeFile(wallpaperFile);
+                File wallpaperFile = new File(mPrefs.getFile().getParent() + "/lockwallpaper");
+                int blurRadius = mPrefs.getBoolean(
+                        GravityBoxSettings.PREF_KEY_LOCKSCREEN_BACKGROUND_BLUR_EFFECT, false) ?
+                        mPrefs.getInt(GravityBoxSettings.PREF_KEY_LOCKSCREEN_BACKGROUND_BLUR_INTENSITY, 14) : 0;
+                mBgLoader.load(wallpaperFile, blurRadius, bitmap -> {
+                    mCustomBg = bitmap;
+                    if (updateMediaMetadata) {
+                        updateMediaMetaData();
+                    }
+                });
             } else if (bgType.equals(GravityBoxSettings.LOCKSCREEN_BG_LAST_SCREEN)) {
-                setLastScreenBackground(false);
-            }
-    
-            if (!bgType.equals(GravityBoxSettings.LOCKSCREEN_BG_LAST_SCREEN) &&
-                    mCustomBg != null && mPrefs.getBoolean(
-                    GravityBoxSettings.PREF_KEY_LOCKSCREEN_BACKGROUND_BLUR_EFFECT, false)) {
-                mCustomBg = BitmapUtils.blurBitmap(mContext, mCustomBg, mPrefs.getInt(
-                          GravityBoxSettings.PREF_KEY_LOCKSCREEN_BACKGROUND_BLUR_INTENSITY, 14));
-            }
-
-            if (updateMediaMetadata) {
-                updateMediaMetaData();
+                setLastScreenBackground(updateMediaMetadata);
+            } else {
+                mBgLoader.cancel();
+                mCustomBg = null;
+                if (updateMediaMetadata) {
+                    updateMediaMetaData();
+                }
             }
 
             if (DEBUG) log("prepareCustomBackground: type=" + bgType);
@@ -815,12 +824,18 @@ public class ModLockscreen {
 
     private static synchronized void setLastScreenBackground(boolean refresh) {
         try {
-            String kisImageFile = mPrefs.getFile().getParent() + "/kis_image.png";
-            mCustomBg = BitmapFactory.decodeFile(kisImageFile);
-            if (refresh) {
-                updateMediaMetaData();
+            if (mBgLoader == null) {
+                mBgLoader = new LockscreenBackgroundLoader(mContext);
             }
-            if (DEBUG_KIS) log("setLastScreenBackground: Last screen background updated");
+            // image is already blurred by KeyguardImageService if requested
+            File kisImageFile = new File(mPrefs.getFile().getParent(), KeyguardImageFile.FILE_NAME);
+            mBgLoader.loadKeyguardImage(kisImageFile, bitmap -> {
+                mCustomBg = bitmap;
+                if (refresh) {
+                    updateMediaMetaData();
+                }
+                if (DEBUG_KIS) log("setLastScreenBackground: Last screen background updated");
+            });
         } catch (Throwable t) {
             GravityBox.log(TAG, t);
         }
@@ -14,6 +14,7 @@
  */
 package com.ceco.r.gravitybox;
 
+import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -39,8 +40,6 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Rect;
-import android.hardware.display.DisplayManager;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.VibrationEffect;
@@ -48,15 +47,15 @@ import android.os.Vibrator;
 import android.provider.Settings;
 import android.service.notification.StatusBarNotification;
 import android.service.notification.NotificationListenerService.RankingMap;
+import android.util.DisplayMetrics;
 import android.util.TypedValue;
 import android.view.GestureDetector;
 import android.view.Gravity;
-import android.view.HapticFeedbackConstants;
 import android.view.MotionEvent;
 import android.view.View;
-import android.view.ViewConfiguration;
 import android.view.ViewGroup;
 import android.view.ViewGroup.LayoutParams;
+import android.view.WindowInsets;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 
@@ -65,7 +64,6 @@ public class ModStatusBar {
     private static final String TAG = "GB:ModStatusBar";
     public static final String CLASS_STATUSBAR = "com.android.systemui.statusbar.phone.StatusBar";
     private static final String CLASS_PHONE_STATUSBAR_VIEW = "com.android.systemui.statusbar.phone.PhoneStatusBarView";
-    private static final String CLASS_POWER_MANAGER = "android.os.PowerManager";
     private static final String CLASS_EXPANDABLE_NOTIF_ROW = "com.android.systemui.statusbar.notification.row.ExpandableNotificationRow";
     private static final String CLASS_PANEL_VIEW_CTRL = "com.android.systemui.statusbar.phone.PanelViewController";
     public static final String CLASS_NOTIF_PANEL_VIEW = "com.android.systemui.statusbar.phone.NotificationPanelView";
@@ -78,10 +76,6 @@ public class ModStatusBar {
     private static final boolean DEBUG = false;
     private static final boolean DEBUG_LAYOUT = false;
 
-    private static final float BRIGHTNESS_CONTROL_PADDING = 0.15f;
-    private static final int BRIGHTNESS_CONTROL_LONG_PRESS_TIMEOUT = 750; // ms
-    private static final int BRIGHTNESS_CONTROL_LINGER_THRESHOLD = 20;
-    private static final float BRIGHTNESS_ADJ_RESOLUTION = 100;
     private static final int STATUS_BAR_DISABLE_EXPAND = 0x00010000;
     public static final String SETTING_ONGOING_NOTIFICATIONS = "gb_ongoing_notifications";
 
@@ -134,19 +128,14 @@ public class ModStatusBar {
     private static Boolean mMaxNotifIconsIsStaticLayoutOrig;
     private static int mNotifIconContainerComputedWidth;
     private static int mSystemIconAreaMaxWidth;
+    private static final NotifIconAreaGeometry mNotifIconAreaGeometry = new NotifIconAreaGeometry();
+    private static int mNotifIconsResId;
+    private static Method mNotifIconContainerUpdateState;
 
     // Brightness control
     private static boolean mBrightnessControlEnabled;
     private static boolean mAutomaticBrightness;
-    private static boolean mBrightnessChanged;
-    private static float mScreenWidth;
-    private static int mMinBrightness;
-    private static int mPeekHeight;
-    private static boolean mJustPeeked;
-    private static int mLinger;
-    private static int mInitialTouchX;
-    private static int mInitialTouchY;
-    private static int BRIGHTNESS_ON = 255;
+    private static StatusBarBrightnessController mBrightnessController;
 
     private static List<StatusBarStateChangedListener> mStateChangeListeners =
             new ArrayList<>();
@@ -261,6 +250,9 @@ public class ModStatusBar {
                         "getIntForUser", resolver,
                         Settings.System.SCREEN_BRIGHTNESS_MODE, 0, -2);
                 mAutomaticBrightness = brightnessMode == Settings.System.SCREEN_BRIGHTNESS_MODE_AUTOMATIC;
+                if (mBrightnessController != null) {
+                    mBrightnessController.setAutomaticBrightness(mAutomaticBrightness);
+                }
             } catch (Throwable t) {
                 GravityBox.log(TAG, t);
             }
@@ -271,6 +263,10 @@ public class ModStatusBar {
         return mStatusBar;
     }
 
+    static ViewGroup getStatusBarView() {
+        return mStatusBarView;
+    }
+
     public static int getStatusBarState() {
         return mStatusBarState;
     }
@@ -368,14 +364,8 @@ public class ModStatusBar {
 
     private static void prepareBrightnessControl() {
         try {
-            Class<?> powerManagerClass = XposedHelpers.findClass(CLASS_POWER_MANAGER,
-                    mContext.getClassLoader());
-            Resources res = mContext.getResources();
-            mMinBrightness = res.getInteger(res.getIdentifier(
-                    "config_screenBrightnessSettingMinimum", "integer", "android"));
-            mPeekHeight = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 84,
-                    res.getDisplayMetrics());
-            BRIGHTNESS_ON = XposedHelpers.getStaticIntField(powerManagerClass, "BRIGHTNESS_ON");
+            mBrightnessController = new StatusBarBrightnessController(mContext, mStatusBar);
+            mBrightnessController.setAutomaticBrightness(mAutomaticBrightness);
         } catch (Throwable t) {
             GravityBox.log(TAG, t);
         }
@@ -645,9 +635,9 @@ public class ModStatusBar {
                         "interceptTouchEvent", MotionEvent.class, new XC_MethodHook() {
                     @Override
                     protected void beforeHookedMethod(MethodHookParam param) {
-                        if (!mBrightnessControlEnabled) return;
+                        if (!mBrightnessControlEnabled || mBrightnessController == null) return;
     
-                        brightnessControl((MotionEvent) param.args[0]);
+                        mBrightnessController.onTouchEvent((MotionEvent) param.args[0]);
                         if ((XposedHelpers.getIntField(param.thisObject, "mDisabled1")
                                 & STATUS_BAR_DISABLE_EXPAND) != 0) {
                             param.setResult(true);
@@ -655,14 +645,15 @@ public class ModStatusBar {
                     }
                     @Override
                     protected void afterHookedMethod(MethodHookParam param) {
-                        if (!mBrightnessControlEnabled || !mBrightnessChanged) return;
+                        if (!mBrightnessControlEnabled || mBrightnessController == null ||
+                                !mBrightnessController.isBrightnessChanged()) return;
     
                         int action = ((MotionEvent) param.args[0]).getAction();
                         final boolean upOrCancel = (action == MotionEvent.ACTION_UP ||
                                 action == MotionEvent.ACTION_CANCEL);
                         if (upOrCancel) {
-                            mBrightnessChanged = false;
-                            if (mJustPeeked && XposedHelpers.getBooleanField(
+                            mBrightnessController.resetBrightnessChanged();
+                            if (mBrightnessController.isJustPeeked() && XposedHelpers.getBooleanField(
                                     param.thisObject, "mExpandedVisible")) {
                                 Object notifPanel = XposedHelpers.getObjectField(
                                         param.thisObject, "mNotificationPanelViewController");
@@ -873,13 +864,13 @@ public class ModStatusBar {
                         View.class, MotionEvent.class, new XC_MethodHook() {
                     @Override
                     protected void beforeHookedMethod(MethodHookParam param) {
-                        if (mBrightnessControlEnabled &&
+                        if (mBrightnessControlEnabled && mBrightnessController != null &&
                                 CLASS_NOTIF_PANEL_VIEW.equals(param.args[0].getClass().getName())) {
                             Object host = XposedHelpers.getSurroundingThis(param.thisObject);
                             View kgHeader = (View) XposedHelpers.getObjectField(
                                     host, "mKeyguardStatusBar");
                             if (kgHeader.getVisibility() == View.VISIBLE) {
-                                brightnessControl((MotionEvent) param.args[1]);
+                                mBrightnessController.onTouchEvent((MotionEvent) param.args[1]);
                             }
                         }
                     }
@@ -921,36 +912,7 @@ public class ModStatusBar {
                             if (DEBUG_LAYOUT) {
                                 container.setWillNotDraw(false);
                             }
-                            int[] location = new int[2];
-                            container.getLocationOnScreen(location);
-                            int xOffset = location[0];
-                            int screenWidth = mContext.getResources().getDisplayMetrics().widthPixels;
-                            int screenHeight = mContext.getResources().getDisplayMetrics().heightPixels;
-                            Rect topCutout = Utils.getDisplayCutoutTop(container.getRootWindowInsets());
-                            int baseWidth = Math.round(screenWidth <= screenHeight ?
-                                    screenWidth*0.55f : screenWidth*0.60f);
-                            int safeWidth = topCutout == null ? baseWidth :
-                                    Math.min(baseWidth, topCutout.left);
-
-                            if (centerLayoutHasVisibleChild()) {
-                                int[] centerViewLoc = new int[2];
-                                mLayoutCenter.getChildAt(0).getLocationOnScreen(centerViewLoc);
-                                if (DEBUG_LAYOUT) log("getActualWidth: mLayoutCenter related safe width=" + centerViewLoc[0]);
-                                safeWidth = Math.min(safeWidth, centerViewLoc[0]);
-                            }
-
-                            mNotifIconContainerComputedWidth = Math.max(0, safeWidth);
-                            mSystemIconAreaMaxWidth = screenWidth - mNotifIconContainerComputedWidth
-                                    - (int)TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 6,
-                                    mContext.getResources().getDisplayMetrics());
-                            int maxWidth = Math.max(0, safeWidth - xOffset);
-                            if (DEBUG_LAYOUT) log("getActualWidth: screenWidth=" + screenWidth +
-                                    "; baseWidth=" + baseWidth +
-                                    "; topCutout=" + (topCutout == null ? "null" : String.valueOf(topCutout.left)) +
-                                    "; safeWidth=" + safeWidth +
-                                    "; xOffset=" + xOffset +
-                                    "; maxWidth=" + maxWidth + "px");
-                            param.setResult(maxWidth);
+                            param.setResult(mNotifIconAreaGeometry.getMaxWidth(container));
                         }
                     }
                 });
@@ -985,9 +947,20 @@ public class ModStatusBar {
                         View container = (View) param.thisObject;
                         if (isNotificationIconContainer(container) && mMaxNotifIconsEnabled) {
                             if (DEBUG_LAYOUT) log("onLayout: calling updateState()");
-                            XposedHelpers.callMethod(param.thisObject, "updateState");
+                            try {
+                                if (mNotifIconContainerUpdateState == null) {
+                                    mNotifIconContainerUpdateState = XposedHelpers.findMethodExact(
+                                            container.getClass(), "updateState");
+                                }
+                                mNotifIconContainerUpdateState.invoke(container);
+                            } catch (Throwable t) {
+                                GravityBox.log(TAG, t);
+                            }
                             ViewGroup parent = getNotifIconArea(container);
-                            if (parent != null && parent.getWidth() != mNotifIconContainerComputedWidth) {
+                            // adjust only when computed width changes so that layout passes
+                            // don't keep re-triggering each other until parent catches up
+                            if (parent != null && parent.getLayoutParams() != null &&
+                                    parent.getLayoutParams().width != mNotifIconContainerComputedWidth) {
                                 ViewGroup.LayoutParams lp = parent.getLayoutParams();
                                 lp.width = mNotifIconContainerComputedWidth;
                                 if (DEBUG_LAYOUT) log("onLayout: parent width adjusted: " +
@@ -1111,8 +1084,79 @@ public class ModStatusBar {
     }
 
     private static boolean isNotificationIconContainer(View v) {
-        return v.getId() == mContext.getResources().getIdentifier(
-                "notificationIcons", "id", PACKAGE_NAME);
+        if (mNotifIconsResId == 0) {
+            mNotifIconsResId = mContext.getResources().getIdentifier(
+                    "notificationIcons", "id", PACKAGE_NAME);
+        }
+        return v.getId() == mNotifIconsResId;
+    }
+
+    /**
+     * Caches safe width of notification icon area which is recomputed only
+     * when screen size, window insets or position of container or center child change
+     */
+    private static final class NotifIconAreaGeometry {
+        private final int[] mContainerLoc = new int[2];
+        private final int[] mCenterViewLoc = new int[2];
+        private int mScreenWidth = -1;
+        private int mScreenHeight = -1;
+        private WindowInsets mInsets;
+        private int mXOffset = -1;
+        private int mCenterViewLeft = -1;
+        private int mCutoutLeft = -1;
+        private int mSysIconAreaMarginPx;
+        private int mMaxWidth;
+
+        int getMaxWidth(View container) {
+            container.getLocationOnScreen(mContainerLoc);
+            final int xOffset = mContainerLoc[0];
+            int centerViewLeft = -1;
+            if (centerLayoutHasVisibleChild()) {
+                mLayoutCenter.getChildAt(0).getLocationOnScreen(mCenterViewLoc);
+                centerViewLeft = mCenterViewLoc[0];
+            }
+            final DisplayMetrics dm = mContext.getResources().getDisplayMetrics();
+            final WindowInsets insets = container.getRootWindowInsets();
+
+            final boolean screenChanged = (dm.widthPixels != mScreenWidth ||
+                    dm.heightPixels != mScreenHeight || insets != mInsets);
+            if (!screenChanged && xOffset == mXOffset && centerViewLeft == mCenterViewLeft) {
+                return mMaxWidth;
+            }
+
+            if (screenChanged) {
+                mScreenWidth = dm.widthPixels;
+                mScreenHeight = dm.heightPixels;
+                mInsets = insets;
+                Rect topCutout = (insets == null ? null : Utils.getDisplayCutoutTop(insets));
+                mCutoutLeft = (topCutout == null ? -1 : topCutout.left);
+                mSysIconAreaMarginPx = (int) TypedValue.applyDimension(
+                        TypedValue.COMPLEX_UNIT_DIP, 6, dm);
+            }
+            mXOffset = xOffset;
+            mCenterViewLeft = centerViewLeft;
+
+            int baseWidth = Math.round(mScreenWidth <= mScreenHeight ?
+                    mScreenWidth*0.55f : mScreenWidth*0.60f);
+            int safeWidth = mCutoutLeft < 0 ? baseWidth :
+                    Math.min(baseWidth, mCutoutLeft);
+            if (centerViewLeft >= 0) {
+                if (DEBUG_LAYOUT) log("getActualWidth: mLayoutCenter related safe width=" + centerViewLeft);
+                safeWidth = Math.min(safeWidth, centerViewLeft);
+            }
+
+            mNotifIconContainerComputedWidth = Math.max(0, safeWidth);
+            mSystemIconAreaMaxWidth = mScreenWidth - mNotifIconContainerComputedWidth
+                    - mSysIconAreaMarginPx;
+            mMaxWidth = Math.max(0, safeWidth - xOffset);
+            if (DEBUG_LAYOUT) log("getActualWidth: screenWidth=" + mScreenWidth +
+                    "; baseWidth=" + baseWidth +
+                    "; topCutout=" + mCutoutLeft +
+                    "; safeWidth=" + safeWidth +
+                    "; xOffset=" + xOffset +
+                    "; maxWidth=" + mMaxWidth + "px");
+            return mMaxWidth;
+        }
     }
 
     private static boolean centerLayoutHasVisibleChild() {
@@ -1261,114 +1305,6 @@ public class ModStatusBar {
         }
     }
 
-    private static Runnable mLongPressBrightnessChange = new Runnable() {
-        @Override
-        public void run() {
-            try {
-                XposedHelpers.callMethod(mStatusBarView, "performHapticFeedback", 
-                        HapticFeedbackConstants.LONG_PRESS);
-                adjustBrightness(mInitialTouchX);
-                mLinger = BRIGHTNESS_CONTROL_LINGER_THRESHOLD + 1;
-            } catch (Throwable t) {
-                GravityBox.log(TAG, t);
-            }
-        }
-    };
-
-    private static DisplayManager mDisplayManager;
-    private static DisplayManager getDisplayManager() {
-        if (mDisplayManager == null) {
-            mDisplayManager = (DisplayManager) mContext.getSystemService(Context.DISPLAY_SERVICE);
-        }
-        return mDisplayManager;
-    }
-
-    private static void adjustBrightness(int x) {
-        try {
-            mBrightnessChanged = true;
-            float raw = ((float) x) / mScreenWidth;
-
-            // Add a padding to the brightness control on both sides to
-            // make it easier to reach min/max brightness
-            float padded = Math.min(1.0f - BRIGHTNESS_CONTROL_PADDING,
-                    Math.max(BRIGHTNESS_CONTROL_PADDING, raw));
-            float value = (padded - BRIGHTNESS_CONTROL_PADDING) /
-                    (1 - (2.0f * BRIGHTNESS_CONTROL_PADDING));
-
-            if (mAutomaticBrightness) {
-                float adj = (value * 100) / (BRIGHTNESS_ADJ_RESOLUTION / 2f) - 1;
-                adj = Math.max(adj, -1);
-                adj = Math.min(adj, 1);
-                final float val = adj;
-                XposedHelpers.callMethod(getDisplayManager(), "setTemporaryAutoBrightnessAdjustment", val);
-                AsyncTask.execute(() ->
-                        XposedHelpers.callStaticMethod(Settings.System.class, "putFloatForUser",
-                        mContext.getContentResolver(),"screen_auto_brightness_adj", val, -2));
-            } else {
-                int newBrightness = mMinBrightness + Math.round(value *
-                        (BRIGHTNESS_ON - mMinBrightness));
-                newBrightness = Math.min(newBrightness, BRIGHTNESS_ON);
-                newBrightness = Math.max(newBrightness, mMinBrightness);
-                final int val = newBrightness;
-                XposedHelpers.callMethod(getDisplayManager(), "setTemporaryBrightness", val);
-                AsyncTask.execute(() ->
-                        XposedHelpers.callStaticMethod(Settings.System.class, "putIntForUser",
-                        mContext.getContentResolver(),Settings.System.SCREEN_BRIGHTNESS, val, -2));
-            }
-        } catch (Throwable t) {
-            GravityBox.log(TAG, t);
-        }
-    }
-
-    private static void brightnessControl(MotionEvent event) {
-        try {
-            final int action = event.getAction();
-            final int x = (int) event.getRawX();
-            final int y = (int) event.getRawY();
-            Handler handler = (Handler) XposedHelpers.getObjectField(mStatusBar, "mHandler");
-            int statusBarHeight = (int)XposedHelpers.callMethod(mStatusBar, "getStatusBarHeight");
-
-            if (action == MotionEvent.ACTION_DOWN) {
-                if (y < statusBarHeight) {
-                    mLinger = 0;
-                    mInitialTouchX = x;
-                    mInitialTouchY = y;
-                    mJustPeeked = true;
-                    mScreenWidth = (float) mContext.getResources().getDisplayMetrics().widthPixels;
-                    handler.removeCallbacks(mLongPressBrightnessChange);
-                    handler.postDelayed(mLongPressBrightnessChange,
-                            BRIGHTNESS_CONTROL_LONG_PRESS_TIMEOUT);
-                }
-            } else if (action == MotionEvent.ACTION_MOVE) {
-                if (y < statusBarHeight && mJustPeeked) {
-                    if (mLinger > BRIGHTNESS_CONTROL_LINGER_THRESHOLD) {
-                        adjustBrightness(x);
-                    } else {
-                        final int xDiff = Math.abs(x - mInitialTouchX);
-                        final int yDiff = Math.abs(y - mInitialTouchY);
-                        final int touchSlop = ViewConfiguration.get(mContext).getScaledTouchSlop();
-                        if (xDiff > yDiff) {
-                            mLinger++;
-                        }
-                        if (xDiff > touchSlop || yDiff > touchSlop) {
-                            handler.removeCallbacks(mLongPressBrightnessChange);
-                        }
-                    }
-                } else {
-                    if (y > mPeekHeight) {
-                        mJustPeeked = false;
-                    }
-                    handler.removeCallbacks(mLongPressBrightnessChange);
-                }
-            } else if (action == MotionEvent.ACTION_UP ||
-                        action == MotionEvent.ACTION_CANCEL) {
-                handler.removeCallbacks(mLongPressBrightnessChange);
-            }
-        } catch (Throwable t) {
-            GravityBox.log(TAG, t);
-        }
-    }
-
     public static void startSearchAssist() {
         try {
             XposedHelpers.callMethod(mStatusBar, "startAssist", new Bundle());
@@ -29,6 +29,7 @@ public class PermissionGranter {
     private static final String CLASS_PERMISSION_CALLBACK = "com.android.server.pm.permission.PermissionManagerServiceInternal.PermissionCallback";
     private static final String CLASS_ANDROID_PACKAGE = "com.android.server.pm.parsing.pkg.AndroidPackage";
     private static final String PERM_ACCESS_SURFACE_FLINGER = "android.permission.ACCESS_SURFACE_FLINGER";
+    private static final String PERM_CAPTURE_VIDEO_OUTPUT = "android.permission.CAPTURE_VIDEO_OUTPUT";
 
     private static void log(String message) {
         XposedBridge.log(TAG + ": " + message);
@@ -65,6 +66,13 @@ public class PermissionGranter {
                             int ret = (int) XposedHelpers.callMethod(ps, "grantInstallPermission", pAccessSurfaceFlinger);
                             if (DEBUG) log("Permission added: " + pAccessSurfaceFlinger + "; ret=" + ret);
                         }
+                        // Add android.permission.CAPTURE_VIDEO_OUTPUT needed by screen recorder to mirror display
+                        if (!(boolean)XposedHelpers.callMethod(ps,"hasInstallPermission", PERM_CAPTURE_VIDEO_OUTPUT)) {
+                            final Object pCaptureVideoOutput = XposedHelpers.callMethod(permissions, "get",
+                                    PERM_CAPTURE_VIDEO_OUTPUT);
+                            int ret = (int) XposedHelpers.callMethod(ps, "grantInstallPermission", pCaptureVideoOutput);
+                            if (DEBUG) log("Permission added: " + pCaptureVideoOutput + "; ret=" + ret);
+                        }
 
                         if (DEBUG) {
                             log("List of permissions: ");
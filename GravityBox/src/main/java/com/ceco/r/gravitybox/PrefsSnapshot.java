@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2021 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.r.gravitybox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compact binary snapshot of shared preferences written next to preferences XML file.
+ * Hooked processes memory-map it and look up keys via hash index without parsing XML.
+ *
+ * Layout (big endian):
+ *   header: magic(int), format(int), generation(long), entry count(int), table size(int)
+ *   index table: table size x entry offset(int), 0 = empty slot
+ *   entries: key hash(int), key length(short), key chars, type(byte), value
+ */
+public class PrefsSnapshot {
+    public static final String FILE_EXTENSION = ".gbs";
+
+    private static final int MAGIC = 0x47425053;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+
+    private static final byte TYPE_BOOLEAN = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_FLOAT = 4;
+    private static final byte TYPE_STRING = 5;
+    private static final byte TYPE_STRING_SET = 6;
+
+    private final ByteBuffer mBuffer;
+    private final long mGeneration;
+    private final int mEntryCount;
+    private final int mTableMask;
+
+    private PrefsSnapshot(ByteBuffer buffer) {
+        mBuffer = buffer;
+        mGeneration = buffer.getLong(8);
+        mEntryCount = buffer.getInt(16);
+        mTableMask = buffer.getInt(20) - 1;
+    }
+
+    public static File getSnapshotFile(File prefsXmlFile) {
+        String name = prefsXmlFile.getName();
+        if (name.endsWith(".xml")) {
+            name = name.substring(0, name.length() - 4);
+        }
+        return new File(prefsXmlFile.getParentFile(), name + FILE_EXTENSION);
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    // Writer
+
+    /**
+     * Writes snapshot of given values. Generation is used by readers
+     * to verify the snapshot matches preferences XML file.
+     */
+    @SuppressWarnings({"ResultOfMethodCallIgnored", "unchecked"})
+    public static void write(File snapshotFile, Map<String, ?> values, long generation) throws IOException {
+        List<String> keys = new ArrayList<>();
+        for (Map.Entry<String, ?> e : values.entrySet()) {
+            if (e.getKey() != null && e.getValue() != null) {
+                keys.add(e.getKey());
+            }
+        }
+
+        int tableSize = 8;
+        while (tableSize < keys.size() * 2) {
+            tableSize <<= 1;
+        }
+        final int entriesStart = HEADER_SIZE + tableSize * 4;
+        final int[] table = new int[tableSize];
+
+        ByteArrayOutputStream entryBytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(entryBytes);
+        for (String key : keys) {
+            Object value = values.get(key);
+            byte type;
+            if (value instanceof Boolean) type = TYPE_BOOLEAN;
+            else if (value instanceof Integer) type = TYPE_INT;
+            else if (value instanceof Long) type = TYPE_LONG;
+            else if (value instanceof Float) type = TYPE_FLOAT;
+            else if (value instanceof String) type = TYPE_STRING;
+            else if (value instanceof Set) type = TYPE_STRING_SET;
+            else continue;
+
+            int slot = spread(key.hashCode()) & (tableSize - 1);
+            while (table[slot] != 0) {
+                slot = (slot + 1) & (tableSize - 1);
+            }
+            table[slot] = entriesStart + out.size();
+
+            out.writeInt(key.hashCode());
+            out.writeShort(key.length());
+            out.writeChars(key);
+            out.writeByte(type);
+            switch (type) {
+                case TYPE_BOOLEAN: out.writeByte((Boolean) value ? 1 : 0); break;
+                case TYPE_INT: out.writeInt((Integer) value); break;
+                case TYPE_LONG: out.writeLong((Long) value); break;
+                case TYPE_FLOAT: out.writeFloat((Float) value); break;
+                case TYPE_STRING: writeString(out, (String) value); break;
+                case TYPE_STRING_SET:
+                    Set<String> set = (Set<String>) value;
+                    out.writeInt(set.size());
+                    for (String s : set) {
+                        writeString(out, s);
+                    }
+                    break;
+            }
+        }
+        out.flush();
+
+        File tmpFile = new File(snapshotFile.getPath() + ".tmp");
+        try (DataOutputStream fos = new DataOutputStream(new FileOutputStream(tmpFile))) {
+            fos.writeInt(MAGIC);
+            fos.writeInt(FORMAT_VERSION);
+            fos.writeLong(generation);
+            fos.writeInt(keys.size());
+            fos.writeInt(tableSize);
+            for (int offset : table) {
+                fos.writeInt(offset);
+            }
+            entryBytes.writeTo(fos);
+        }
+        tmpFile.setReadable(true, false);
+        if (!tmpFile.renameTo(snapshotFile)) {
+            tmpFile.delete();
+            throw new IOException("Unable to rename " + tmpFile + " to " + snapshotFile);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeInt(s.length());
+        out.writeChars(s);
+    }
+
+    // Reader
+
+    /**
+     * Memory-maps snapshot file
+     * @return snapshot or null if file does not exist or is not valid
+     */
+    public static PrefsSnapshot open(File snapshotFile) {
+        if (!snapshotFile.canRead()) return null;
+        try (FileInputStream fis = new FileInputStream(snapshotFile);
+             FileChannel channel = fis.getChannel()) {
+            final long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) return null;
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) return null;
+            final int tableSize = buffer.getInt(20);
+            if (tableSize <= 0 || (tableSize & (tableSize - 1)) != 0 ||
+                    HEADER_SIZE + (long) tableSize * 4 > size) return null;
+            return new PrefsSnapshot(buffer);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public long getGeneration() {
+        return mGeneration;
+    }
+
+    public int size() {
+        return mEntryCount;
+    }
+
+    /**
+     * @return offset of entry type byte or -1 if key not found
+     */
+    private int find(String key) {
+        final int hash = key.hashCode();
+        final int len = key.length();
+        int slot = spread(hash) & mTableMask;
+        while (true) {
+            final int offset = mBuffer.getInt(HEADER_SIZE + slot * 4);
+            if (offset == 0) return -1;
+            if (mBuffer.getInt(offset) == hash && mBuffer.getShort(offset + 4) == len) {
+                final int charsOffset = offset + 6;
+                int i = 0;
+                while (i < len && mBuffer.getChar(charsOffset + i * 2) == key.charAt(i)) {
+                    i++;
+                }
+                if (i == len) {
+                    return charsOffset + len * 2;
+                }
+            }
+            slot = (slot + 1) & mTableMask;
+        }
+    }
+
+    public boolean contains(String key) {
+        return find(key) >= 0;
+    }
+
+    public boolean getBoolean(String key, boolean defValue) {
+        final int offset = find(key);
+        return (offset >= 0 && mBuffer.get(offset) == TYPE_BOOLEAN) ?
+                mBuffer.get(offset + 1) != 0 : defValue;
+    }
+
+    public int getInt(String key, int defValue) {
+        final int offset = find(key);
+        return (offset >= 0 && mBuffer.get(offset) == TYPE_INT) ?
+                mBuffer.getInt(offset + 1) : defValue;
+    }
+
+    public long getLong(String key, long defValue) {
+        final int offset = find(key);
+        return (offset >= 0 && mBuffer.get(offset) == TYPE_LONG) ?
+                mBuffer.getLong(offset + 1) : defValue;
+    }
+
+    public float getFloat(String key, float defValue) {
+        final int offset = find(key);
+        return (offset >= 0 && mBuffer.get(offset) == TYPE_FLOAT) ?
+                mBuffer.getFloat(offset + 1) : defValue;
+    }
+
+    public String getString(String key, String defValue) {
+        final int offset = find(key);
+        return (offset >= 0 && mBuffer.get(offset) == TYPE_STRING) ?
+                readString(offset + 1) : defValue;
+    }
+
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        final int offset = find(key);
+        return (offset >= 0 && mBuffer.get(offset) == TYPE_STRING_SET) ?
+                readStringSet(offset + 1) : defValues;
+    }
+
+    public Map<String, Object> getAll() {
+        Map<String, Object> map = new HashMap<>();
+        for (int slot = 0; slot <= mTableMask; slot++) {
+            final int offset = mBuffer.getInt(HEADER_SIZE + slot * 4);
+            if (offset == 0) continue;
+            final int len = mBuffer.getShort(offset + 4);
+            final String key = readChars(offset + 6, len);
+            final int valueOffset = offset + 6 + len * 2;
+            switch (mBuffer.get(valueOffset)) {
+                case TYPE_BOOLEAN: map.put(key, mBuffer.get(valueOffset + 1) != 0); break;
+                case TYPE_INT: map.put(key, mBuffer.getInt(valueOffset + 1)); break;
+                case TYPE_LONG: map.put(key, mBuffer.getLong(valueOffset + 1)); break;
+                case TYPE_FLOAT: map.put(key, mBuffer.getFloat(valueOffset + 1)); break;
+                case TYPE_STRING: map.put(key, readString(valueOffset + 1)); break;
+                case TYPE_STRING_SET: map.put(key, readStringSet(valueOffset + 1)); break;
+            }
+        }
+        return map;
+    }
+
+    private String readChars(int offset, int len) {
+        char[] chars = new char[len];
+        for (int i = 0; i < len; i++) {
+            chars[i] = mBuffer.getChar(offset + i * 2);
+        }
+        return new String(chars);
+    }
+
+    private String readString(int offset) {
+        return readChars(offset + 4, mBuffer.getInt(offset));
+    }
+
+    private Set<String> readStringSet(int offset) {
+        final int count = mBuffer.getInt(offset);
+        Set<String> set = new HashSet<>(count * 2);
+        offset += 4;
+        for (int i = 0; i < count; i++) {
+            final int len = mBuffer.getInt(offset);
+            set.add(readChars(offset + 4, len));
+            offset += 4 + len * 2;
+        }
+        return set;
+    }
+}
@@ -16,9 +16,11 @@
 
 package com.ceco.r.gravitybox;
 
+import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -31,8 +33,6 @@ import android.media.Ringtone;
 import android.media.RingtoneManager;
 import android.net.Uri;
 import android.os.Handler;
-import android.os.Parcel;
-import android.os.Parcelable;
 import android.os.PowerManager;
 import android.service.notification.StatusBarNotification;
 import android.widget.RemoteViews;
@@ -52,6 +52,10 @@ public class ProgressBarController implements BroadcastMediator.Receiver {
     private static final int IDLE_CHECK_FREQUENCY = 5000; // ms
     private static final String EXTRA_PROGRESS = "android.progress";
     private static final String EXTRA_PROGRESS_MAX = "android.progressMax";
+    private static final String CLASS_REFLECTION_ACTION = "android.widget.RemoteViews$ReflectionAction";
+    private static final int IDX_PROGRESS = 0;
+    private static final int IDX_MAX = 1;
+    private static final int IDX_ACTION_COUNT = 2;
 
     private static void log(String message) {
         XposedBridge.log(TAG + ": " + message);
@@ -109,6 +113,17 @@ public class ProgressBarController implements BroadcastMediator.Receiver {
     private boolean mSoundWhenScreenOffOnly;
     private PowerManager mPowerManager;
     private Handler mHandler;
+    // progress and max read from notification being processed
+    private final int[] mTmpProgress = new int[2];
+    // notification id -> RemoteViews action indices of setProgress and setMax
+    // and action count they were found in
+    private final Map<String, int[]> mActionIndices = new HashMap<>();
+
+    private static boolean sRemoteViewsFieldsResolved;
+    private static Field sActionsField;
+    private static Class<?> sReflectionActionClass;
+    private static Field sMethodNameField;
+    private static Field sValueField;
 
     private Runnable mRemoveIdleRunnable = new Runnable() {
         @Override
@@ -235,9 +250,11 @@ public class ProgressBarController implements BroadcastMediator.Receiver {
         synchronized (mProgressList) {
             if (id == null) {
                 mProgressList.clear();
+                mActionIndices.clear();
                 if (DEBUG) log("removeProgress: all cleared");
             } else if (mProgressList.containsKey(id)) {
                 mProgressList.remove(id);
+                mActionIndices.remove(id);
                 notifyProgressRemoved(id);
                 if (DEBUG) log("removeProgress: removed progress for '" + id + "'");
                 if (allowSound) maybePlaySound();
@@ -277,21 +294,21 @@ public class ProgressBarController implements BroadcastMediator.Receiver {
     public void onNotificationAdded(StatusBarNotification statusBarNotif) {
         if (mMode == Mode.OFF) return;
 
-        ProgressInfo pi = verifyNotification(statusBarNotif);
-        if (pi == null) {
+        String id = verifyNotification(statusBarNotif);
+        if (id == null) {
             if (DEBUG) log("onNotificationAdded: ignoring unsupported notification");
             return;
         }
 
-        addProgress(pi);
+        addProgress(new ProgressInfo(id, mTmpProgress[IDX_PROGRESS], mTmpProgress[IDX_MAX]));
     }
 
     public void onNotificationUpdated(StatusBarNotification statusBarNotif) {
         if (mMode == Mode.OFF) return;
 
-        ProgressInfo pi = verifyNotification(statusBarNotif);
-        if (pi == null) {
-            String id = getIdentifier(statusBarNotif);
+        String id = verifyNotification(statusBarNotif);
+        if (id == null) {
+            id = getIdentifier(statusBarNotif);
             if (id != null && mProgressList.containsKey(id)) {
                 removeProgress(id, true);
                 if (DEBUG) log("onNotificationUpdated: removing no longer " +
@@ -302,12 +319,12 @@ public class ProgressBarController implements BroadcastMediator.Receiver {
             return;
         }
 
-        if (!mProgressList.containsKey(pi.id)) {
+        if (!mProgressList.containsKey(id)) {
             // treat it as if it was added, e.g. to show progress in case
             // feature has been enabled during already ongoing download
-            addProgress(pi);
+            addProgress(new ProgressInfo(id, mTmpProgress[IDX_PROGRESS], mTmpProgress[IDX_MAX]));
         } else {
-            updateProgress(pi.id, pi.max, pi.progress);
+            updateProgress(id, mTmpProgress[IDX_MAX], mTmpProgress[IDX_PROGRESS]);
         }
     }
 
@@ -320,7 +337,10 @@ public class ProgressBarController implements BroadcastMediator.Receiver {
         }
     }
 
-    private ProgressInfo verifyNotification(StatusBarNotification statusBarNotif) {
+    /**
+     * @return identifier of supported notification with progress stored in mTmpProgress or null
+     */
+    private String verifyNotification(StatusBarNotification statusBarNotif) {
         if (statusBarNotif == null)
             return null;
 
@@ -332,7 +352,7 @@ public class ProgressBarController implements BroadcastMediator.Receiver {
         if (n != null && 
                (SUPPORTED_PACKAGES.contains(statusBarNotif.getPackageName()) ||
                 n.extras.getBoolean(ModLedControl.NOTIF_EXTRA_PROGRESS_TRACKING))) {
-            return getProgressInfo(id, n);
+            return (readProgress(id, n, mTmpProgress) ? id : null);
         }
         return null;
     }
@@ -353,67 +373,116 @@ public class ProgressBarController implements BroadcastMediator.Receiver {
     }
 
     @SuppressWarnings("deprecation")
-    private ProgressInfo getProgressInfo(String id, Notification n) {
+    private boolean readProgress(String id, Notification n, int[] out) {
         if (id == null || n == null)
-            return null;
+            return false;
 
         if(n.extras.containsKey(EXTRA_PROGRESS) &&
                 n.extras.containsKey(EXTRA_PROGRESS_MAX) &&
                 n.extras.getInt(EXTRA_PROGRESS_MAX) > 0) {
-            return new ProgressInfo(id,
-                    n.extras.getInt(EXTRA_PROGRESS),
-                    n.extras.getInt(EXTRA_PROGRESS_MAX));
+            out[IDX_PROGRESS] = n.extras.getInt(EXTRA_PROGRESS);
+            out[IDX_MAX] = n.extras.getInt(EXTRA_PROGRESS_MAX);
+            return true;
         } else if (n.bigContentView != null) {
-            return getProgressInfoFromRemoteView(id, n.bigContentView);
+            return readProgressFromRemoteView(id, n.bigContentView, out);
         } else if (n.contentView != null) {
-            return getProgressInfoFromRemoteView(id, n.contentView);
+            return readProgressFromRemoteView(id, n.contentView, out);
         }
 
-        return null;
+        return false;
     }
 
-    private ProgressInfo getProgressInfoFromRemoteView(String id, RemoteViews view) {
-        int max = -1;
-        int progress = -1;
+    private static boolean resolveRemoteViewsFields() {
+        if (!sRemoteViewsFieldsResolved) {
+            sRemoteViewsFieldsResolved = true;
+            try {
+                sActionsField = XposedHelpers.findField(RemoteViews.class, "mActions");
+                sReflectionActionClass = XposedHelpers.findClass(CLASS_REFLECTION_ACTION,
+                        RemoteViews.class.getClassLoader());
+                sMethodNameField = XposedHelpers.findField(sReflectionActionClass, "methodName");
+                sValueField = XposedHelpers.findField(sReflectionActionClass, "value");
+            } catch (Throwable t) {
+                GravityBox.log(TAG, "Error resolving RemoteViews fields: ", t);
+                sValueField = null;
+            }
+        }
+        return (sValueField != null);
+    }
+
+    /**
+     * Reads values of setProgress and setMax reflection actions. Action indices are remembered
+     * per notification so that subsequent updates don't need to scan all actions.
+     * Remembered indices are used only while action count is unchanged as a later
+     * appended action overrides the remembered one.
+     */
+    private boolean readProgressFromRemoteView(String id, RemoteViews view, int[] out) {
+        if (!resolveRemoteViewsFields()) return false;
 
         try {
-            @SuppressWarnings("unchecked")
-            List<Parcelable> actions = (List<Parcelable>) 
-                XposedHelpers.getObjectField(view, "mActions");
-            if (actions == null) return null;
-
-            for (Parcelable p : actions) {
-                Parcel parcel = Parcel.obtain();
-                p.writeToParcel(parcel, 0);
-                parcel.setDataPosition(0);
-
-                // The tag tells which type of action it is (2 is ReflectionAction)
-                int tag = parcel.readInt();
-                if (tag != 2)  {
-                    parcel.recycle();
-                    continue;
-                }
+            List<?> actions = (List<?>) sActionsField.get(view);
+            if (actions == null) return false;
 
-                parcel.readInt(); // skip View ID
-                String methodName = parcel.readString();
+            int[] indices = mActionIndices.get(id);
+            if (indices != null && indices[IDX_ACTION_COUNT] == actions.size() &&
+                    readActionValues(actions, indices, out)) {
+                return true;
+            }
+
+            int progressIdx = -1;
+            int maxIdx = -1;
+            final int size = actions.size();
+            for (int i = 0; i < size; i++) {
+                Object action = actions.get(i);
+                if (action == null || action.getClass() != sReflectionActionClass)
+                    continue;
+                Object methodName = sMethodNameField.get(action);
                 if ("setMax".equals(methodName)) {
-                    parcel.readInt(); // skip type value
-                    max = parcel.readInt();
-                    if (DEBUG) log("getProgressInfoFromRemoteView: max=" + max);
+                    maxIdx = i;
                 } else if ("setProgress".equals(methodName)) {
-                    parcel.readInt(); // skip type value
-                    progress = parcel.readInt();
-                    if (DEBUG) log("getProgressInfoFromRemoteView: progress=" + progress);
+                    progressIdx = i;
                 }
+            }
+            if (progressIdx == -1 || maxIdx == -1) {
+                mActionIndices.remove(id);
+                return false;
+            }
 
-                parcel.recycle();
+            if (indices == null) {
+                indices = new int[3];
+                mActionIndices.put(id, indices);
             }
-        } catch (Throwable  t) {
+            indices[IDX_PROGRESS] = progressIdx;
+            indices[IDX_MAX] = maxIdx;
+            indices[IDX_ACTION_COUNT] = size;
+            if (DEBUG) log("readProgressFromRemoteView: '" + id + "' action indices: " +
+                    "progress=" + progressIdx + "; max=" + maxIdx);
+            return readActionValues(actions, indices, out);
+        } catch (Throwable t) {
             GravityBox.log(TAG, t);
+            return false;
         }
+    }
+
+    private static boolean readActionValues(List<?> actions, int[] indices, int[] out)
+            throws IllegalAccessException {
+        return (readIntAction(actions, indices[IDX_PROGRESS], "setProgress", out, IDX_PROGRESS) &&
+                readIntAction(actions, indices[IDX_MAX], "setMax", out, IDX_MAX));
+    }
+
+    private static boolean readIntAction(List<?> actions, int index, String methodName,
+            int[] out, int outIdx) throws IllegalAccessException {
+        if (index >= actions.size()) return false;
+
+        Object action = actions.get(index);
+        if (action == null || action.getClass() != sReflectionActionClass ||
+                !methodName.equals(sMethodNameField.get(action)))
+            return false;
+
+        Object value = sValueField.get(action);
+        if (!(value instanceof Integer)) return false;
 
-        return (max != -1 && progress != -1) ?
-                new ProgressInfo(id, progress, max) : null;
+        out[outIdx] = (Integer) value;
+        return true;
     }
 
     private void maybePlaySound() {
@@ -15,11 +15,7 @@
 
 package com.ceco.r.gravitybox;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
@@ -34,9 +30,12 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.media.MediaRecorder;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.ParcelFileDescriptor;
 import android.os.ResultReceiver;
 import android.provider.MediaStore;
@@ -65,7 +64,9 @@ public class RecordingService extends Service {
     private Notification mRecordingNotif;
     private PendingIntent mPendingIntent;
     private int mSamplingRate = DEFAULT_SAMPLING_RATE;
-    private File mLastAudioFile;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private ParcelFileDescriptor mOutputPfd;
+    private Uri mOutputUri;
     private Uri mLastAudioUri;
 
     @Override
@@ -129,18 +130,20 @@ public class RecordingService extends Service {
         i.putExtra(EXTRA_STATUS_MESSAGE, statusMessage);
         sendBroadcast(i);
         stopForeground(true);
+        releaseRecorder();
+        closeOutput(false);
     };
 
     private void startRecording() {
         String statusMessage = "";
-        mLastAudioFile = new File(Utils.getCacheDir(this) + "/AUDIO_" + new SimpleDateFormat(
-                "yyyyMMdd_HHmmss", Locale.US).format(new Date()));
 
         try {
+            openOutput("AUDIO_" + new SimpleDateFormat(
+                    "yyyyMMdd_HHmmss", Locale.US).format(new Date()));
             mRecorder = new MediaRecorder();
             mRecorder.setAudioSource(MediaRecorder.AudioSource.MIC);
             mRecorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
-            mRecorder.setOutputFile(mLastAudioFile);
+            mRecorder.setOutputFile(mOutputPfd.getFileDescriptor());
             mRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.AAC);
             mRecorder.setAudioEncodingBitRate(96000);
             mRecorder.setAudioSamplingRate(mSamplingRate);
@@ -153,6 +156,8 @@ public class RecordingService extends Service {
             e.printStackTrace();
             mRecordingStatus = RECORDING_STATUS_ERROR;
             statusMessage = e.getMessage();
+            releaseRecorder();
+            closeOutput(false);
         } finally {
             Intent i = new Intent(ACTION_RECORDING_STATUS_CHANGED);
             i.putExtra(EXTRA_RECORDING_STATUS, mRecordingStatus);
@@ -164,55 +169,109 @@ public class RecordingService extends Service {
     private void stopRecording() {
         if (mRecorder == null) return;
 
-        String statusMessage = "";
-        Intent i = new Intent(ACTION_RECORDING_STATUS_CHANGED);
+        boolean success = false;
         try {
             mRecorder.stop();
-            mRecorder.release();
-            mRecorder = null;
+            // status is broadcast once output is published
             mRecordingStatus = RECORDING_STATUS_STOPPED;
-            mLastAudioUri = insertIntoMediaStore();
-            i.putExtra(EXTRA_AUDIO_URI, mLastAudioUri.toString());
+            mLastAudioUri = null;
+            success = true;
         } catch (Exception e) {
             e.printStackTrace();
             mRecordingStatus = RECORDING_STATUS_ERROR;
-            statusMessage = e.getMessage();
+            sendStatus(e.getMessage());
         } finally {
-            i.putExtra(EXTRA_RECORDING_STATUS, mRecordingStatus);
-            i.putExtra(EXTRA_STATUS_MESSAGE, statusMessage);
-            sendBroadcast(i);
+            releaseRecorder();
             stopForeground(true);
+            closeOutput(success);
         }
     }
 
-    private Uri insertIntoMediaStore() throws Exception {
+    private void sendStatus(String statusMessage) {
+        Intent i = new Intent(ACTION_RECORDING_STATUS_CHANGED);
+        i.putExtra(EXTRA_RECORDING_STATUS, mRecordingStatus);
+        i.putExtra(EXTRA_STATUS_MESSAGE, statusMessage);
+        if (mRecordingStatus == RECORDING_STATUS_STOPPED && mLastAudioUri != null) {
+            i.putExtra(EXTRA_AUDIO_URI, mLastAudioUri.toString());
+        }
+        sendBroadcast(i);
+    }
+
+    private void releaseRecorder() {
+        if (mRecorder != null) {
+            mRecorder.release();
+            mRecorder = null;
+        }
+    }
+
+    /**
+     * Audio is recorded straight into pending MediaStore entry so it doesn't have to be copied
+     */
+    private void openOutput(String name) throws IOException {
         ContentValues values = new ContentValues();
-        values.put(MediaStore.Audio.Media.DISPLAY_NAME, mLastAudioFile.getName());
+        values.put(MediaStore.Audio.Media.DISPLAY_NAME, name);
         values.put(MediaStore.Audio.Media.MIME_TYPE, "audio/mp4");
         values.put(MediaStore.Audio.Media.IS_PENDING, 1);
         values.put(MediaStore.Audio.Media.RELATIVE_PATH, Environment.DIRECTORY_MUSIC + "/AudioRecordings");
 
         ContentResolver resolver = getContentResolver();
         Uri collection = MediaStore.Audio.Media.getContentUri(MediaStore.VOLUME_EXTERNAL_PRIMARY);
-        Uri item = resolver.insert(collection, values);
-
-        ParcelFileDescriptor pfd = resolver.openFileDescriptor(item, "w", null);
-        InputStream is = new FileInputStream(mLastAudioFile);
-        OutputStream os = new FileOutputStream(pfd.getFileDescriptor());
-        byte[] buffer = new byte[4096];
-        int length;
-        while((length = is.read(buffer)) > 0) {
-            os.write(buffer, 0, length);
+        mOutputUri = resolver.insert(collection, values);
+        if (mOutputUri == null) {
+            throw new IOException("Unable to create MediaStore entry for " + name);
         }
-        os.flush();
-        is.close();
-        os.close();
+        mOutputPfd = resolver.openFileDescriptor(mOutputUri, "rw", null);
+        if (mOutputPfd == null) {
+            throw new IOException("Unable to open " + mOutputUri);
+        }
+    }
 
-        values.clear();
-        values.put(MediaStore.Audio.Media.IS_PENDING, 0);
-        resolver.update(item, values, null, null);
+    /**
+     * Publishes pending MediaStore entry or drops it when recording failed.
+     * Resolver calls are done off the main thread and status is broadcast
+     * once the entry is visible to other apps.
+     */
+    private void closeOutput(final boolean publish) {
+        if (mOutputPfd != null) {
+            try {
+                mOutputPfd.close();
+            } catch (IOException ignore) { }
+            mOutputPfd = null;
+        }
+        final Uri uri = mOutputUri;
+        mOutputUri = null;
+        if (uri == null) return;
 
-        return item;
+        AsyncTask.execute(() -> {
+            String statusMessage = "";
+            boolean published = false;
+            try {
+                ContentResolver resolver = getContentResolver();
+                if (publish) {
+                    ContentValues values = new ContentValues();
+                    values.put(MediaStore.Audio.Media.IS_PENDING, 0);
+                    published = (resolver.update(uri, values, null, null) > 0);
+                } else {
+                    resolver.delete(uri, null, null);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+                statusMessage = e.getMessage();
+            }
+            if (!publish) return;
+
+            final boolean ok = published;
+            final String message = statusMessage;
+            mHandler.post(() -> {
+                if (ok) {
+                    mRecordingStatus = RECORDING_STATUS_STOPPED;
+                    mLastAudioUri = uri;
+                } else {
+                    mRecordingStatus = RECORDING_STATUS_ERROR;
+                }
+                sendStatus(message);
+            });
+        });
     }
 
     @Override
@@ -220,4 +279,4 @@ public class RecordingService extends Service {
         stopRecording();
         super.onDestroy();
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
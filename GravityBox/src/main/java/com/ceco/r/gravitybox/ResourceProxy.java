@@ -15,12 +15,19 @@
 package com.ceco.r.gravitybox;
 
 import android.content.Context;
+import android.content.res.AssetManager;
 import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.util.SparseArray;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 import de.robv.android.xposed.XC_MethodHook;
@@ -35,11 +42,6 @@ public class ResourceProxy {
         XposedBridge.log(TAG + ": " + message);
     }
 
-    private static SparseArray<ResourceSpec> sCache = new SparseArray<>();
-    private static int getCacheKey(String pkgName, int resId) {
-        return (pkgName + "_" + resId).hashCode();
-    }
-
     public static class ResourceSpec {
         private Interceptor interceptor;
         public int resId;
@@ -110,55 +112,189 @@ public class ResourceProxy {
         }
     }
 
-    private final List<Interceptor> mInterceptors = new ArrayList<>();
+    /**
+     * Primitive int set with lock-free lookups. Value 0 cannot be stored.
+     */
+    private static final class IntSet {
+        private volatile int[] mTable = new int[16];
+        private int mSize;
 
-    ResourceProxy() {
-        createIntegerHook();
-        createBooleanHook();
-        createDimensionHook();
-        createDimensionPixelOffsetHook();
-        createDimensionPixelSizeHook();
-        createStringHook();
-        createDrawableHook();
-    }
+        private static int slotOf(int key, int mask) {
+            final int h = key * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask;
+        }
 
-    void addInterceptor(Interceptor interceptor) {
-        synchronized (mInterceptors) {
-            if (!mInterceptors.contains(interceptor)) {
-                mInterceptors.add(interceptor);
+        boolean contains(int key) {
+            final int[] table = mTable;
+            final int mask = table.length - 1;
+            int slot = slotOf(key, mask);
+            int k;
+            while ((k = table[slot]) != 0) {
+                if (k == key) return true;
+                slot = (slot + 1) & mask;
+            }
+            return false;
+        }
+
+        synchronized void add(int key) {
+            if (key == 0 || contains(key)) return;
+            int[] table = mTable;
+            if ((mSize + 1) * 2 > table.length) {
+                int[] newTable = new int[table.length * 2];
+                for (int k : table) {
+                    if (k != 0) insert(newTable, k);
+                }
+                insert(newTable, key);
+                mTable = newTable;
+            } else {
+                insert(table, key);
             }
+            mSize++;
+        }
+
+        private static void insert(int[] table, int key) {
+            final int mask = table.length - 1;
+            int slot = slotOf(key, mask);
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = key;
         }
     }
 
-    private Interceptor findInterceptorForFramework() {
-        synchronized (mInterceptors) {
-            return mInterceptors.stream().filter((i) -> i.isFramework)
-                    .findFirst().orElse(null);
+    /**
+     * Interception state of a single resource package
+     */
+    private static final class PackageIndex {
+        // resource name -> interceptor, resolved once per package
+        final Map<String, Interceptor> interceptors;
+        // resources known not to be intercepted
+        final IntSet ignoredResIds = new IntSet();
+        final SparseArray<ResourceSpec> specs = new SparseArray<>();
+
+        PackageIndex(Map<String, Interceptor> interceptors) {
+            this.interceptors = interceptors;
         }
     }
 
-    private Interceptor findInterceptorForResource(String packageName, String resName) {
-        if (packageName == null || resName == null) return null;
-        Interceptor fwi = findInterceptorForFramework();
-        synchronized (mInterceptors) {
-            for (Interceptor i : mInterceptors) {
+    private static final PackageIndex NOT_INTERCEPTED =
+            new PackageIndex(Collections.emptyMap());
+
+    /**
+     * Package indexes of a single AssetManager by package id
+     */
+    private static final class AssetsPackages {
+        final WeakReference<AssetManager> assets;
+        final PackageIndex[] byPackageId = new PackageIndex[256];
+
+        AssetsPackages(AssetManager assets) {
+            this.assets = new WeakReference<>(assets);
+        }
+    }
+
+    /**
+     * Immutable lookup structures compiled from interceptors along with
+     * caches of resources resolved against them
+     */
+    private static final class InterceptionIndex {
+        final List<Interceptor> interceptors;
+        final Interceptor framework;
+        final IntSet fakeResIds = new IntSet();
+        final SparseArray<Interceptor> fakeResIdInterceptors = new SparseArray<>();
+        final Map<String, PackageIndex> packages = new ConcurrentHashMap<>();
+        final PackageIndex frameworkPackage;
+        final Map<AssetManager, AssetsPackages> assetsPackages = new WeakHashMap<>();
+        volatile AssetsPackages lastAssetsPackages;
+
+        InterceptionIndex(List<Interceptor> interceptors) {
+            this.interceptors = interceptors;
+            this.framework = interceptors.stream().filter((i) -> i.isFramework)
+                    .findFirst().orElse(null);
+            for (Interceptor i : interceptors) {
+                for (int fakeResId : i.supportedFakeResIds) {
+                    if (fakeResIdInterceptors.get(fakeResId) == null) {
+                        fakeResIdInterceptors.put(fakeResId, i);
+                        fakeResIds.add(fakeResId);
+                    }
+                }
+            }
+            frameworkPackage = getPackageIndex("android");
+        }
+
+        PackageIndex getPackageIndex(String packageName) {
+            return packages.computeIfAbsent(packageName, this::createPackageIndex);
+        }
+
+        private PackageIndex createPackageIndex(String packageName) {
+            Map<String, Interceptor> map = new HashMap<>();
+            for (Interceptor i : interceptors) {
                 if (i.packageNamePattern.matcher(packageName).matches()) {
-                    if (i.supportedResourceNames.contains(resName)) {
-                        return i;
-                    } else if (fwi != null && fwi.supportedResourceNames.contains(resName)) {
-                        return  fwi;
+                    for (String resName : i.supportedResourceNames) {
+                        map.putIfAbsent(resName, i);
+                    }
+                    if (framework != null) {
+                        for (String resName : framework.supportedResourceNames) {
+                            map.putIfAbsent(resName, framework);
+                        }
+                    }
+                }
+            }
+            if (DEBUG) log("Package index for " + packageName + ": " + map.size() + " resources");
+            return (map.isEmpty() ? NOT_INTERCEPTED : new PackageIndex(map));
+        }
+
+        /**
+         * @return index of package the resource belongs to or null if package is not intercepted
+         */
+        PackageIndex getPackageIndex(Resources res, int resId) {
+            final int packageId = resId >>> 24;
+            if (packageId == 0x01) {
+                return (frameworkPackage != NOT_INTERCEPTED ? frameworkPackage : null);
+            }
+
+            // package ids are resolved to package names once per AssetManager
+            final AssetManager assets = res.getAssets();
+            AssetsPackages ap = lastAssetsPackages;
+            if (ap == null || ap.assets.get() != assets) {
+                synchronized (assetsPackages) {
+                    ap = assetsPackages.get(assets);
+                    if (ap == null) {
+                        ap = new AssetsPackages(assets);
+                        assetsPackages.put(assets, ap);
                     }
                 }
+                lastAssetsPackages = ap;
             }
+            PackageIndex pi = ap.byPackageId[packageId];
+            if (pi == null) {
+                String pkgName = getResourcePackageName(res, resId);
+                if (pkgName == null) return null;
+                pi = getPackageIndex(pkgName);
+                ap.byPackageId[packageId] = pi;
+            }
+            return (pi != NOT_INTERCEPTED ? pi : null);
         }
-        return null;
     }
 
-    private Interceptor findInterceptorForFakeResourceId(int fakeResId) {
+    private final List<Interceptor> mInterceptors = new ArrayList<>();
+    private volatile InterceptionIndex mIndex = new InterceptionIndex(new ArrayList<>());
+
+    ResourceProxy() {
+        createIntegerHook();
+        createBooleanHook();
+        createDimensionHook();
+        createDimensionPixelOffsetHook();
+        createDimensionPixelSizeHook();
+        createStringHook();
+        createDrawableHook();
+    }
+
+    void addInterceptor(Interceptor interceptor) {
         synchronized (mInterceptors) {
-            return mInterceptors.stream().filter((i) ->
-                    i.supportedFakeResIds.contains(fakeResId))
-                    .findFirst().orElse(null);
+            if (!mInterceptors.contains(interceptor)) {
+                mInterceptors.add(interceptor);
+                mIndex = new InterceptionIndex(new ArrayList<>(mInterceptors));
+            }
         }
     }
 
@@ -166,7 +302,9 @@ public class ResourceProxy {
         @Override
         protected void beforeHookedMethod(MethodHookParam param) {
             final int resId = (int)param.args[0];
-            Interceptor i = findInterceptorForFakeResourceId(resId);
+            final InterceptionIndex index = mIndex;
+            if (!index.fakeResIds.contains(resId)) return;
+            Interceptor i = index.fakeResIdInterceptors.get(resId);
             if (i == null) return;
 
             Context gbContext = getGbContext(((Resources) param.thisObject).getConfiguration());
@@ -197,24 +335,33 @@ public class ResourceProxy {
     };
 
     private ResourceSpec getOrCreateResourceSpec(Resources res, int resId, Object value) {
-        String pkgName = getResourcePackageName(res, resId);
-        if (pkgName == null) return null;
+        final InterceptionIndex index = mIndex;
+        if (index.interceptors.isEmpty()) return null;
 
-        int cacheKey = getCacheKey(pkgName, resId);
-        if (sCache.get(cacheKey) != null) {
-            sCache.get(cacheKey).value = value;
-            return sCache.get(cacheKey);
+        PackageIndex pi = index.getPackageIndex(res, resId);
+        if (pi == null || pi.ignoredResIds.contains(resId)) return null;
+
+        ResourceSpec spec;
+        synchronized (pi.specs) {
+            spec = pi.specs.get(resId);
+        }
+        if (spec != null) {
+            spec.value = value;
+            return spec;
         }
 
         String resName = getResourceEntryName(res, resId);
-        if (resName == null) return null;
-
-        Interceptor i = findInterceptorForResource(pkgName, resName);
-        if (i == null) return null;
+        Interceptor i = (resName != null ? pi.interceptors.get(resName) : null);
+        if (i == null) {
+            pi.ignoredResIds.add(resId);
+            return null;
+        }
 
-        ResourceSpec spec = new ResourceSpec(i, resId, resName, value);
+        spec = new ResourceSpec(i, resId, resName, value);
         if (DEBUG) log("New " + spec.toString());
-        sCache.put(cacheKey, spec);
+        synchronized (pi.specs) {
+            pi.specs.put(resId, spec);
+        }
         return spec;
     }
 
@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2021 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.r.gravitybox;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import android.content.Context;
+import android.hardware.display.DisplayManager;
+import android.hardware.display.VirtualDisplay;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Surface;
+
+/**
+ * In-process screen recorder. Mirrors default display into a virtual display
+ * backed by input surface of a MediaCodec encoder and muxes encoded stream into MP4.
+ * Encoder runs asynchronously on a dedicated thread so there's no polling while
+ * recording and stop is finalized as soon as encoder signals end of stream.
+ */
+public class ScreenRecorder {
+    private static final String TAG = "GB:ScreenRecorder";
+
+    private static final String MIME_TYPE = MediaFormat.MIMETYPE_VIDEO_AVC;
+    private static final int I_FRAME_INTERVAL = 1; // sec
+    private static final long EOS_TIMEOUT = 1000; // ms
+    // same fallback as screenrecord binary uses when display size is rejected
+    private static final int FALLBACK_WIDTH = 1280;
+    private static final int FALLBACK_HEIGHT = 720;
+    private static final int FALLBACK_FRAME_RATE = 60;
+
+    public static class Config {
+        public int width;
+        public int height;
+        public int densityDpi;
+        public int bitRate;
+        public int frameRate = 60;
+        public long timeLimitMs;
+        public boolean rotate;
+        // size was explicitly chosen by user and must not be changed
+        public boolean fixedSize;
+    }
+
+    public interface Listener {
+        /** Called on main thread when output file was successfully finalized */
+        void onRecordingFinished();
+        /** Called on main thread when recording failed */
+        void onRecordingError(String message);
+    }
+
+    private final Context mContext;
+    private final Config mConfig;
+    private final FileDescriptor mOutputFd;
+    private final Listener mListener;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private HandlerThread mThread;
+    private Handler mHandler;
+
+    // owned by recorder thread
+    private MediaCodec mCodec;
+    private Surface mInputSurface;
+    private VirtualDisplay mVirtualDisplay;
+    private MediaMuxer mMuxer;
+    private int mTrackIndex = -1;
+    private boolean mStopping;
+    private boolean mFinished;
+
+    /**
+     * @param outputFd - writable file descriptor the MP4 is muxed into; stays owned by caller
+     */
+    public ScreenRecorder(Context context, Config config, FileDescriptor outputFd, Listener listener) {
+        mContext = context;
+        mConfig = config;
+        mOutputFd = outputFd;
+        mListener = listener;
+    }
+
+    public void start() {
+        mThread = new HandlerThread("GbScreenRecorder");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mHandler.post(this::prepareAndStart);
+    }
+
+    public void stop() {
+        if (mHandler != null) {
+            mHandler.post(this::signalStop);
+        }
+    }
+
+    private MediaFormat createFormat() {
+        MediaFormat format = MediaFormat.createVideoFormat(MIME_TYPE,
+                mConfig.width, mConfig.height);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT,
+                MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, mConfig.bitRate);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, mConfig.frameRate);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL);
+        // repeat last frame when screen is static so that stream keeps its pace
+        format.setLong(MediaFormat.KEY_REPEAT_PREVIOUS_FRAME_AFTER, 1000000L / mConfig.frameRate);
+        return format;
+    }
+
+    /**
+     * Fits requested size and frame rate to what encoder supports.
+     * Size is scaled down keeping aspect ratio and aligned as encoder requires.
+     */
+    private void applyCapabilities(MediaCodecInfo.VideoCapabilities caps) {
+        if (!mConfig.fixedSize) {
+            final float scale = Math.min(1f, Math.min(
+                    (float) caps.getSupportedWidths().getUpper() / mConfig.width,
+                    (float) caps.getSupportedHeights().getUpper() / mConfig.height));
+            int width = alignDown((int) (mConfig.width * scale), caps.getWidthAlignment());
+            int height = alignDown((int) (mConfig.height * scale), caps.getHeightAlignment());
+            if (!caps.isSizeSupported(width, height)) {
+                final boolean portrait = mConfig.height > mConfig.width;
+                width = portrait ? FALLBACK_HEIGHT : FALLBACK_WIDTH;
+                height = portrait ? FALLBACK_WIDTH : FALLBACK_HEIGHT;
+            }
+            mConfig.width = width;
+            mConfig.height = height;
+        }
+        if (caps.isSizeSupported(mConfig.width, mConfig.height)) {
+            final double maxFrameRate = caps.getSupportedFrameRatesFor(
+                    mConfig.width, mConfig.height).getUpper();
+            mConfig.frameRate = Math.max(1, Math.min(mConfig.frameRate, (int) maxFrameRate));
+        }
+    }
+
+    private static int alignDown(int value, int alignment) {
+        return Math.max(alignment, value - value % alignment);
+    }
+
+    private void configureCodec() {
+        try {
+            mCodec.configure(createFormat(), null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        } catch (RuntimeException e) {
+            if (mConfig.fixedSize) throw e;
+            Log.w(TAG, "Encoder rejected " + mConfig.width + "x" + mConfig.height + "@" +
+                    mConfig.frameRate + "; retrying with fallback configuration", e);
+            final boolean portrait = mConfig.height > mConfig.width;
+            mConfig.width = portrait ? FALLBACK_HEIGHT : FALLBACK_WIDTH;
+            mConfig.height = portrait ? FALLBACK_WIDTH : FALLBACK_HEIGHT;
+            mConfig.frameRate = Math.min(mConfig.frameRate, FALLBACK_FRAME_RATE);
+            mCodec.reset();
+            mCodec.setCallback(mCodecCallback, mHandler);
+            mCodec.configure(createFormat(), null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        }
+    }
+
+    private void prepareAndStart() {
+        try {
+            mCodec = MediaCodec.createEncoderByType(MIME_TYPE);
+            applyCapabilities(mCodec.getCodecInfo().getCapabilitiesForType(MIME_TYPE)
+                    .getVideoCapabilities());
+            mCodec.setCallback(mCodecCallback, mHandler);
+            configureCodec();
+            mInputSurface = mCodec.createInputSurface();
+
+            mMuxer = new MediaMuxer(mOutputFd, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            if (mConfig.rotate) {
+                mMuxer.setOrientationHint(90);
+            }
+
+            DisplayManager dm = (DisplayManager) mContext.getSystemService(Context.DISPLAY_SERVICE);
+            mVirtualDisplay = dm.createVirtualDisplay("GbScreenRecorder",
+                    mConfig.width, mConfig.height, mConfig.densityDpi, mInputSurface,
+                    DisplayManager.VIRTUAL_DISPLAY_FLAG_PUBLIC |
+                    DisplayManager.VIRTUAL_DISPLAY_FLAG_AUTO_MIRROR);
+
+            mCodec.start();
+            if (mConfig.timeLimitMs > 0) {
+                mHandler.postDelayed(this::signalStop, mConfig.timeLimitMs);
+            }
+            Log.d(TAG, "Recording started: " + mConfig.width + "x" + mConfig.height +
+                    "; bitRate=" + mConfig.bitRate + "; frameRate=" + mConfig.frameRate);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Error starting recording", e);
+            finish(e.getMessage());
+        }
+    }
+
+    private void signalStop() {
+        if (mStopping || mFinished) return;
+        mStopping = true;
+        mHandler.removeCallbacksAndMessages(null);
+
+        if (mVirtualDisplay != null) {
+            mVirtualDisplay.release();
+            mVirtualDisplay = null;
+        }
+        try {
+            mCodec.signalEndOfInputStream();
+            // in case encoder doesn't deliver end of stream
+            mHandler.postDelayed(() -> finish(null), EOS_TIMEOUT);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error signaling end of stream", e);
+            finish(null);
+        }
+    }
+
+    private final MediaCodec.Callback mCodecCallback = new MediaCodec.Callback() {
+        @Override
+        public void onInputBufferAvailable(MediaCodec codec, int index) {
+            // input is fed via surface
+        }
+
+        @Override
+        public void onOutputBufferAvailable(MediaCodec codec, int index, MediaCodec.BufferInfo info) {
+            if (mFinished) return;
+            try {
+                if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+                    // already part of output format passed to muxer
+                    info.size = 0;
+                }
+                if (info.size > 0 && mTrackIndex >= 0) {
+                    ByteBuffer buffer = codec.getOutputBuffer(index);
+                    buffer.position(info.offset);
+                    buffer.limit(info.offset + info.size);
+                    mMuxer.writeSampleData(mTrackIndex, buffer, info);
+                }
+                codec.releaseOutputBuffer(index, false);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error writing encoded data", e);
+                finish(e.getMessage());
+                return;
+            }
+            if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                finish(null);
+            }
+        }
+
+        @Override
+        public void onError(MediaCodec codec, MediaCodec.CodecException e) {
+            Log.e(TAG, "Encoder error", e);
+            finish(e.getMessage());
+        }
+
+        @Override
+        public void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {
+            if (mFinished || mTrackIndex >= 0) return;
+            try {
+                mTrackIndex = mMuxer.addTrack(format);
+                mMuxer.start();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error starting muxer", e);
+                mTrackIndex = -1;
+                finish(e.getMessage());
+            }
+        }
+    };
+
+    private void finish(String errorMessage) {
+        if (mFinished) return;
+        mFinished = true;
+        mHandler.removeCallbacksAndMessages(null);
+
+        if (mVirtualDisplay != null) {
+            mVirtualDisplay.release();
+            mVirtualDisplay = null;
+        }
+        if (mCodec != null) {
+            try {
+                mCodec.stop();
+            } catch (RuntimeException ignore) { }
+            mCodec.release();
+            mCodec = null;
+        }
+        if (mInputSurface != null) {
+            mInputSurface.release();
+            mInputSurface = null;
+        }
+        if (mMuxer != null) {
+            try {
+                if (mTrackIndex >= 0) {
+                    mMuxer.stop();
+                } else if (errorMessage == null) {
+                    errorMessage = "No frames were recorded";
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error finalizing output file", e);
+                if (errorMessage == null) {
+                    errorMessage = e.getMessage();
+                }
+            }
+            mMuxer.release();
+            mMuxer = null;
+        }
+        mThread.quitSafely();
+
+        final String message = errorMessage;
+        mMainHandler.post(() -> {
+            if (message == null) {
+                mListener.onRecordingFinished();
+            } else {
+                mListener.onRecordingError(message);
+            }
+        });
+    }
+}
@@ -32,45 +32,42 @@
 
 package com.ceco.r.gravitybox;
 
-import android.annotation.SuppressLint;
 import android.app.Notification;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.ContentResolver;
+import android.content.ContentValues;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
 import android.graphics.drawable.Icon;
-import android.media.MediaScannerConnection;
+import android.hardware.display.DisplayManager;
+import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Environment;
 import android.os.Handler;
 import android.os.IBinder;
-import android.os.Message;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.provider.MediaStore;
 import android.provider.Settings;
 import android.provider.Settings.SettingNotFoundException;
+import android.util.DisplayMetrics;
 import android.util.Log;
+import android.view.Display;
 import android.widget.Toast;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.lang.reflect.Field;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.List;
 import java.util.Locale;
 
 public class ScreenRecordingService extends Service {
     private static final String TAG = "GB:ScreenRecordingService";
 
     private static final int SCREENRECORD_NOTIFICATION_ID = 3;
-    private static final int MSG_TASK_ENDED = 1;
-    private static final int MSG_TASK_ERROR = 2;
-    private static final String TMP_PATH = Environment.getExternalStorageDirectory() + "/__tmp_screenrecord.mp4";
+    private static final String PERM_CAPTURE_VIDEO_OUTPUT = "android.permission.CAPTURE_VIDEO_OUTPUT";
+    private static final String OUTPUT_DIR = Environment.DIRECTORY_PICTURES + "/Screenrecord";
 
     public static final String ACTION_SCREEN_RECORDING_START = "gravitybox.intent.action.SCREEN_RECORDING_START";
     public static final String ACTION_SCREEN_RECORDING_STOP = "gravitybox.intent.action.SCREEN_RECORDING_STOP";
@@ -85,119 +82,49 @@ public class ScreenRecordingService extends Service {
     public static final int STATUS_PROCESSING = 2;
     public static final int STATUS_ERROR = -1;
 
-    private Handler mHandler;
     private Notification mRecordingNotif;
     private int mRecordingStatus;
     private int mShowTouchesDefault = 0;
     private SharedPreferences mPrefs;
-    private boolean mUseStockBinary;
 
-    private CaptureThread mCaptureThread;
-
-    private class CaptureThread extends Thread {
-        public void run() {
-            try {
-                // Firstly, make sure we are able to get to pid field of ProcessImpl class
-                final Class<?> classProcImpl = Class.forName("java.lang.UNIXProcess");
-                final Field fieldPid = classProcImpl.getDeclaredField("pid");
-                fieldPid.setAccessible(true);
-
-                // choose screenrecord binary and prepare command
-                List<String> command = new ArrayList<>();
-                command.add(getBinaryPath());
-//                if (!mUseStockBinary && 
-//                        mPrefs.getBoolean(GravityBoxSettings.PREF_KEY_SCREENRECORD_MICROPHONE, true)) {
-//                    command.add("--microphone");
-//                }
-                String prefVal = mPrefs.getString(GravityBoxSettings.PREF_KEY_SCREENRECORD_SIZE, "default");
-                if (!prefVal.equals("default")) {
-                    command.add("--size"); command.add(prefVal);
-                }
-                prefVal = String.valueOf(mPrefs.getInt(GravityBoxSettings.PREF_KEY_SCREENRECORD_BITRATE, 4)*1000000);
-                command.add("--bit-rate"); command.add(prefVal);
-                if (!mUseStockBinary) {
-                    prefVal = String.valueOf(mPrefs.getInt(GravityBoxSettings.PREF_KEY_SCREENRECORD_TIMELIMIT, 3)*60);
-                    command.add("--time-limit"); command.add(prefVal);
-                }
-                if (mPrefs.getBoolean(GravityBoxSettings.PREF_KEY_SCREENRECORD_ROTATE, false)) {
-                    command.add("--rotate");
-                }
-
-                command.add(TMP_PATH);
-
-                // construct and start the process
-                ProcessBuilder pb = new ProcessBuilder();
-                pb.command(command);
-                pb.redirectErrorStream(true);
-                Process proc = pb.start();
-
-                // Get process PID to be used with native kill later
-                final int pid = fieldPid.getInt(proc);
-                Log.d(TAG, "Screenrecord PID = " + pid);
-
-                BufferedReader br = new BufferedReader(new InputStreamReader(proc.getInputStream()));
-
-                while (!isInterrupted()) {
-                    if (br.ready()) {
-                        Log.d(TAG, br.readLine());
-                    }
-
-                    try {
-                        int code = proc.exitValue();
-
-                        // If the recording is still running, we won't reach here,
-                        // but will land in the catch block below.
-                        Message msg = Message.obtain(mHandler, MSG_TASK_ENDED, code, 0, null);
-                        mHandler.sendMessage(msg);
-
-                        // No need to stop the process, so we can exit this method early
-                        return;
-                    } catch (IllegalThreadStateException ignore) {
-                        // ignored
-                    }
-                }
-
-                // Terminate the recording process
-                Runtime.getRuntime().exec(new String[]{ "kill", "-2", String.valueOf(pid) });
-            } catch (IOException | NoSuchFieldException | IllegalAccessException |
-                     IllegalArgumentException | ClassNotFoundException e) {
-                // Notify something went wrong
-                Message msg = Message.obtain(mHandler, MSG_TASK_ERROR, 0, 0, e.getMessage());
-                mHandler.sendMessage(msg);
-
-                // Log the error as well
-                Log.e(TAG, "Error while starting the screenrecord process", e);
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private ScreenRecorder mRecorder;
+    private ParcelFileDescriptor mRecorderOutput;
+    private Uri mRecorderOutputUri;
+    private String mRecorderOutputName;
+
+    private final ScreenRecorder.Listener mRecorderListener = new ScreenRecorder.Listener() {
+        @Override
+        public void onRecordingFinished() {
+            closeRecorderOutput();
+            if (isRecording()) {
+                // recorder stopped on its own (e.g. time limit reached)
+                updateStatus(STATUS_PROCESSING);
             }
+            finalizeRecording(true);
         }
-    }
+
+        @Override
+        public void onRecordingError(String message) {
+            closeRecorderOutput();
+            finalizeRecording(false);
+            updateStatus(STATUS_ERROR, message);
+            Toast.makeText(ScreenRecordingService.this,
+                    R.string.screenrecord_toast_error, Toast.LENGTH_SHORT).show();
+        }
+    };
 
     @Override
     public IBinder onBind(Intent intent) {
         return null;
     }
 
-    @SuppressLint("HandlerLeak")
     @Override
     public void onCreate() {
         super.onCreate();
 
         mPrefs = SettingsManager.getInstance(this).getMainPrefs();
 
-        mHandler = new Handler() {
-            public void handleMessage(Message msg) {
-                if (msg.what == MSG_TASK_ENDED) {
-                    // The screenrecord process stopped, act as if user
-                    // requested the record to stop.
-                    stopScreenrecord();
-                } else if (msg.what == MSG_TASK_ERROR) {
-                    mCaptureThread = null;
-                    updateStatus(STATUS_ERROR, (String) msg.obj);
-                    Toast.makeText(ScreenRecordingService.this, 
-                            R.string.screenrecord_toast_error, Toast.LENGTH_SHORT).show();
-                }
-            }
-        };
-
         mRecordingStatus = STATUS_IDLE;
 
         Notification.Builder builder = new Notification.Builder(this,
@@ -308,26 +235,83 @@ public class ScreenRecordingService extends Service {
     }
 
     private boolean isScreenrecordSupported() {
-        // Exynos devices are currently known to have issues
-        if (Utils.isExynosDevice()) {
-            Log.e(TAG, "isScreenrecordSupported: screen recording not supported on Exynos devices");
+        // mirroring default display requires CAPTURE_VIDEO_OUTPUT granted by PermissionGranter
+        final boolean permissionOk = checkSelfPermission(PERM_CAPTURE_VIDEO_OUTPUT) ==
+                PackageManager.PERMISSION_GRANTED;
+        if (!permissionOk) {
+            Log.e(TAG, "isScreenrecordSupported: CAPTURE_VIDEO_OUTPUT permission not granted");
         }
-        // check if screenrecord and kill binaries exist and are executable
-        File f = new File(getBinaryPath());
-        final boolean scrBinaryOk = f.exists() && f.canExecute();
-        if (!scrBinaryOk) {
-            Log.e(TAG, "isScreenrecordSupported: screenrecord binary doesn't exist or is not executable");
+        return permissionOk;
+    }
+
+    private ScreenRecorder.Config createRecorderConfig() {
+        DisplayManager dm = (DisplayManager) getSystemService(DISPLAY_SERVICE);
+        DisplayMetrics dispMetrics = new DisplayMetrics();
+        dm.getDisplay(Display.DEFAULT_DISPLAY).getRealMetrics(dispMetrics);
+
+        ScreenRecorder.Config config = new ScreenRecorder.Config();
+        config.width = dispMetrics.widthPixels;
+        config.height = dispMetrics.heightPixels;
+        config.densityDpi = dispMetrics.densityDpi;
+        String prefVal = mPrefs.getString(GravityBoxSettings.PREF_KEY_SCREENRECORD_SIZE, "default");
+        if (!prefVal.equals("default")) {
+            try {
+                String[] size = prefVal.split("x");
+                config.width = Integer.parseInt(size[0]);
+                config.height = Integer.parseInt(size[1]);
+                config.fixedSize = true;
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Invalid screen recording size: " + prefVal);
+            }
         }
-        f = new File("/system/bin/kill");
-        final boolean killBinaryOk = f.exists() && f.canExecute();
-        if (!killBinaryOk) {
-            Log.e(TAG, "isScreenrecordSupported: kill binary doesn't exist or is not executable");
+        // encoders require even dimensions
+        config.width &= ~1;
+        config.height &= ~1;
+        config.bitRate = mPrefs.getInt(GravityBoxSettings.PREF_KEY_SCREENRECORD_BITRATE, 4)*1000000;
+        config.timeLimitMs = mPrefs.getInt(GravityBoxSettings.PREF_KEY_SCREENRECORD_TIMELIMIT, 3)*60*1000L;
+        config.frameRate = Math.round(dm.getDisplay(Display.DEFAULT_DISPLAY).getRefreshRate());
+        config.rotate = mPrefs.getBoolean(GravityBoxSettings.PREF_KEY_SCREENRECORD_ROTATE, false);
+        return config;
+    }
+
+    /**
+     * Recording is muxed straight into its final pending MediaStore entry
+     * so there's nothing to copy once it's finished
+     */
+    private void openRecorderOutput() throws IOException {
+        mRecorderOutputName = "SCR_" + new SimpleDateFormat("yyyyMMdd_HHmmss",
+                Locale.US).format(new Date()) + ".mp4";
+
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.Video.Media.DISPLAY_NAME, mRecorderOutputName);
+        values.put(MediaStore.Video.Media.MIME_TYPE, "video/mp4");
+        values.put(MediaStore.Video.Media.RELATIVE_PATH, OUTPUT_DIR);
+        values.put(MediaStore.Video.Media.IS_PENDING, 1);
+
+        ContentResolver resolver = getContentResolver();
+        Uri collection = MediaStore.Video.Media.getContentUri(MediaStore.VOLUME_EXTERNAL_PRIMARY);
+        mRecorderOutputUri = resolver.insert(collection, values);
+        if (mRecorderOutputUri == null) {
+            throw new IOException("Unable to create MediaStore entry for " + mRecorderOutputName);
+        }
+        // muxer needs to seek back to write header thus read-write mode
+        mRecorderOutput = resolver.openFileDescriptor(mRecorderOutputUri, "rw");
+        if (mRecorderOutput == null) {
+            throw new IOException("Unable to open " + mRecorderOutputUri);
+        }
+    }
+
+    private void closeRecorderOutput() {
+        mRecorder = null;
+        if (mRecorderOutput != null) {
+            try {
+                mRecorderOutput.close();
+            } catch (IOException ignore) { }
+            mRecorderOutput = null;
         }
-        return (!Utils.isExynosDevice() && scrBinaryOk && killBinaryOk);
     }
 
     private void startScreenrecord() {
-        mUseStockBinary = true; //mPrefs.getBoolean(GravityBoxSettings.PREF_KEY_SCREENRECORD_USE_STOCK, true);
         if (!isScreenrecordSupported()) {
             Log.e(TAG, "startScreenrecord: System does not support screen recording");
             Toast.makeText(this, "Your system does not support screen recording", Toast.LENGTH_SHORT).show();
@@ -352,8 +336,30 @@ public class ScreenRecordingService extends Service {
         } catch (SettingNotFoundException e) {
             //
         }
-        mCaptureThread = new CaptureThread();
-        mCaptureThread.start();
+
+        try {
+            openRecorderOutput();
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "startScreenrecord: Unable to create output file", e);
+            closeRecorderOutput();
+            finalizeRecording(false);
+            updateStatus(STATUS_ERROR, e.getMessage());
+            Toast.makeText(this, R.string.screenrecord_toast_error, Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        try {
+            mRecorder = new ScreenRecorder(this, createRecorderConfig(),
+                    mRecorderOutput.getFileDescriptor(), mRecorderListener);
+            mRecorder.start();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "startScreenrecord: Unable to start recorder", e);
+            closeRecorderOutput();
+            finalizeRecording(false);
+            updateStatus(STATUS_ERROR, e.getMessage());
+            Toast.makeText(this, R.string.screenrecord_toast_error, Toast.LENGTH_SHORT).show();
+            return;
+        }
         updateStatus(STATUS_RECORDING);
     }
 
@@ -365,85 +371,56 @@ public class ScreenRecordingService extends Service {
 
         updateStatus(STATUS_PROCESSING);
 
-        try {
-            mCaptureThread.interrupt();
-        } catch (Exception e) { /* ignore */ }
-
-        // Wait a bit for capture thread to finish
-        while (mCaptureThread.isAlive()) {
-            // wait...
+        // output is finalized as soon as recorder reports it's done
+        if (mRecorder != null) {
+            mRecorder.stop();
         }
+    }
 
-        // Give a second to screenrecord to process the file
-        mHandler.postDelayed(() -> {
-            mCaptureThread = null;
-
-            String fileName = "SCR_" + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date()) + ".mp4";
-
-            File picturesDir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES);
-            if (!picturesDir.exists()) {
-                if (!picturesDir.mkdir()) {
-                    Log.e(TAG, "Cannot create Pictures directory");
-                    return;
-                }
-            }
-
-            File screenrecord = new File(picturesDir, "Screenrecord");
-            if (!screenrecord.exists()) {
-                if (!screenrecord.mkdir()) {
-                    Log.e(TAG, "Cannot create Screenrecord directory");
-                    return;
-                }
+    /**
+     * Publishes pending MediaStore entry or drops it when recording failed.
+     * Resolver calls are done off the main thread.
+     */
+    private void finalizeRecording(final boolean success) {
+        final Uri uri = mRecorderOutputUri;
+        final String path = OUTPUT_DIR + "/" + mRecorderOutputName;
+        mRecorderOutputUri = null;
+        if (uri == null) {
+            if (success) {
+                updateStatus(STATUS_IDLE);
             }
+            return;
+        }
 
-            File input = new File(TMP_PATH);
-            final File output = new File(screenrecord, fileName);
-
-            Log.d(TAG, "Copying file to " + output.getAbsolutePath());
-
+        AsyncTask.execute(() -> {
+            boolean published = false;
             try {
-                copyFileUsingStream(input, output);
-                input.delete();
-                Toast.makeText(ScreenRecordingService.this,
-                        String.format(getString(R.string.screenrecord_toast_saved),
-                                output.getPath()), Toast.LENGTH_SHORT).show();
-            } catch (IOException e) {
-                Log.e(TAG, "Unable to copy output file", e);
-                Toast.makeText(ScreenRecordingService.this,
-                        R.string.screenrecord_toast_save_error, Toast.LENGTH_SHORT).show();
-            }
-
-            // Make it appear in gallery, run MediaScanner
-            MediaScannerConnection.scanFile(ScreenRecordingService.this,
-                new String[] { output.getAbsolutePath() }, null,
-                    (path, uri) -> Log.i(TAG, "MediaScanner done scanning " + path));
-
-            updateStatus(STATUS_IDLE);
-        }, 3000);
-    }
-
-    private String getBinaryPath() {
-        return (mUseStockBinary ? "/system/bin/screenrecord" : Utils.getFilesDir(this) + "/screenrecord");
-    }
-
-    private static void copyFileUsingStream(File source, File dest) throws IOException {
-        InputStream is = null;
-        OutputStream os = null;
-        try {
-            is = new FileInputStream(source);
-            os = new FileOutputStream(dest);
-            byte[] buffer = new byte[1024];
-            int length;
-            while ((length = is.read(buffer)) > 0) {
-                os.write(buffer, 0, length);
-            }
-        } finally {
-            if (is != null) {
-                is.close();
-            }
-            if (os != null) {
-                os.close();
+                ContentResolver resolver = getContentResolver();
+                if (success) {
+                    ContentValues values = new ContentValues();
+                    values.put(MediaStore.Video.Media.IS_PENDING, 0);
+                    published = (resolver.update(uri, values, null, null) > 0);
+                } else {
+                    resolver.delete(uri, null, null);
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Unable to finalize output file", e);
             }
-        }
+            if (!success) return;
+
+            final boolean ok = published;
+            mHandler.post(() -> {
+                if (ok) {
+                    Log.d(TAG, "Recording saved to " + path);
+                    Toast.makeText(ScreenRecordingService.this,
+                            String.format(getString(R.string.screenrecord_toast_saved), path),
+                            Toast.LENGTH_SHORT).show();
+                } else {
+                    Toast.makeText(ScreenRecordingService.this,
+                            R.string.screenrecord_toast_save_error, Toast.LENGTH_SHORT).show();
+                }
+                updateStatus(STATUS_IDLE);
+            });
+        });
     }
 }
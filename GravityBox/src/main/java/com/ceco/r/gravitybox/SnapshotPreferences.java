@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2021 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.r.gravitybox;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Set;
+
+import de.robv.android.xposed.XSharedPreferences;
+
+/**
+ * XSharedPreferences backed by memory-mapped {@link PrefsSnapshot} written by
+ * {@link WorldReadablePrefs}. Falls back to XML parsing in case snapshot
+ * is missing or does not match current preferences file.
+ *
+ * XSharedPreferences constructor always starts loading XML on its own thread
+ * holding the object monitor and the API offers no way to skip it. While snapshot
+ * is valid, none of the methods here take that monitor so callers never wait
+ * for the XML load to finish.
+ */
+public class SnapshotPreferences extends XSharedPreferences {
+    private static final String TAG = "GB:SnapshotPreferences";
+    private static final boolean DEBUG = false;
+
+    private final File mSnapshotFile;
+    private volatile PrefsSnapshot mSnapshot;
+
+    public SnapshotPreferences(File prefFile) {
+        super(prefFile);
+        mSnapshotFile = PrefsSnapshot.getSnapshotFile(getFile());
+        loadSnapshot();
+    }
+
+    public SnapshotPreferences(String packageName, String prefFileName) {
+        super(packageName, prefFileName);
+        mSnapshotFile = PrefsSnapshot.getSnapshotFile(getFile());
+        loadSnapshot();
+    }
+
+    private boolean loadSnapshot() {
+        final long generation = getFile().lastModified();
+        PrefsSnapshot snapshot = mSnapshot;
+        if (snapshot != null && snapshot.getGeneration() == generation) {
+            return true;
+        }
+        snapshot = PrefsSnapshot.open(mSnapshotFile);
+        if (snapshot != null && snapshot.getGeneration() == generation) {
+            mSnapshot = snapshot;
+            if (DEBUG) GravityBox.log(TAG, "Snapshot mapped: " + mSnapshotFile +
+                    "; entries=" + snapshot.size());
+            return true;
+        }
+        mSnapshot = null;
+        return false;
+    }
+
+    @Override
+    public void reload() {
+        if (!loadSnapshot()) {
+            super.reload();
+        }
+    }
+
+    @Override
+    public boolean hasFileChanged() {
+        PrefsSnapshot snapshot = mSnapshot;
+        return (snapshot != null ?
+                snapshot.getGeneration() != getFile().lastModified() :
+                super.hasFileChanged());
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        PrefsSnapshot snapshot = mSnapshot;
+        return (snapshot != null ? snapshot.getAll() : super.getAll());
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        PrefsSnapshot snapshot = mSnapshot;
+        return (snapshot != null ? snapshot.getString(key, defValue) :
+                super.getString(key, defValue));
+    }
+
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        PrefsSnapshot snapshot = mSnapshot;
+        return (snapshot != null ? snapshot.getStringSet(key, defValues) :
+                super.getStringSet(key, defValues));
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        PrefsSnapshot snapshot = mSnapshot;
+        return (snapshot != null ? snapshot.getInt(key, defValue) :
+                super.getInt(key, defValue));
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        PrefsSnapshot snapshot = mSnapshot;
+        return (snapshot != null ? snapshot.getLong(key, defValue) :
+                super.getLong(key, defValue));
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        PrefsSnapshot snapshot = mSnapshot;
+        return (snapshot != null ? snapshot.getFloat(key, defValue) :
+                super.getFloat(key, defValue));
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        PrefsSnapshot snapshot = mSnapshot;
+        return (snapshot != null ? snapshot.getBoolean(key, defValue) :
+                super.getBoolean(key, defValue));
+    }
+
+    @Override
+    public boolean contains(String key) {
+        PrefsSnapshot snapshot = mSnapshot;
+        return (snapshot != null ? snapshot.contains(key) : super.contains(key));
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2021 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.r.gravitybox;
+
+import java.lang.reflect.Method;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.hardware.display.DisplayManager;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.Settings;
+import android.util.TypedValue;
+import android.view.Choreographer;
+import android.view.HapticFeedbackConstants;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewConfiguration;
+import de.robv.android.xposed.XposedBridge;
+import de.robv.android.xposed.XposedHelpers;
+
+/**
+ * Status bar brightness swipe gesture. Temporary brightness is applied at most once
+ * per frame and persistent setting is written only when gesture ends or after
+ * a short idle period.
+ */
+class StatusBarBrightnessController implements Choreographer.FrameCallback {
+    private static final String TAG = "GB:BrightnessController";
+    private static final boolean DEBUG = false;
+
+    private static final String CLASS_POWER_MANAGER = "android.os.PowerManager";
+    private static final float BRIGHTNESS_CONTROL_PADDING = 0.15f;
+    private static final int BRIGHTNESS_CONTROL_LONG_PRESS_TIMEOUT = 750; // ms
+    private static final int BRIGHTNESS_CONTROL_LINGER_THRESHOLD = 20;
+    private static final float BRIGHTNESS_ADJ_RESOLUTION = 100;
+    private static final int PERSIST_IDLE_DELAY = 500; // ms
+
+    private static void log(String message) {
+        XposedBridge.log(TAG + ": " + message);
+    }
+
+    private final Context mContext;
+    private final Object mStatusBar;
+    private final Handler mHandler;
+    private final DisplayManager mDisplayManager;
+    private int mMinBrightness;
+    private int mBrightnessOn = 255;
+    private int mPeekHeight;
+    private Method mSetTemporaryBrightness;
+    private Method mSetTemporaryAutoBrightnessAdj;
+    private boolean mAutomaticBrightness;
+
+    // gesture state
+    private int mStatusBarHeight;
+    private int mTouchSlop;
+    private float mScreenWidth;
+    private boolean mJustPeeked;
+    private boolean mBrightnessChanged;
+    private int mLinger;
+    private int mInitialTouchX;
+    private int mInitialTouchY;
+    private int mPendingX;
+    private boolean mFrameScheduled;
+
+    // last applied value waiting to be written to settings
+    private boolean mPersistPending;
+    private boolean mPersistAutomatic;
+    private float mPersistAdj;
+    private int mPersistBrightness;
+
+    StatusBarBrightnessController(Context context, Object statusBar) {
+        mContext = context;
+        mStatusBar = statusBar;
+        mHandler = new Handler(Looper.getMainLooper());
+        mDisplayManager = (DisplayManager) context.getSystemService(Context.DISPLAY_SERVICE);
+
+        try {
+            Class<?> powerManagerClass = XposedHelpers.findClass(CLASS_POWER_MANAGER,
+                    context.getClassLoader());
+            Resources res = context.getResources();
+            mMinBrightness = res.getInteger(res.getIdentifier(
+                    "config_screenBrightnessSettingMinimum", "integer", "android"));
+            mPeekHeight = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 84,
+                    res.getDisplayMetrics());
+            mBrightnessOn = XposedHelpers.getStaticIntField(powerManagerClass, "BRIGHTNESS_ON");
+        } catch (Throwable t) {
+            GravityBox.log(TAG, t);
+        }
+
+        try {
+            mSetTemporaryBrightness = XposedHelpers.findMethodBestMatch(
+                    DisplayManager.class, "setTemporaryBrightness", int.class);
+            mSetTemporaryAutoBrightnessAdj = XposedHelpers.findMethodBestMatch(
+                    DisplayManager.class, "setTemporaryAutoBrightnessAdjustment", float.class);
+        } catch (Throwable t) {
+            GravityBox.log(TAG, "Error resolving temporary brightness methods:", t);
+        }
+    }
+
+    void setAutomaticBrightness(boolean automatic) {
+        mAutomaticBrightness = automatic;
+    }
+
+    boolean isBrightnessChanged() {
+        return mBrightnessChanged;
+    }
+
+    boolean isJustPeeked() {
+        return mJustPeeked;
+    }
+
+    void resetBrightnessChanged() {
+        mBrightnessChanged = false;
+    }
+
+    private final Runnable mLongPressBrightnessChange = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                View sbView = ModStatusBar.getStatusBarView();
+                if (sbView != null) {
+                    sbView.performHapticFeedback(HapticFeedbackConstants.LONG_PRESS);
+                }
+                adjustBrightness(mInitialTouchX);
+                mLinger = BRIGHTNESS_CONTROL_LINGER_THRESHOLD + 1;
+            } catch (Throwable t) {
+                GravityBox.log(TAG, t);
+            }
+        }
+    };
+
+    private final Runnable mPersistRunnable = this::persistBrightness;
+
+    void onTouchEvent(MotionEvent event) {
+        try {
+            final int action = event.getAction();
+            final int x = (int) event.getRawX();
+            final int y = (int) event.getRawY();
+
+            if (action == MotionEvent.ACTION_DOWN) {
+                // values that don't change within gesture are read once per gesture
+                mStatusBarHeight = (int) XposedHelpers.callMethod(mStatusBar, "getStatusBarHeight");
+                if (y < mStatusBarHeight) {
+                    mLinger = 0;
+                    mInitialTouchX = x;
+                    mInitialTouchY = y;
+                    mJustPeeked = true;
+                    mScreenWidth = (float) mContext.getResources().getDisplayMetrics().widthPixels;
+                    mTouchSlop = ViewConfiguration.get(mContext).getScaledTouchSlop();
+                    mHandler.removeCallbacks(mLongPressBrightnessChange);
+                    mHandler.postDelayed(mLongPressBrightnessChange,
+                            BRIGHTNESS_CONTROL_LONG_PRESS_TIMEOUT);
+                }
+            } else if (action == MotionEvent.ACTION_MOVE) {
+                if (y < mStatusBarHeight && mJustPeeked) {
+                    if (mLinger > BRIGHTNESS_CONTROL_LINGER_THRESHOLD) {
+                        scheduleBrightnessAdjustment(x);
+                    } else {
+                        final int xDiff = Math.abs(x - mInitialTouchX);
+                        final int yDiff = Math.abs(y - mInitialTouchY);
+                        if (xDiff > yDiff) {
+                            mLinger++;
+                        }
+                        if (xDiff > mTouchSlop || yDiff > mTouchSlop) {
+                            mHandler.removeCallbacks(mLongPressBrightnessChange);
+                        }
+                    }
+                } else {
+                    if (y > mPeekHeight) {
+                        mJustPeeked = false;
+                    }
+                    mHandler.removeCallbacks(mLongPressBrightnessChange);
+                }
+            } else if (action == MotionEvent.ACTION_UP ||
+                        action == MotionEvent.ACTION_CANCEL) {
+                mHandler.removeCallbacks(mLongPressBrightnessChange);
+                if (mFrameScheduled) {
+                    Choreographer.getInstance().removeFrameCallback(this);
+                    mFrameScheduled = false;
+                    adjustBrightness(mPendingX);
+                }
+                mHandler.removeCallbacks(mPersistRunnable);
+                persistBrightness();
+            }
+        } catch (Throwable t) {
+            GravityBox.log(TAG, t);
+        }
+    }
+
+    private void scheduleBrightnessAdjustment(int x) {
+        mPendingX = x;
+        if (!mFrameScheduled) {
+            mFrameScheduled = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mFrameScheduled = false;
+        adjustBrightness(mPendingX);
+    }
+
+    private void adjustBrightness(int x) {
+        try {
+            mBrightnessChanged = true;
+            float raw = ((float) x) / mScreenWidth;
+
+            // Add a padding to the brightness control on both sides to
+            // make it easier to reach min/max brightness
+            float padded = Math.min(1.0f - BRIGHTNESS_CONTROL_PADDING,
+                    Math.max(BRIGHTNESS_CONTROL_PADDING, raw));
+            float value = (padded - BRIGHTNESS_CONTROL_PADDING) /
+                    (1 - (2.0f * BRIGHTNESS_CONTROL_PADDING));
+
+            if (mAutomaticBrightness) {
+                float adj = (value * 100) / (BRIGHTNESS_ADJ_RESOLUTION / 2f) - 1;
+                adj = Math.max(adj, -1);
+                adj = Math.min(adj, 1);
+                if (mPersistPending && mPersistAutomatic && mPersistAdj == adj) return;
+                mSetTemporaryAutoBrightnessAdj.invoke(mDisplayManager, adj);
+                mPersistAutomatic = true;
+                mPersistAdj = adj;
+            } else {
+                int newBrightness = mMinBrightness + Math.round(value *
+                        (mBrightnessOn - mMinBrightness));
+                newBrightness = Math.min(newBrightness, mBrightnessOn);
+                newBrightness = Math.max(newBrightness, mMinBrightness);
+                if (mPersistPending && !mPersistAutomatic &&
+                        mPersistBrightness == newBrightness) return;
+                mSetTemporaryBrightness.invoke(mDisplayManager, newBrightness);
+                mPersistAutomatic = false;
+                mPersistBrightness = newBrightness;
+            }
+            mPersistPending = true;
+            mHandler.removeCallbacks(mPersistRunnable);
+            mHandler.postDelayed(mPersistRunnable, PERSIST_IDLE_DELAY);
+        } catch (Throwable t) {
+            GravityBox.log(TAG, t);
+        }
+    }
+
+    private void persistBrightness() {
+        if (!mPersistPending) return;
+        mPersistPending = false;
+
+        final boolean automatic = mPersistAutomatic;
+        final float adj = mPersistAdj;
+        final int brightness = mPersistBrightness;
+        if (DEBUG) log("persistBrightness: automatic=" + automatic +
+                "; adj=" + adj + "; brightness=" + brightness);
+        AsyncTask.execute(() -> {
+            try {
+                if (automatic) {
+                    XposedHelpers.callStaticMethod(Settings.System.class, "putFloatForUser",
+                            mContext.getContentResolver(), "screen_auto_brightness_adj", adj, -2);
+                } else {
+                    XposedHelpers.callStaticMethod(Settings.System.class, "putIntForUser",
+                            mContext.getContentResolver(), Settings.System.SCREEN_BRIGHTNESS,
+                            brightness, -2);
+                }
+            } catch (Throwable t) {
+                GravityBox.log(TAG, t);
+            }
+        });
+    }
+}
@@ -24,9 +24,6 @@ import android.os.SystemClock;
 import android.util.TypedValue;
 import android.view.View;
 
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
-
 import de.robv.android.xposed.XSharedPreferences;
 
 public class TrafficMeter extends TrafficMeterAbstract {
@@ -41,13 +38,13 @@ public class TrafficMeter extends TrafficMeterAbstract {
     long mTrafficBurstStartTime;
     long mTrafficBurstStartBytes;
     long mKeepOnUntil = Long.MIN_VALUE;
+    final long[] mRxTxBytes = new long[2];
     String mB = "B";
     String mKB = "KB";
     String mMB = "MB";
     String mS = "s";
 
-    NumberFormat mDecimalFormat = new DecimalFormat("##0.0");
-    NumberFormat mIntegerFormat = NumberFormat.getIntegerInstance();
+    final TrafficTextFormatter mFormatter = new TrafficTextFormatter();
 
     public TrafficMeter(Context context) {
         super(context);
@@ -85,7 +82,8 @@ public class TrafficMeter extends TrafficMeterAbstract {
 
     @Override
     protected void startTrafficUpdates() {
-        mTotalRxBytes = getTotalRxTxBytes()[0];
+        getTotalRxTxBytes(mRxTxBytes);
+        mTotalRxBytes = mRxTxBytes[0];
         mLastUpdateTime = SystemClock.elapsedRealtime();
         mTrafficBurstStartTime = Long.MIN_VALUE;
 
@@ -101,28 +99,35 @@ public class TrafficMeter extends TrafficMeterAbstract {
         }
     }
 
-    private String formatTraffic(long bytes, boolean speed) {
+    private void formatTraffic(long bytes, boolean speed) {
+        mFormatter.begin();
+        if (!speed) {
+            mFormatter.append('(');
+        }
+        final String unit;
         if (bytes > 10485760) { // 1024 * 1024 * 10
-            return (speed ? "" : "(")
-                    + mIntegerFormat.format(bytes / 1048576)
-                    + (speed ? mMB + "/" + mS : mMB + ")");
+            mFormatter.appendInteger(bytes / 1048576, true);
+            unit = mMB;
         } else if (bytes > 1048576) { // 1024 * 1024
-            return (speed ? "" : "(")
-                    + mDecimalFormat.format(((float) bytes) / 1048576f)
-                    + (speed ? mMB + "/" + mS : mMB + ")");
+            mFormatter.appendDecimal(TrafficTextFormatter.toTenths(bytes, 1048576), true);
+            unit = mMB;
         } else if (bytes > 10240) { // 1024 * 10
-            return (speed ? "" : "(")
-                    + mIntegerFormat.format(bytes / 1024)
-                    + (speed ? mKB + "/" + mS : mKB + ")");
+            mFormatter.appendInteger(bytes / 1024, true);
+            unit = mKB;
         } else if (bytes > 1024) { // 1024
-            return (speed ? "" : "(")
-                    + mDecimalFormat.format(((float) bytes) / 1024f)
-                    + (speed ? mKB + "/" + mS : mKB + ")");
+            mFormatter.appendDecimal(TrafficTextFormatter.toTenths(bytes, 1024), true);
+            unit = mKB;
+        } else {
+            mFormatter.appendInteger(bytes, true);
+            unit = mB;
+        }
+        mFormatter.append(unit);
+        if (speed) {
+            mFormatter.append('/').append(mS);
         } else {
-            return (speed ? "" : "(")
-                    + mIntegerFormat.format(bytes)
-                    + (speed ? mB + "/" + mS : mB + ")");
+            mFormatter.append(')');
         }
+        mFormatter.applyTo(this, false);
     }
 
     Runnable mRunnable = new Runnable() {
@@ -134,7 +139,8 @@ public class TrafficMeter extends TrafficMeterAbstract {
                 return;
             }
 
-            long currentRxBytes = getTotalRxTxBytes()[0];
+            getTotalRxTxBytes(mRxTxBytes);
+            long currentRxBytes = mRxTxBytes[0];
             long newBytes = currentRxBytes - mTotalRxBytes;
 
             boolean disconnected = false;
@@ -151,7 +157,7 @@ public class TrafficMeter extends TrafficMeterAbstract {
                             currentRxBytes - mTrafficBurstStartBytes;
 
                 if (trafficBurstBytes != 0 && mTrafficMeterSummaryTime != 0) {
-                    setText(formatTraffic(trafficBurstBytes, false));
+                    formatTraffic(trafficBurstBytes, false);
 
                     if (DEBUG) log("Traffic burst ended: " + trafficBurstBytes + "B in "
                                     + (SystemClock.elapsedRealtime() - mTrafficBurstStartTime)
@@ -166,7 +172,7 @@ public class TrafficMeter extends TrafficMeterAbstract {
                     mTrafficBurstStartBytes = mTotalRxBytes;
                 }
                 if (td > 0) {
-                    setText(formatTraffic(newBytes * 1000 / td, true));
+                    formatTraffic(newBytes * 1000 / td, true);
                 }
             }
 
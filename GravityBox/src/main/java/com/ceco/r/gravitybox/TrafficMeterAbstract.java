@@ -15,14 +15,13 @@
  */
 package com.ceco.r.gravitybox;
 
-import java.lang.reflect.Method;
-
 import com.ceco.r.gravitybox.ProgressBarController.Mode;
 import com.ceco.r.gravitybox.ProgressBarController.ProgressInfo;
 import com.ceco.r.gravitybox.managers.BroadcastMediator;
 import com.ceco.r.gravitybox.managers.SysUiStatusBarIconManager;
 import com.ceco.r.gravitybox.managers.SysUiStatusBarIconManager.ColorInfo;
 import com.ceco.r.gravitybox.managers.SysUiStatusBarIconManager.IconManagerListener;
+import com.ceco.r.gravitybox.managers.SysUiTrafficSampler;
 
 import android.annotation.SuppressLint;
 import android.content.BroadcastReceiver;
@@ -30,10 +29,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.net.ConnectivityManager;
-import android.net.LinkProperties;
-import android.net.Network;
-import android.net.NetworkCapabilities;
-import android.net.TrafficStats;
 import android.telephony.PhoneStateListener;
 import android.telephony.TelephonyManager;
 import android.util.TypedValue;
@@ -74,9 +69,7 @@ public abstract class TrafficMeterAbstract extends TextView
     protected boolean mAllowInLockscreen;
     private boolean mHiddenByPolicy;
     private boolean mHiddenByHeadsUp;
-    private Method mGetRxBytesMethod;
-    private Method mGetTxBytesMethod;
-    private final ConnectivityManager mConManager;
+    private final SysUiTrafficSampler mTrafficSampler;
 
     protected static void log(String message) {
         XposedBridge.log(TAG + ": " + message);
@@ -95,7 +88,7 @@ public abstract class TrafficMeterAbstract extends TextView
     protected TrafficMeterAbstract(Context context) {
         super(context);
 
-        mConManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        mTrafficSampler = SysUiTrafficSampler.getInstance(context);
 
         LinearLayout.LayoutParams lParams = new LinearLayout.LayoutParams(
                 LayoutParams.WRAP_CONTENT, LayoutParams.MATCH_PARENT);
@@ -180,6 +173,7 @@ public abstract class TrafficMeterAbstract extends TextView
             filter.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
             filter.addAction(ModDownloadProvider.ACTION_DOWNLOAD_STATE_CHANGED);
             getContext().registerReceiver(mIntentReceiver, filter, null, getHandler());
+            mTrafficSampler.addConsumer();
  
             if (mPhone != null) {
                 mPhone.listen(mPhoneStateListener, PhoneStateListener.LISTEN_DATA_CONNECTION_STATE);
@@ -196,6 +190,7 @@ public abstract class TrafficMeterAbstract extends TextView
             mAttached = false;
             if (DEBUG) log("detached from window");
             getContext().unregisterReceiver(mIntentReceiver);
+            mTrafficSampler.removeConsumer();
 
             if (mPhone != null) {
                 mPhone.listen(mPhoneStateListener, PhoneStateListener.LISTEN_NONE);
@@ -342,77 +337,11 @@ public abstract class TrafficMeterAbstract extends TextView
     protected abstract void startTrafficUpdates();
     protected abstract void stopTrafficUpdates();
 
-    @SuppressLint("DiscouragedPrivateApi")
-    protected boolean canUsePrimaryMethod() {
-        if (mGetRxBytesMethod == null) {
-            try {
-                mGetRxBytesMethod = TrafficStats.class.getDeclaredMethod("getRxBytes", String.class);
-                mGetRxBytesMethod.setAccessible(true);
-            } catch (Throwable t) {
-                if (DEBUG) log("canUsePrimaryMethod: error resolving getRxBytes method: " + t.getMessage());
-            }
-        }
-        if (mGetTxBytesMethod == null) {
-            try {
-                mGetTxBytesMethod = TrafficStats.class.getDeclaredMethod("getTxBytes", String.class);
-                mGetTxBytesMethod.setAccessible(true);
-            } catch (Throwable t) {
-                if (DEBUG) log("canUsePrimaryMethod: error resolving getTxBytes method: " + t.getMessage());
-            }
-        }
-        return (mGetRxBytesMethod != null && mGetTxBytesMethod != null);
-    }
-
-    protected long[] getTotalRxTxBytes() {
-        return (canUsePrimaryMethod() ? getTotalRxTxBytesPrimary() :
-                getTotalRxTxBytesSecondary());
-    }
-
-    private static boolean isCountedInterface(String iface) {
-        return (iface != null &&
-                !iface.equals("ifname") &&
-                !iface.equals("lo") &&
-                !iface.startsWith("tun"));
-    }
-
-    private static long tryParseLong(String obj) {
-        try {
-            return Long.parseLong(obj);
-        } catch (Exception e) {
-            return 0;
-        }
-    }
-
-    @SuppressLint("MissingPermission")
-    private long[] getTotalRxTxBytesPrimary() {
-        try {
-            long[] bytes = new long[] {0, 0};
-            Network[] networks = mConManager.getAllNetworks();
-            for (Network network : networks){
-                NetworkCapabilities nCap = mConManager.getNetworkCapabilities(network);
-                if (nCap == null) continue;
-                if (nCap.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET) &&
-                        nCap.hasCapability(NetworkCapabilities.NET_CAPABILITY_FOREGROUND) &&
-                        nCap.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_VPN)) {
-                    LinkProperties lp = mConManager.getLinkProperties(network);
-                    if (lp == null || lp.getInterfaceName() == null) continue;
-                    long bytesRx = (long) mGetRxBytesMethod.invoke(null, lp.getInterfaceName());
-                    long bytesTx = (long) mGetTxBytesMethod.invoke(null, lp.getInterfaceName());
-                    if (DEBUG) log("getTotalRxTxBytesPrimary: iface=" + lp.getInterfaceName() +
-                            "; bytesRx=" + bytesRx + "; bytesTx=" + bytesTx);
-                    bytes[0] += bytesRx;
-                    bytes[1] += bytesTx;
-                }
-            }
-            return bytes;
-        } catch (Throwable t) {
-            if (DEBUG) log("getTotalRxTxBytesPrimary: error: " + t.getMessage());
-            return getTotalRxTxBytesSecondary();
-        }
-    }
-
-    private static long[] getTotalRxTxBytesSecondary() {
-        return new long[] { TrafficStats.getTotalRxBytes(),
-                TrafficStats.getTotalTxBytes() };
+    /**
+     * Samples total rx and tx bytes into supplied array
+     * @param out - array receiving rx bytes at index 0 and tx bytes at index 1
+     */
+    protected void getTotalRxTxBytes(long[] out) {
+        mTrafficSampler.sample(out);
     }
 }
@@ -17,7 +17,6 @@
 
 package com.ceco.r.gravitybox;
 
-import java.text.DecimalFormat;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -40,12 +39,8 @@ import android.view.View;
 public class TrafficMeterOmni extends TrafficMeterAbstract {
     private static final int KILOBYTE = 1024;
 
-    private static DecimalFormat decimalFormat = new DecimalFormat("##0.#");
     private static final Map<String,String> SYMBOLS;
     static {
-        decimalFormat.setMaximumIntegerDigits(4);
-        decimalFormat.setMaximumFractionDigits(1);
-
         SYMBOLS = new HashMap<>();
         SYMBOLS.put("b/s", "b/s");
         SYMBOLS.put("B/s", "B/s");
@@ -56,7 +51,8 @@ public class TrafficMeterOmni extends TrafficMeterAbstract {
 
     private enum Mode { IN, OUT, IN_OUT }
 
-    private long[] totalRxTxBytes = new long[] { 0, 0 };
+    private final long[] totalRxTxBytes = new long[] { 0, 0 };
+    private final long[] newTotalRxTxBytes = new long[] { 0, 0 };
     private long lastUpdateTime;
     private int txtSizeSingle;
     private int txtSizeMulti;
@@ -68,6 +64,7 @@ public class TrafficMeterOmni extends TrafficMeterAbstract {
     private boolean mShowIcon;
     private boolean mAutoHide;
     private int mAutoHideThreshold;
+    private final TrafficTextFormatter mFormatter = new TrafficTextFormatter();
 
     @SuppressLint("HandlerLeak")
     private Handler mTrafficHandler = new Handler() {
@@ -88,7 +85,7 @@ public class TrafficMeterOmni extends TrafficMeterAbstract {
             lastUpdateTime = SystemClock.elapsedRealtime();
 
             // Calculate the data rate from the change in total bytes and time
-            long[] newTotalRxTxBytes = getTotalRxTxBytes();
+            getTotalRxTxBytes(newTotalRxTxBytes);
             long rxData = newTotalRxTxBytes[0] - totalRxTxBytes[0];
             long txData = newTotalRxTxBytes[1] - totalRxTxBytes[1];
 
@@ -107,15 +104,15 @@ public class TrafficMeterOmni extends TrafficMeterAbstract {
                 }
 
                 // Get information for uplink ready so the line return can be added
-                String output = "";
+                mFormatter.begin();
                 if (mMode == Mode.OUT || mMode == Mode.IN_OUT) {
-                    output = formatOutput(timeDelta, txData, symbol);
+                    formatOutput(timeDelta, txData, symbol);
                 }
     
                 // Ensure text size is where it needs to be
                 int textSize;
                 if (mMode == Mode.IN_OUT) {
-                    output += "\n";
+                    mFormatter.append('\n');
                     textSize = txtSizeMulti;
                 } else {
                     textSize = txtSizeSingle;
@@ -123,14 +120,12 @@ public class TrafficMeterOmni extends TrafficMeterAbstract {
     
                 // Add information for downlink if it's called for
                 if (mMode == Mode.IN || mMode == Mode.IN_OUT) {
-                    output += formatOutput(timeDelta, rxData, symbol);
+                    formatOutput(timeDelta, rxData, symbol);
                 }
     
                 // Update view if there's anything new to show
-                if (!output.contentEquals(getText()) || msg.what == 1) {
-                    setTextSize(TypedValue.COMPLEX_UNIT_PX, (float)textSize);
-                    setText(output);
-                }
+                setTextSize(TypedValue.COMPLEX_UNIT_PX, (float)textSize);
+                mFormatter.applyTo(TrafficMeterOmni.this, msg.what == 1);
                 setVisibility(View.VISIBLE);
             }
 
@@ -141,16 +136,21 @@ public class TrafficMeterOmni extends TrafficMeterAbstract {
             mTrafficHandler.postDelayed(mRunnable, mInterval);
         }
 
-        private String formatOutput(long timeDelta, long data, String symbol) {
+        private void formatOutput(long timeDelta, long data, String symbol) {
             long speed = (long)(data / (timeDelta / 1000F));
             if (speed < KB) {
-                return decimalFormat.format(speed) + symbol;
+                mFormatter.appendInteger(speed, false);
             } else if (speed < MB) {
-                return decimalFormat.format(speed / (float)KB) + SYMBOLS.get("k") + symbol;
+                mFormatter.appendDecimal(TrafficTextFormatter.toTenths(speed, KB), false)
+                        .append(SYMBOLS.get("k"));
             } else if (speed < GB) {
-                return decimalFormat.format(speed / (float)MB) + SYMBOLS.get("M") + symbol;
+                mFormatter.appendDecimal(TrafficTextFormatter.toTenths(speed, MB), false)
+                        .append(SYMBOLS.get("M"));
+            } else {
+                mFormatter.appendDecimal(TrafficTextFormatter.toTenths(speed, GB), false)
+                        .append(SYMBOLS.get("G"));
             }
-            return decimalFormat.format(speed / (float)GB) + SYMBOLS.get("G") + symbol;
+            mFormatter.append(symbol);
         }
 
         private boolean shouldHide(long rxData, long txData, long timeDelta) {
@@ -217,7 +217,7 @@ public class TrafficMeterOmni extends TrafficMeterAbstract {
 
     @Override
     protected void startTrafficUpdates() {
-        totalRxTxBytes = getTotalRxTxBytes();
+        getTotalRxTxBytes(totalRxTxBytes);
         lastUpdateTime = SystemClock.elapsedRealtime();
         mTrafficHandler.sendEmptyMessage(1);
         updateTrafficDrawable();
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2021 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.r.gravitybox;
+
+import java.text.DecimalFormatSymbols;
+
+import android.widget.TextView;
+
+/**
+ * Renders traffic meter text into reusable char buffers using fixed-point math
+ * and pushes it to TextView only when rendered characters differ from those shown.
+ */
+public class TrafficTextFormatter {
+    private static final int CAPACITY = 64;
+
+    private final char mDecimalSeparator;
+    private final char mGroupingSeparator;
+    private final char[] mDigits = new char[20];
+    private char[] mBuffer = new char[CAPACITY];
+    private int mLength;
+    private char[] mShown = new char[CAPACITY];
+    private int mShownLength = -1;
+    private CharSequence mShownText;
+
+    public TrafficTextFormatter() {
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance();
+        mDecimalSeparator = symbols.getDecimalSeparator();
+        mGroupingSeparator = symbols.getGroupingSeparator();
+    }
+
+    public TrafficTextFormatter begin() {
+        mLength = 0;
+        return this;
+    }
+
+    public TrafficTextFormatter append(char c) {
+        if (mLength < CAPACITY) {
+            mBuffer[mLength++] = c;
+        }
+        return this;
+    }
+
+    public TrafficTextFormatter append(String s) {
+        final int len = s.length();
+        for (int i = 0; i < len; i++) {
+            append(s.charAt(i));
+        }
+        return this;
+    }
+
+    /**
+     * Appends integer value
+     * @param grouping - whether to separate thousands with grouping separator
+     */
+    public TrafficTextFormatter appendInteger(long value, boolean grouping) {
+        if (value < 0) {
+            append('-');
+            value = -value;
+        }
+        int n = 0;
+        do {
+            if (grouping && n > 0 && n % 4 == 3) {
+                mDigits[n++] = mGroupingSeparator;
+            }
+            mDigits[n++] = (char) ('0' + (value % 10));
+            value /= 10;
+        } while (value > 0 && n < mDigits.length - 1);
+        while (n > 0) {
+            append(mDigits[--n]);
+        }
+        return this;
+    }
+
+    /**
+     * Appends value with single fraction digit
+     * @param tenths - value multiplied by 10
+     * @param forceFraction - whether to append fraction digit also when it's zero
+     */
+    public TrafficTextFormatter appendDecimal(long tenths, boolean forceFraction) {
+        appendInteger(tenths / 10, false);
+        final int fraction = (int) Math.abs(tenths % 10);
+        if (forceFraction || fraction != 0) {
+            append(mDecimalSeparator);
+            append((char) ('0' + fraction));
+        }
+        return this;
+    }
+
+    /**
+     * @return value / divisor multiplied by 10 and rounded
+     */
+    public static long toTenths(long value, long divisor) {
+        return (value * 10 + divisor / 2) / divisor;
+    }
+
+    public boolean isChanged() {
+        if (mLength != mShownLength) return true;
+        for (int i = 0; i < mLength; i++) {
+            if (mBuffer[i] != mShown[i]) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Sets rendered text to view unless it already shows the same characters
+     * @param force - set text even if not changed
+     * @return true if text was set
+     */
+    public boolean applyTo(TextView view, boolean force) {
+        if (!force && view.getText() == mShownText && !isChanged()) {
+            return false;
+        }
+        // view keeps reference to char array so swap buffers instead of copying
+        char[] shown = mBuffer;
+        mBuffer = mShown;
+        mShown = shown;
+        mShownLength = mLength;
+        view.setText(mShown, 0, mShownLength);
+        mShownText = view.getText();
+        return true;
+    }
+}
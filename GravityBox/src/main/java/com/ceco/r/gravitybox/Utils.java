@@ -21,7 +21,6 @@ import android.app.admin.DevicePolicyManager;
 import android.content.Context;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
-import android.content.res.AssetManager;
 import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.database.Cursor;
@@ -74,7 +73,6 @@ public class Utils {
     private static Boolean mIsXperiaDevice = null;
     private static Boolean mIsMotoXtDevice = null;
     private static Boolean mIsGpeDevice = null;
-    private static Boolean mIsExynosDevice = null;
     private static Boolean mIsSamsumgRom = null;
     private static Boolean mIsWifiOnly = null;
     private static String mDeviceCharacteristics = null;
@@ -215,13 +213,6 @@ public class Utils {
         return mIsGpeDevice;
     }
 
-    public static boolean isExynosDevice() {
-        if (mIsExynosDevice != null) return mIsExynosDevice;
-
-        mIsExynosDevice = Build.HARDWARE.toLowerCase(Locale.US).contains("smdk");
-        return mIsExynosDevice;
-    }
-
     public static boolean isSamsungRom() {
         if (mIsSamsumgRom != null) return mIsSamsumgRom;
 
@@ -501,25 +492,6 @@ public class Utils {
         } 
     } 
 
-    public static boolean writeAssetToFile(Context context, String assetName, File outFile) {
-        try {
-            AssetManager am = context.getAssets();
-            InputStream input = am.open(assetName);
-            FileOutputStream output = new FileOutputStream(outFile);
-            byte[] buffer = new byte[1024];
-            int len;
-            while ((len = input.read(buffer)) > 0){
-                output.write(buffer, 0, len);
-            }
-            input.close();
-            output.close();
-            return true;
-        } catch (Exception e) {
-            e.printStackTrace();
-            return false;
-        }
-    }
-
     public static void performSoftReboot() {
         try {
             Class<?> classSm = XposedHelpers.findClass("android.os.ServiceManager", null);
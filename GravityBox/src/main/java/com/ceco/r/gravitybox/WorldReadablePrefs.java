@@ -21,6 +21,7 @@ import java.util.Set;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.AsyncTask;
 import android.os.Handler;
 import android.util.Log;
 
@@ -54,6 +55,7 @@ public class WorldReadablePrefs implements SharedPreferences,
         mHandler = new Handler();
         maybePreCreateFile();
         fixPermissions(true);
+        maybeUpdateSnapshot();
     }
 
     @Override
@@ -143,6 +145,35 @@ public class WorldReadablePrefs implements SharedPreferences,
         }
     }
 
+    private File getPrefsFile() {
+        return new File(mPreferenceDir + "/" + mPrefsName + ".xml");
+    }
+
+    private void maybeUpdateSnapshot() {
+        File prefsFile = getPrefsFile();
+        PrefsSnapshot snapshot = PrefsSnapshot.open(PrefsSnapshot.getSnapshotFile(prefsFile));
+        if (snapshot == null || snapshot.getGeneration() != prefsFile.lastModified()) {
+            updateSnapshot();
+        }
+    }
+
+    // called from main thread on commit and from background after external writes
+    private synchronized void updateSnapshot() {
+        try {
+            File prefsFile = getPrefsFile();
+            if (prefsFile.exists()) {
+                // generation is read first so that a write racing with us leaves snapshot
+                // outdated (and thus ignored by readers) rather than marked as current
+                final long generation = prefsFile.lastModified();
+                PrefsSnapshot.write(PrefsSnapshot.getSnapshotFile(prefsFile),
+                        mPrefs.getAll(), generation);
+                if (DEBUG) Log.d("GravityBox", "Snapshot updated for " + mPrefsName);
+            }
+        } catch (Exception e) {
+            Log.e("GravityBox", "Error writing prefs snapshot " + mPrefsName + ": " + e.getMessage());
+        }
+    }
+
     @SuppressWarnings("ResultOfMethodCallIgnored")
     @SuppressLint("SetWorldReadable")
     private void fixPermissions(boolean force) {
@@ -181,6 +212,8 @@ public class WorldReadablePrefs implements SharedPreferences,
     public void onFileUpdated(String path) {
         if (path != null && path.endsWith(mPrefsName + ".xml")) {
             if (DEBUG) Log.d("GravityBox", "Prefs file updated for " + mPrefsName);
+            // covers writes bypassing EditorWrapper, e.g. preference screens
+            postUpdateSnapshot();
             if (mOnPreferencesCommitedListener != null) {
                 postOnPreferencesCommited();
             } else if (mOnSharedPreferenceChangeCommitedListener != null) {
@@ -189,6 +222,13 @@ public class WorldReadablePrefs implements SharedPreferences,
         }
     }
 
+    private void postUpdateSnapshot() {
+        mHandler.removeCallbacks(mUpdateSnapshotRunnable);
+        mHandler.postDelayed(mUpdateSnapshotRunnable, 100);
+    }
+
+    private Runnable mUpdateSnapshotRunnable = () -> AsyncTask.execute(this::maybeUpdateSnapshot);
+
     private void postOnPreferencesCommited() {
         mHandler.removeCallbacks(mPreferencesCommitedRunnable);
         mHandler.postDelayed(mPreferencesCommitedRunnable, 100);
@@ -288,7 +328,11 @@ public class WorldReadablePrefs implements SharedPreferences,
         public boolean commit(OnPreferencesCommitedListener listener) {
             if (DEBUG) Log.d("GravityBox", "Commit for " + mPrefsName);
             mOnPreferencesCommitedListener = listener;
-            return mEditor.commit();
+            final boolean result = mEditor.commit();
+            if (result) {
+                updateSnapshot();
+            }
+            return result;
         }
 
         @Override
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2021 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.r.gravitybox.ledcontrol;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Case-insensitive multi-keyword matcher (Aho-Corasick automaton).
+ * Compiled once from comma separated keyword list; matching scans text
+ * in a single pass without creating any intermediate strings.
+ */
+public final class KeywordMatcher {
+
+    private final char[] mAlphabet;
+    private final int[][] mDelta;
+    private final boolean[] mOutput;
+    private final boolean mMatchAny;
+
+    private KeywordMatcher(char[] alphabet, int[][] delta, boolean[] output, boolean matchAny) {
+        mAlphabet = alphabet;
+        mDelta = delta;
+        mOutput = output;
+        mMatchAny = matchAny;
+    }
+
+    private static char fold(char c) {
+        return Character.toLowerCase(c);
+    }
+
+    public static KeywordMatcher compile(String keywordList) {
+        String[] keywords = keywordList.trim().split(",");
+
+        // alphabet of folded keyword characters
+        StringBuilder sb = new StringBuilder();
+        boolean matchAny = false;
+        for (String kw : keywords) {
+            if (kw.isEmpty()) {
+                // empty keyword is contained in any text
+                matchAny = true;
+            }
+            for (int i = 0; i < kw.length(); i++) {
+                sb.append(fold(kw.charAt(i)));
+            }
+        }
+        char[] chars = sb.toString().toCharArray();
+        Arrays.sort(chars);
+        int n = 0;
+        for (int i = 0; i < chars.length; i++) {
+            if (n == 0 || chars[n - 1] != chars[i]) {
+                chars[n++] = chars[i];
+            }
+        }
+        final char[] alphabet = Arrays.copyOf(chars, n);
+
+        // trie
+        List<int[]> trie = new ArrayList<>();
+        List<Boolean> output = new ArrayList<>();
+        trie.add(newNode(alphabet.length));
+        output.add(false);
+        for (String kw : keywords) {
+            if (kw.isEmpty()) continue;
+            int state = 0;
+            for (int i = 0; i < kw.length(); i++) {
+                int sym = Arrays.binarySearch(alphabet, fold(kw.charAt(i)));
+                if (trie.get(state)[sym] < 0) {
+                    trie.get(state)[sym] = trie.size();
+                    trie.add(newNode(alphabet.length));
+                    output.add(false);
+                }
+                state = trie.get(state)[sym];
+            }
+            output.set(state, true);
+        }
+
+        // failure links folded into full transition table
+        final int[][] delta = trie.toArray(new int[0][]);
+        final boolean[] out = new boolean[delta.length];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = output.get(i);
+        }
+        final int[] fail = new int[delta.length];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int a = 0; a < alphabet.length; a++) {
+            if (delta[0][a] < 0) {
+                delta[0][a] = 0;
+            } else {
+                fail[delta[0][a]] = 0;
+                queue.add(delta[0][a]);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int u = queue.poll();
+            out[u] |= out[fail[u]];
+            for (int a = 0; a < alphabet.length; a++) {
+                int v = delta[u][a];
+                if (v < 0) {
+                    delta[u][a] = delta[fail[u]][a];
+                } else {
+                    fail[v] = delta[fail[u]][a];
+                    queue.add(v);
+                }
+            }
+        }
+
+        return new KeywordMatcher(alphabet, delta, out, matchAny);
+    }
+
+    private static int[] newNode(int size) {
+        int[] node = new int[size];
+        Arrays.fill(node, -1);
+        return node;
+    }
+
+    public boolean matches(CharSequence text) {
+        if (text == null) return false;
+        if (mMatchAny) return true;
+
+        int state = 0;
+        final int length = text.length();
+        for (int i = 0; i < length; i++) {
+            int sym = Arrays.binarySearch(mAlphabet, fold(text.charAt(i)));
+            state = (sym < 0 ? 0 : mDelta[state][sym]);
+            if (mOutput[state]) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -16,17 +16,15 @@
 package com.ceco.r.gravitybox.ledcontrol;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
+import com.ceco.r.gravitybox.AppCatalog;
 import com.ceco.r.gravitybox.R;
 import com.ceco.r.gravitybox.GravityBoxListActivity;
 import com.ceco.r.gravitybox.ledcontrol.LedListAdapter.ListItemActionHandler;
 
 import android.app.ProgressDialog;
 import android.content.Intent;
-import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageManager;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.view.Menu;
@@ -136,22 +134,30 @@ public class LedControlActivity extends GravityBoxListActivity implements ListIt
             @Override
             protected void onPreExecute() {
                 super.onPreExecute();
-                showProgressDialog();
+                // catalog is normally up to date so list is populated without noticeable delay
+                if (!AppCatalog.getInstance(LedControlActivity.this).isReady()) {
+                    showProgressDialog();
+                }
             }
 
             @Override
             protected ArrayList<LedListItem> doInBackground(Void... arg0) {
                 ArrayList<LedListItem> itemList = new ArrayList<>();
+                List<AppCatalog.App> apps = new ArrayList<>();
 
-                PackageManager pm = LedControlActivity.this.getPackageManager();
-                List<ApplicationInfo> packages = pm.getInstalledApplications(0);
-                Collections.sort(packages, new ApplicationInfo.DisplayNameComparator(pm));
-                for(ApplicationInfo ai : packages) {
+                AppCatalog catalog = AppCatalog.getInstance(LedControlActivity.this);
+                for (AppCatalog.App app : catalog.getApps()) {
                     if (isCancelled()) break;
-                    if (ai.packageName.equals(LedControlActivity.this.getPackageName())) continue;
-                    LedListItem item = new LedListItem(LedControlActivity.this, ai);
+                    if (app.packageName.equals(LedControlActivity.this.getPackageName())) continue;
+                    LedListItem item = new LedListItem(LedControlActivity.this, app);
                     if (mShowActiveOnly && !item.isEnabled()) continue;
                     itemList.add(item);
+                    apps.add(app);
+                }
+
+                // rows then only decode small cached icons
+                if (!isCancelled()) {
+                    catalog.cacheAppIcons(apps);
                 }
 
                 return itemList;
@@ -196,7 +202,7 @@ public class LedControlActivity extends GravityBoxListActivity implements ListIt
     private void openSettingsActivityFor(LedListItem item) {
         mCurrentItem = item;
         Intent intent = new Intent(this, LedSettingsActivity.class);
-        intent.putExtra(LedSettingsActivity.EXTRA_PACKAGE_NAME, mCurrentItem.getAppInfo().packageName);
+        intent.putExtra(LedSettingsActivity.EXTRA_PACKAGE_NAME, mCurrentItem.getPackageName());
         intent.putExtra(LedSettingsActivity.EXTRA_APP_NAME, mCurrentItem.getAppName());
         this.startActivityForResult(intent, REQ_SETTINGS);
     }
@@ -225,7 +231,7 @@ public class LedControlActivity extends GravityBoxListActivity implements ListIt
         super.onActivityResult(requestCode, resultCode, data);
 
         if (requestCode == REQ_SETTINGS && resultCode == RESULT_OK && mCurrentItem != null) {
-            if (mCurrentItem.getAppInfo().packageName.equals(
+            if (mCurrentItem.getPackageName().equals(
                     data.getStringExtra(LedSettingsActivity.EXTRA_PACKAGE_NAME))) {
                 mCurrentItem.refreshLedSettings();
                 mList.invalidateViews();
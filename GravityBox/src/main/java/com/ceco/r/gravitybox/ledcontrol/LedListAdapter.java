@@ -97,9 +97,9 @@ public class LedListAdapter extends ArrayAdapter<LedListItem>
         LedListItem item = mFilteredData.get(position);
         holder.appIconView.setImageDrawable(item.getAppIcon());
         holder.appNameView.setText(item.getAppName());
-        holder.pkgNameView.setText(item.getAppInfo().packageName);
+        holder.pkgNameView.setText(item.getPackageName());
         holder.pkgNameView.setVisibility(item.getAppName() != null &&
-                item.getAppName().equals(item.getAppInfo().packageName) ?
+                item.getAppName().equals(item.getPackageName()) ?
                         View.GONE : View.VISIBLE);
         holder.appDescView.setText(item.getAppDesc());
         holder.colorView.setColor(item.getLedSettings().getColor());
@@ -17,6 +17,7 @@ package com.ceco.r.gravitybox.ledcontrol;
 
 import java.util.Locale;
 
+import com.ceco.r.gravitybox.AppCatalog;
 import com.ceco.r.gravitybox.R;
 import com.ceco.r.gravitybox.adapters.IBaseListAdapterItem;
 import com.ceco.r.gravitybox.ledcontrol.LedSettings.ActiveScreenMode;
@@ -26,8 +27,8 @@ import com.ceco.r.gravitybox.ledcontrol.LedSettings.Visibility;
 import com.ceco.r.gravitybox.ledcontrol.LedSettings.VisibilityLs;
 
 import android.content.Context;
-import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.media.Ringtone;
 import android.media.RingtoneManager;
@@ -35,22 +36,20 @@ import android.media.RingtoneManager;
 public class LedListItem implements IBaseListAdapterItem {
 
     private Context mContext;
-    private ApplicationInfo mAppInfo;
+    private String mPackageName;
     private String mAppName;
     private Drawable mAppIcon;
     private LedSettings mLedSettings;
-    private PackageManager mPkgManager;
 
-    protected LedListItem(Context context, ApplicationInfo appInfo) {
+    protected LedListItem(Context context, AppCatalog.App app) {
         mContext = context;
-        mAppInfo = appInfo;
-        mPkgManager = mContext.getPackageManager();
-        mAppName = (String) mAppInfo.loadLabel(mPkgManager);
-        mLedSettings = LedSettings.deserialize(mContext, appInfo.packageName);
+        mPackageName = app.packageName;
+        mAppName = app.label;
+        mLedSettings = LedSettings.deserialize(mContext, mPackageName);
     }
 
-    protected ApplicationInfo getAppInfo() {
-        return mAppInfo;
+    protected String getPackageName() {
+        return mPackageName;
     }
 
     protected String getAppName() {
@@ -182,7 +181,10 @@ public class LedListItem implements IBaseListAdapterItem {
     protected Drawable getAppIcon() {
         if (mAppIcon == null) {
             try {
-                mAppIcon = mAppInfo.loadIcon(mPkgManager);
+                Bitmap icon = AppCatalog.getInstance(mContext).loadIcon(mPackageName, null);
+                if (icon != null) {
+                    mAppIcon = new BitmapDrawable(mContext.getResources(), icon);
+                }
             } catch (Throwable t) {
                 t.printStackTrace(); 
                 System.gc(); 
@@ -197,7 +199,7 @@ public class LedListItem implements IBaseListAdapterItem {
     }
 
     protected void refreshLedSettings() {
-        mLedSettings = LedSettings.deserialize(mContext, mAppInfo.packageName);
+        mLedSettings = LedSettings.deserialize(mContext, mPackageName);
     }
 
     protected boolean isEnabled() {
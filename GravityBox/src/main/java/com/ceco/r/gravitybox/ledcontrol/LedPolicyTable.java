@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2021 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.r.gravitybox.ledcontrol;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable snapshot of all per-package UNC settings, compiled once from
+ * ledcontrol preferences. Lookups on notification path neither parse nor allocate.
+ * Updates produce a new table which is meant to be swapped in atomically.
+ */
+public final class LedPolicyTable {
+
+    public interface LightFactory {
+        Object createLight(int color, int onMs, int offMs);
+    }
+
+    public static final class Policy {
+        public final LedSettings settings;
+        public final Object light;
+
+        private Policy(LedSettings settings, LightFactory lightFactory) {
+            this.settings = settings;
+            this.light = (lightFactory != null && settings.getEnabled() &&
+                    settings.getLedMode() == LedSettings.LedMode.OVERRIDE) ?
+                    lightFactory.createLight(settings.getColor(),
+                            settings.getLedOffMs(), settings.getLedOffMs()) : null;
+            // compile quiet hours ignore list in advance
+            settings.getQhIgnoreMatcher();
+        }
+    }
+
+    private static final String PKG_DEFAULT = "default";
+
+    private final Map<String, Policy> mPolicies;
+    private final Policy mDefault;
+    private final Policy mDisabled;
+    private final LightFactory mLightFactory;
+
+    private LedPolicyTable(Map<String, Policy> policies, LightFactory lightFactory) {
+        mPolicies = policies;
+        mLightFactory = lightFactory;
+        mDisabled = new Policy(LedSettings.deserialize((Set<String>) null), null);
+        Policy def = policies.get(PKG_DEFAULT);
+        mDefault = (def != null ? def : mDisabled);
+    }
+
+    public static LedPolicyTable build(Map<String, ?> prefs, LightFactory lightFactory) {
+        Map<String, Policy> policies = new HashMap<>();
+        if (prefs != null) {
+            for (Map.Entry<String, ?> entry : prefs.entrySet()) {
+                if (!(entry.getValue() instanceof Set)) continue;
+                @SuppressWarnings("unchecked")
+                Set<String> dataSet = (Set<String>) entry.getValue();
+                String pkgName = entry.getKey().intern();
+                LedSettings ls = LedSettings.deserialize(dataSet);
+                ls.setPackageName(pkgName);
+                policies.put(pkgName, new Policy(ls, lightFactory));
+            }
+        }
+        return new LedPolicyTable(policies, lightFactory);
+    }
+
+    public static LedPolicyTable empty() {
+        return new LedPolicyTable(new HashMap<>(), null);
+    }
+
+    /**
+     * Returns a copy of this table with settings of a single package replaced.
+     */
+    public LedPolicyTable withPackage(String pkgName, ArrayList<String> dataList) {
+        pkgName = pkgName.intern();
+        LedSettings ls = LedSettings.deserialize(new HashSet<>(dataList));
+        ls.setPackageName(pkgName);
+        Map<String, Policy> policies = new HashMap<>(mPolicies);
+        policies.put(pkgName, new Policy(ls, mLightFactory));
+        return new LedPolicyTable(policies, mLightFactory);
+    }
+
+    /**
+     * Returns policy of a package, falling back to default policy
+     * in case package has no settings or its settings are disabled.
+     */
+    public Policy resolve(String pkgName) {
+        Policy p = mPolicies.get(pkgName);
+        return (p != null && p.settings.getEnabled() ? p : mDefault);
+    }
+
+    public Policy get(String pkgName) {
+        Policy p = mPolicies.get(pkgName);
+        return (p != null ? p : mDisabled);
+    }
+
+    public int size() {
+        return mPolicies.size();
+    }
+}
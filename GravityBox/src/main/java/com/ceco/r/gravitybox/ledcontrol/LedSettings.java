@@ -82,6 +82,7 @@ public class LedSettings {
     private LedMode mLedMode;
     private boolean mQhIgnore;
     private String mQhIgnoreList;
+    private volatile KeywordMatcher mQhIgnoreMatcher;
     private boolean mQhIgnoreInteractive;
     private HeadsUpMode mHeadsUpMode;
     private boolean mHeadsUpDnd;
@@ -424,6 +425,7 @@ public class LedSettings {
 
     protected void setQhIgnoreList(String ignoreList) {
         mQhIgnoreList = ignoreList;
+        mQhIgnoreMatcher = null;
     }
 
     protected void setQhIgnoreInteractive (boolean ignore) {
@@ -578,6 +580,18 @@ public class LedSettings {
         return mQhIgnoreList;
     }
 
+    public KeywordMatcher getQhIgnoreMatcher() {
+        if (mQhIgnoreList == null || mQhIgnoreList.trim().isEmpty()) {
+            return null;
+        }
+        KeywordMatcher matcher = mQhIgnoreMatcher;
+        if (matcher == null) {
+            matcher = KeywordMatcher.compile(mQhIgnoreList);
+            mQhIgnoreMatcher = matcher;
+        }
+        return matcher;
+    }
+
     public boolean getQhIgnoreInteractive() {
         return mQhIgnoreInteractive;
     }
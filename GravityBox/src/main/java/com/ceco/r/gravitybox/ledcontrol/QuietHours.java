@@ -19,13 +19,10 @@ import java.util.Arrays;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 import java.util.HashSet;
-import java.util.List;
-import java.util.Locale;
 import java.util.Set;
 import java.util.UUID;
 
 import com.ceco.r.gravitybox.ModLedControl;
-import com.ceco.r.gravitybox.Utils;
 
 import android.app.Notification;
 import android.content.SharedPreferences;
@@ -144,9 +141,26 @@ public class QuietHours {
         }
     }
 
-    private static final List<String> NOTIF_TEXT_FIELDS = new ArrayList<>(Arrays.asList(
+    private static final class ActiveRangeCache {
+        final Range range;
+        final long validFrom;
+        final long validUntil;
+
+        ActiveRangeCache(Range range, long validFrom, long validUntil) {
+            this.range = range;
+            this.validFrom = validFrom;
+            this.validUntil = validUntil;
+        }
+    }
+
+    private static final int MINUTES_PER_DAY = 1440;
+    private static final int MINUTES_PER_WEEK = 7 * MINUTES_PER_DAY;
+    // upper bound of active range cache validity to account for time zone or DST changes
+    private static final long MAX_CACHE_VALIDITY_MS = 3600000;
+
+    private static final String[] NOTIF_TEXT_FIELDS = new String[] {
             "android.title","android.text","android.subText","android.infoText",
-            "android.summaryText","android.bigText"));
+            "android.summaryText","android.bigText" };
 
     public boolean uncLocked;
     public boolean enabled;
@@ -159,6 +173,10 @@ public class QuietHours {
     private boolean muteSystemVibe;
     private Set<String> ringerWhitelist;
     private Set<Range> ranges;
+    private Range[] rangeTable;
+    // minute of week -> index into rangeTable + 1; 0 means no active range
+    private byte[] weekMinuteMap;
+    private volatile ActiveRangeCache activeRangeCache;
 
     public QuietHours(Bundle prefs) {
         uncLocked = prefs.getBoolean(QuietHoursActivity.EXTRA_QH_LOCKED);
@@ -177,6 +195,7 @@ public class QuietHours {
                 ranges.add(Range.parse(new HashSet<>(prefs.getStringArrayList(key))));
             }
         }
+        compileRanges();
     }
 
     public QuietHours(SharedPreferences prefs) {
@@ -198,6 +217,37 @@ public class QuietHours {
                 ranges.add(Range.parse(new HashSet<>(prefs.getStringSet(key, null))));
             }
         }
+        compileRanges();
+    }
+
+    private void compileRanges() {
+        rangeTable = ranges.toArray(new Range[0]);
+        weekMinuteMap = new byte[MINUTES_PER_WEEK];
+        final int count = Math.min(rangeTable.length, Byte.MAX_VALUE);
+        for (int i = 0; i < count; i++) {
+            final Range range = rangeTable[i];
+            if (range.startTime == range.endTime) continue;
+            for (int day = 1; day <= 7; day++) {
+                if (!range.days.contains(String.valueOf(day))) continue;
+                final int dayStart = (day - 1) * MINUTES_PER_DAY;
+                if (range.endsNextDay()) {
+                    markWeekMinutes(dayStart + range.startTime, dayStart + MINUTES_PER_DAY, i);
+                    final int nextDayStart = (day % 7) * MINUTES_PER_DAY;
+                    markWeekMinutes(nextDayStart, nextDayStart + range.endTime, i);
+                } else {
+                    markWeekMinutes(dayStart + range.startTime, dayStart + range.endTime, i);
+                }
+            }
+        }
+    }
+
+    private void markWeekMinutes(int from, int to, int rangeIndex) {
+        for (int m = Math.max(from, 0); m < to && m < MINUTES_PER_WEEK; m++) {
+            // first matching range wins
+            if (weekMinuteMap[m] == 0) {
+                weekMinuteMap[m] = (byte) (rangeIndex + 1);
+            }
+        }
     }
 
     public boolean quietHoursActive(LedSettings ls, Notification n, boolean userPresent) {
@@ -209,20 +259,16 @@ public class QuietHours {
 
         if (ls.getEnabled() && ls.getQhIgnore()) {
             boolean defaultIgnoreResult = (interactive && userPresent) && !ls.getQhIgnoreInteractive();
-            if (ls.getQhIgnoreList() == null || ls.getQhIgnoreList().trim().isEmpty()) {
+            final KeywordMatcher matcher = ls.getQhIgnoreMatcher();
+            if (matcher == null) {
                 if (ModLedControl.DEBUG) ModLedControl.log("QH ignored for all notifications");
                 return defaultIgnoreResult;
             } else {
-                List<CharSequence> notifTexts = getNotificationTexts(n);
-                String[] keywords = ls.getQhIgnoreList().trim().split(",");
-                boolean ignore = false;
-                for (String kw : keywords) {
-                    kw = kw.toLowerCase(Locale.getDefault());
-                    ignore |= n.tickerText != null && n.tickerText.toString()
-                            .toLowerCase(Locale.getDefault()).contains(kw);
-                    for (CharSequence notifText : notifTexts) {
-                        ignore |= notifText.toString().toLowerCase(Locale.getDefault()).contains(kw);
-                    }
+                boolean ignore = matcher.matches(n.tickerText);
+                for (int i = 0; i < NOTIF_TEXT_FIELDS.length && !ignore; i++) {
+                    CharSequence notifText = n.extras.getCharSequence(NOTIF_TEXT_FIELDS[i]);
+                    if (ModLedControl.DEBUG) ModLedControl.log("Notif text: " + notifText);
+                    ignore = matcher.matches(notifText);
                 }
                 if (ModLedControl.DEBUG) ModLedControl.log("QH ignore list contains keyword?: " + ignore);
                 return (ignore ? defaultIgnoreResult : (quietHoursActive() || (interactive && userPresent)));
@@ -245,26 +291,35 @@ public class QuietHours {
     public Range getActiveRange() {
         if (uncLocked || !enabled || mode != Mode.AUTO) return null;
 
+        final long now = System.currentTimeMillis();
+        ActiveRangeCache cache = activeRangeCache;
+        if (cache == null || now < cache.validFrom || now >= cache.validUntil) {
+            cache = evaluateActiveRange(now);
+            activeRangeCache = cache;
+        }
+        return cache.range;
+    }
+
+    private ActiveRangeCache evaluateActiveRange(long now) {
         Calendar c = new GregorianCalendar();
-        c.setTimeInMillis(System.currentTimeMillis());
-        int curMin = c.get(Calendar.HOUR_OF_DAY) * 60 + c.get(Calendar.MINUTE);
-        int curDay = c.get(Calendar.DAY_OF_WEEK);
-        int prevDay = (curDay == 1 ? 7 : curDay - 1);
-
-        for (Range range : ranges) {
-            boolean active = false;
-            if (range.endsNextDay()) {
-                active = (curMin >= range.startTime && range.days.contains(String.valueOf(curDay)) ||
-                    (curMin < range.endTime && range.days.contains(String.valueOf(prevDay))));
-            } else {
-                active = range.days.contains(String.valueOf(curDay));
-            }
-            if (active && Utils.isTimeOfDayInRange(c.getTimeInMillis(), range.startTime, range.endTime)) {
-                return range;
-            }
+        c.setTimeInMillis(now);
+        final int curMinOfWeek = (c.get(Calendar.DAY_OF_WEEK) - 1) * MINUTES_PER_DAY +
+                c.get(Calendar.HOUR_OF_DAY) * 60 + c.get(Calendar.MINUTE);
+        final long minuteStart = now - c.get(Calendar.SECOND) * 1000L - c.get(Calendar.MILLISECOND);
+
+        final byte slot = weekMinuteMap[curMinOfWeek];
+        int minutesToBoundary = 1;
+        while (minutesToBoundary < MINUTES_PER_WEEK &&
+                weekMinuteMap[(curMinOfWeek + minutesToBoundary) % MINUTES_PER_WEEK] == slot) {
+            minutesToBoundary++;
         }
+        final long validUntil = Math.min(minuteStart + minutesToBoundary * 60000L,
+                now + MAX_CACHE_VALIDITY_MS);
 
-        return null;
+        if (ModLedControl.DEBUG) ModLedControl.log("QH active range evaluated: slot=" + slot +
+                "; minutesToBoundary=" + minutesToBoundary);
+        return new ActiveRangeCache(slot == 0 ? null : rangeTable[slot - 1],
+                minuteStart, validUntil);
     }
 
     public boolean shouldMuteLed() {
@@ -316,21 +371,4 @@ public class QuietHours {
         }
         return ringerWhitelist;
     }
-
-    private List<CharSequence> getNotificationTexts(Notification notification) {
-        List<CharSequence> texts = new ArrayList<>();
-
-        for (String extra : NOTIF_TEXT_FIELDS) {
-            CharSequence cs = notification.extras.getCharSequence(extra);
-            if (cs != null) texts.add(cs);
-        }
-
-        if (ModLedControl.DEBUG) {
-            for (CharSequence text : texts) {
-                ModLedControl.log("Notif text: " + text);
-            }
-        }
-
-        return texts;
-    }
 }
@@ -21,8 +21,12 @@ import android.content.IntentFilter;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
 
 import de.robv.android.xposed.XposedBridge;
 
@@ -49,20 +53,46 @@ public class BroadcastMediator {
 
     private Context mContext;
     private final List<Subscriber> mSubscribers;
-    private final IntentFilter mIntentFilter;
-    private boolean mInternalReceiverRegistered;
+    private final Set<String> mActions;
+    private final Set<String> mPendingActions;
+    private int mBatchDepth;
+    // action -> receivers; immutable, replaced on every change
+    private volatile Map<String, Receiver[]> mReceiverIndex;
 
     BroadcastMediator() {
         mSubscribers = new ArrayList<>();
-        mIntentFilter = new IntentFilter();
+        mActions = new HashSet<>();
+        mPendingActions = new LinkedHashSet<>();
+        mReceiverIndex = new HashMap<>();
         if (DEBUG) log("BroadcastMediator created");
     }
 
     void setContext(Context context) {
         if (DEBUG) log("Received context");
-        mContext = context;
-        if (mIntentFilter.countActions() > 0) {
-            registerReceiverInternal();
+        synchronized (mSubscribers) {
+            mContext = context;
+            registerPendingActions();
+        }
+    }
+
+    /**
+     * Starts batch of subscriptions. Receiver registration is deferred until
+     * matching {@link #endBatch()} so that all actions get registered at once.
+     */
+    public void beginBatch() {
+        synchronized (mSubscribers) {
+            mBatchDepth++;
+        }
+    }
+
+    /**
+     * Ends batch of subscriptions started by {@link #beginBatch()}
+     */
+    public void endBatch() {
+        synchronized (mSubscribers) {
+            if (mBatchDepth > 0 && --mBatchDepth == 0) {
+                registerPendingActions();
+            }
         }
     }
 
@@ -73,30 +103,47 @@ public class BroadcastMediator {
      */
     public void subscribe(Receiver receiver, List<String> actions) {
         synchronized (mSubscribers) {
-            final int oldActionCount = mIntentFilter.countActions();
             for (String action : actions) {
-                if (!mIntentFilter.hasAction(action)) {
-                    mIntentFilter.addAction(action);
+                if (mActions.add(action)) {
+                    mPendingActions.add(action);
                 }
             }
             mSubscribers.add(new Subscriber(receiver, actions));
+            rebuildReceiverIndex();
             if (DEBUG) log("subscribing receiver: " + receiver);
-            if (oldActionCount != mIntentFilter.countActions()) {
-                registerReceiverInternal();
-            }
+            registerPendingActions();
+        }
+    }
+
+    private void registerPendingActions() {
+        if (mContext == null || mBatchDepth > 0 || mPendingActions.isEmpty()) return;
+        // internal receiver can hold multiple filters so only newly added actions need registering
+        IntentFilter intentFilter = new IntentFilter();
+        for (String action : mPendingActions) {
+            intentFilter.addAction(action);
         }
+        mContext.registerReceiver(mReceiverInternal, intentFilter);
+        if (DEBUG) log("registerPendingActions: registered " + mPendingActions.size() + " actions");
+        mPendingActions.clear();
     }
 
-    private void registerReceiverInternal() {
-        if (mContext == null) return;
-        if (mInternalReceiverRegistered) {
-            mContext.unregisterReceiver(mReceiverInternal);
-            mInternalReceiverRegistered = false;
-            if (DEBUG) log("reisterReceiverInternal: old internal receiver unregistered");
+    private void rebuildReceiverIndex() {
+        Map<String, List<Receiver>> lists = new HashMap<>();
+        for (Subscriber s : mSubscribers) {
+            for (String action : s.actions) {
+                List<Receiver> list = lists.get(action);
+                if (list == null) {
+                    list = new ArrayList<>();
+                    lists.put(action, list);
+                }
+                list.add(s.receiver);
+            }
+        }
+        Map<String, Receiver[]> index = new HashMap<>(lists.size() * 2);
+        for (Map.Entry<String, List<Receiver>> entry : lists.entrySet()) {
+            index.put(entry.getKey(), entry.getValue().toArray(new Receiver[0]));
         }
-        mContext.registerReceiver(mReceiverInternal, mIntentFilter);
-        mInternalReceiverRegistered = true;
-        if (DEBUG) log("reisterReceiverInternal: new internal receiver registered");
+        mReceiverIndex = index;
     }
 
     /**
@@ -115,11 +162,8 @@ public class BroadcastMediator {
     public void unsubscribe(Receiver receiver) {
         if (DEBUG) log("unsubscribing receiver: " + receiver);
         synchronized (mSubscribers) {
-            List<Subscriber> toRemove = mSubscribers.stream()
-                    .filter(s -> s.receiver == receiver)
-                    .collect(Collectors.toList());
-            if (!toRemove.isEmpty()) {
-                mSubscribers.removeAll(toRemove);
+            if (mSubscribers.removeIf(s -> s.receiver == receiver)) {
+                rebuildReceiverIndex();
             }
         }
     }
@@ -127,16 +171,14 @@ public class BroadcastMediator {
     private BroadcastReceiver mReceiverInternal = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
-            synchronized (mSubscribers) {
-                List<Receiver> toNotify = mSubscribers.stream()
-                        .filter(s -> s.actions.contains(intent.getAction()))
-                        .map(s -> s.receiver)
-                        .collect(Collectors.toList());
-                toNotify.forEach(r -> {
-                    if (DEBUG) log("Notifying listener: " + r +
-                            "; action=" + intent.getAction());
-                    r.onBroadcastReceived(context, intent);
-                });
+            final String action = intent.getAction();
+            if (action == null) return;
+            final Receiver[] receivers = mReceiverIndex.get(action);
+            if (receivers == null) return;
+            for (Receiver r : receivers) {
+                if (DEBUG) log("Notifying listener: " + r +
+                        "; action=" + action);
+                r.onBroadcastReceived(context, intent);
             }
         }
     };
@@ -35,9 +35,11 @@ public class FrameworkManagers {
     }
 
     public static BroadcastMediator BroadcastMediator;
+    public static FrameworkTaskStateTracker TaskStateTracker;
 
     public static void initAndroid(final ClassLoader classLoader) {
         BroadcastMediator = new BroadcastMediator();
+        TaskStateTracker = new FrameworkTaskStateTracker(classLoader);
 
         hookStartCoreServices(classLoader);
     }
@@ -60,5 +62,6 @@ public class FrameworkManagers {
 
     private static void onCoreServicesStarted(Context systemContext) {
         BroadcastMediator.setContext(systemContext);
+        TaskStateTracker.setContext(systemContext);
     }
 }
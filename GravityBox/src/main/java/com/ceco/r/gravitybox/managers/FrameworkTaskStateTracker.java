@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2021 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.r.gravitybox.managers;
+
+import java.util.List;
+
+import com.ceco.r.gravitybox.GravityBox;
+
+import android.app.ActivityManager;
+import android.app.ActivityManager.RunningTaskInfo;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ResolveInfo;
+import android.os.Handler;
+import android.os.Looper;
+import de.robv.android.xposed.XC_MethodHook;
+import de.robv.android.xposed.XposedBridge;
+import de.robv.android.xposed.XposedHelpers;
+
+/**
+ * Tracks lock task mode, home package and recent tasks within system_server
+ * based on task change notifications so that key handling can read them
+ * without calling into ActivityTaskManager.
+ */
+public class FrameworkTaskStateTracker {
+    private static final String TAG = "GB:TaskStateTracker";
+    private static final boolean DEBUG = false;
+
+    private static final String CLASS_TASK_CHANGE_NOTIFICATION_CONTROLLER =
+            "com.android.server.wm.TaskChangeNotificationController";
+    private static final String DEFAULT_HOME_PACKAGE = "com.android.launcher";
+    private static final int ACTIVITY_TYPE_HOME = 2;
+    private static final int RECENT_TASKS_SIZE = 5;
+    private static final long REFRESH_DELAY_MS = 100;
+
+    private static void log(String message) {
+        XposedBridge.log(TAG + ": " + message);
+    }
+
+    public static final class RecentTask {
+        public final int id;
+        public final String packageName;
+
+        private RecentTask(int id, String packageName) {
+            this.id = id;
+            this.packageName = packageName;
+        }
+    }
+
+    private Context mContext;
+    private Handler mHandler;
+    private ActivityManager mActivityManager;
+    private boolean mLockTaskModeHooked;
+    private boolean mTaskStackHooked;
+    private volatile boolean mLockTaskModeValid;
+    private volatile int mLockTaskModeState = ActivityManager.LOCK_TASK_MODE_NONE;
+    private volatile String mHomePackage;
+    private volatile RecentTask[] mRecentTasks;
+
+    FrameworkTaskStateTracker(ClassLoader classLoader) {
+        createHooks(classLoader);
+    }
+
+    private void createHooks(ClassLoader classLoader) {
+        try {
+            XposedHelpers.findAndHookMethod(CLASS_TASK_CHANGE_NOTIFICATION_CONTROLLER, classLoader,
+                    "notifyLockTaskModeChanged", int.class, new XC_MethodHook() {
+                @Override
+                protected void afterHookedMethod(MethodHookParam param) {
+                    mLockTaskModeState = (int) param.args[0];
+                    if (DEBUG) log("Lock task mode changed: " + mLockTaskModeState);
+                }
+            });
+            mLockTaskModeHooked = true;
+        } catch (Throwable t) {
+            GravityBox.log(TAG, "Error hooking notifyLockTaskModeChanged:", t);
+        }
+
+        try {
+            XposedHelpers.findAndHookMethod(CLASS_TASK_CHANGE_NOTIFICATION_CONTROLLER, classLoader,
+                    "notifyTaskStackChanged", new XC_MethodHook() {
+                @Override
+                protected void afterHookedMethod(MethodHookParam param) {
+                    // called with window manager lock held; refresh later from our handler
+                    if (mHandler != null) {
+                        mHandler.removeCallbacks(mRefreshRunnable);
+                        mHandler.postDelayed(mRefreshRunnable, REFRESH_DELAY_MS);
+                    }
+                }
+            });
+            mTaskStackHooked = true;
+        } catch (Throwable t) {
+            GravityBox.log(TAG, "Error hooking notifyTaskStackChanged:", t);
+        }
+    }
+
+    void setContext(Context context) {
+        mContext = context;
+        mActivityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        mHandler = new Handler(Looper.getMainLooper());
+        if (mLockTaskModeHooked) {
+            try {
+                mLockTaskModeState = mActivityManager.getLockTaskModeState();
+                mLockTaskModeValid = true;
+            } catch (Throwable t) {
+                GravityBox.log(TAG, "Error reading initial lock task mode state:", t);
+            }
+        }
+    }
+
+    private final Runnable mRefreshRunnable = this::refreshRecentTasks;
+
+    private void refreshRecentTasks() {
+        try {
+            List<RunningTaskInfo> tasks = mActivityManager.getRunningTasks(RECENT_TASKS_SIZE);
+            RecentTask[] recentTasks = new RecentTask[tasks.size()];
+            int count = 0;
+            for (RunningTaskInfo task : tasks) {
+                if (task.topActivity == null) continue;
+                String pkgName = task.topActivity.getPackageName();
+                recentTasks[count++] = new RecentTask(task.id, pkgName);
+                if (getTopActivityType(task) == ACTIVITY_TYPE_HOME) {
+                    mHomePackage = pkgName;
+                }
+            }
+            if (count < recentTasks.length) {
+                RecentTask[] trimmed = new RecentTask[count];
+                System.arraycopy(recentTasks, 0, trimmed, 0, count);
+                recentTasks = trimmed;
+            }
+            mRecentTasks = recentTasks;
+            if (DEBUG) log("Recent tasks refreshed: " + count);
+        } catch (Throwable t) {
+            GravityBox.log(TAG, "Error refreshing recent tasks:", t);
+        }
+    }
+
+    private static int getTopActivityType(RunningTaskInfo task) {
+        try {
+            return XposedHelpers.getIntField(task, "topActivityType");
+        } catch (Throwable t) {
+            return 0;
+        }
+    }
+
+    public boolean isTaskLocked() {
+        if (mLockTaskModeValid) {
+            return mLockTaskModeState != ActivityManager.LOCK_TASK_MODE_NONE;
+        }
+        return (mActivityManager != null && mActivityManager.getLockTaskModeState() !=
+                ActivityManager.LOCK_TASK_MODE_NONE);
+    }
+
+    /**
+     * @return package name of default home app
+     */
+    public String getHomePackage() {
+        String homePackage = mHomePackage;
+        if (homePackage == null && mContext != null) {
+            homePackage = DEFAULT_HOME_PACKAGE;
+            final Intent intent = new Intent(Intent.ACTION_MAIN);
+            intent.addCategory(Intent.CATEGORY_HOME);
+            final ResolveInfo res = mContext.getPackageManager().resolveActivity(intent, 0);
+            if (res != null && res.activityInfo != null &&
+                    !res.activityInfo.packageName.equals("android")) {
+                homePackage = res.activityInfo.packageName;
+                // resolver activity means there's no default yet so cache real home only
+                mHomePackage = homePackage;
+            }
+        }
+        return (homePackage != null ? homePackage : DEFAULT_HOME_PACKAGE);
+    }
+
+    /**
+     * @return most recent running tasks with the foreground task first
+     */
+    public RecentTask[] getRecentTasks() {
+        if (mActivityManager == null) {
+            return new RecentTask[0];
+        }
+        if (!mTaskStackHooked || mRecentTasks == null ||
+                mHandler.hasCallbacks(mRefreshRunnable)) {
+            mHandler.removeCallbacks(mRefreshRunnable);
+            refreshRecentTasks();
+        }
+        RecentTask[] recentTasks = mRecentTasks;
+        return (recentTasks != null ? recentTasks : new RecentTask[0]);
+    }
+}
@@ -50,8 +50,17 @@ public class SysUiManagers {
         if (prefs == null)
             throw new IllegalArgumentException("Prefs cannot be null");
 
-        BroadcastMediator.setContext(context);
+        // register internal broadcast receiver only once for all startup subscriptions
+        BroadcastMediator.beginBatch();
+        try {
+            initManagers(context, prefs, qhPrefs, tunerPrefs);
+        } finally {
+            BroadcastMediator.setContext(context);
+            BroadcastMediator.endBatch();
+        }
+    }
 
+    private static void initManagers(Context context, XSharedPreferences prefs, XSharedPreferences qhPrefs, XSharedPreferences tunerPrefs) {
         try {
             ConfigChangeMonitor = new SysUiConfigChangeMonitor(context);
         } catch (Throwable t) {
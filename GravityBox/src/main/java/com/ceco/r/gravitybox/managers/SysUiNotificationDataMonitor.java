@@ -15,6 +15,7 @@
 package com.ceco.r.gravitybox.managers;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -40,12 +41,33 @@ public class SysUiNotificationDataMonitor {
     }
 
     public interface Listener {
-        void onNotificationDataChanged(final StatusBarNotification sbn);
+        /**
+         * Called when notifications of a package were posted, updated or removed
+         * @param pkg - package name
+         * @param count - current notification count of the package
+         */
+        void onNotificationCountChanged(String pkg, int count);
+    }
+
+    private static final class NotifRecord {
+        final String pkg;
+        int weight;
+
+        NotifRecord(String pkg) {
+            this.pkg = pkg;
+        }
+    }
+
+    private static final class Counter {
+        int value;
     }
 
     private Context mContext;
-    private Object mNotifCollection;
     private final List<Listener> mListeners = new ArrayList<>();
+    // notification key -> package and count contribution
+    private final Map<String, NotifRecord> mRecords = new HashMap<>();
+    // package -> notification count
+    private final Map<String, Counter> mCounts = new HashMap<>();
 
     protected SysUiNotificationDataMonitor(Context context) {
         if (context == null)
@@ -62,29 +84,21 @@ public class SysUiNotificationDataMonitor {
             Class<?> classNotifCollection = XposedHelpers.findClass(CLASS_NOTIF_COLLECTION, cl);
             Class<?> classNotifEntryManager = XposedHelpers.findClass(CLASS_NOTIF_ENTRY_MANAGER, cl);
 
-            XposedBridge.hookAllConstructors(classNotifCollection, new XC_MethodHook() {
-                @Override
-                protected void afterHookedMethod(final MethodHookParam param) {
-                    mNotifCollection = param.thisObject;
-                    if (DEBUG) log("NotifCollection object constructed");
-                }
-            });
-
             XposedBridge.hookAllMethods(classNotifCollection, "postNotification", new XC_MethodHook() {
                 @Override
                 protected void afterHookedMethod(final MethodHookParam param) {
                     if (DEBUG) log("Notification entry added");
-                    StatusBarNotification sbn = getSbNotificationFromArgs(param.args);
-                    notifyDataChanged(sbn);
+                    onNotificationPosted(getSbNotificationFromArgs(param.args));
                 }
             });
 
             XposedBridge.hookAllMethods(classNotifCollection, "tryRemoveNotification", new XC_MethodHook() {
                 @Override
                 protected void afterHookedMethod(final MethodHookParam param) {
+                    // entry might have been kept e.g. due to lifetime extension
+                    if (Boolean.FALSE.equals(param.getResult())) return;
                     if (DEBUG) log("Notification entry removed");
-                    StatusBarNotification sbn = getSbNotificationFromArgs(param.args);
-                    notifyDataChanged(sbn);
+                    onNotificationRemoved(getSbNotificationFromArgs(param.args));
                 }
             });
 
@@ -93,7 +107,7 @@ public class SysUiNotificationDataMonitor {
                 @Override
                 protected void afterHookedMethod(MethodHookParam param) {
                     if (DEBUG) log("Notification entry updated");
-                    notifyDataChanged((StatusBarNotification) param.args[0]);
+                    onNotificationPosted((StatusBarNotification) param.args[0]);
                 }
             });
         } catch (Throwable t) {
@@ -121,10 +135,60 @@ public class SysUiNotificationDataMonitor {
         }
     }
 
-    private void notifyDataChanged(StatusBarNotification sbn) {
+    private void onNotificationPosted(StatusBarNotification sbn) {
+        if (sbn == null) return;
+
+        final Notification n = sbn.getNotification();
+        final int weight = (n != null && n.number > 0 ? n.number : 1);
+        final String pkg = sbn.getPackageName();
+        final int count;
+        synchronized (mCounts) {
+            NotifRecord record = mRecords.get(sbn.getKey());
+            if (record == null) {
+                record = new NotifRecord(pkg);
+                mRecords.put(sbn.getKey(), record);
+            } else {
+                addCount(record.pkg, -record.weight);
+            }
+            record.weight = weight;
+            count = addCount(pkg, weight);
+        }
+        notifyCountChanged(pkg, count);
+    }
+
+    private void onNotificationRemoved(StatusBarNotification sbn) {
+        if (sbn == null) return;
+
+        final NotifRecord record;
+        final int count;
+        synchronized (mCounts) {
+            record = mRecords.remove(sbn.getKey());
+            if (record == null) return;
+            count = addCount(record.pkg, -record.weight);
+        }
+        notifyCountChanged(record.pkg, count);
+    }
+
+    private int addCount(String pkg, int delta) {
+        Counter counter = mCounts.get(pkg);
+        if (counter == null) {
+            if (delta <= 0) return 0;
+            counter = new Counter();
+            mCounts.put(pkg, counter);
+        }
+        counter.value += delta;
+        if (counter.value <= 0) {
+            mCounts.remove(pkg);
+            return 0;
+        }
+        return counter.value;
+    }
+
+    private void notifyCountChanged(String pkg, int count) {
+        if (DEBUG) log("notifyCountChanged: " + pkg + "=" + count);
         synchronized (mListeners) {
             for (Listener l : mListeners) {
-                l.onNotificationDataChanged(sbn);
+                l.onNotificationCountChanged(pkg, count);
             }
         }
     }
@@ -146,26 +210,11 @@ public class SysUiNotificationDataMonitor {
     }
 
     public int getNotifCountFor(String pkg) {
-        if (pkg == null || mNotifCollection == null) return 0;
-
-        int count = 0;
+        if (pkg == null) return 0;
 
-        try {
-            Map<?,?> entries = (Map<?,?>) XposedHelpers.getObjectField(mNotifCollection, "mNotificationSet");
-            for (Object entry : entries.values()) {
-                StatusBarNotification sbn = (StatusBarNotification)
-                        XposedHelpers.getObjectField(entry, "mSbn");
-                if (pkg.equals(sbn.getPackageName())) {
-                    final Notification n = sbn.getNotification();
-                    count += (n.number > 0 ? n.number : 1);
-                }
-            }
-        } catch (Throwable t) {
-            GravityBox.log(TAG, t);
+        synchronized (mCounts) {
+            Counter counter = mCounts.get(pkg);
+            return (counter != null ? counter.value : 0);
         }
-
-        if (DEBUG) log("getNotifCountFor: " + pkg + "=" + count);
-
-        return count;
     }
 }
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2021 Peter Gregus for GravityBox Project (C3C076@xda)
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ceco.r.gravitybox.managers;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.ceco.r.gravitybox.GravityBox;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.LinkProperties;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.net.TrafficStats;
+import android.os.Handler;
+import android.os.Looper;
+import de.robv.android.xposed.XposedBridge;
+
+/**
+ * Shared sampler of network traffic counters used by traffic meters.
+ * Set of counted interfaces is maintained from connectivity callbacks so that
+ * sampling itself involves no binder calls and no allocations.
+ */
+public class SysUiTrafficSampler {
+    private static final String TAG = "GB:TrafficSampler";
+    private static final boolean DEBUG = false;
+    private static final Object lock = new Object();
+    private static SysUiTrafficSampler sSampler;
+
+    private static void log(String message) {
+        XposedBridge.log(TAG + ": " + message);
+    }
+
+    private final ConnectivityManager mConManager;
+    private final Handler mHandler;
+    private MethodHandle mGetRxBytes;
+    private MethodHandle mGetTxBytes;
+    private final Map<Network, String> mNetworkIfaces = new HashMap<>();
+    private volatile String[] mCountedIfaces = new String[0];
+    private int mConsumerCount;
+
+    public static SysUiTrafficSampler getInstance(Context context) {
+        synchronized(lock) {
+            if (sSampler == null) {
+                sSampler = new SysUiTrafficSampler(context);
+            }
+            return sSampler;
+        }
+    }
+
+    private SysUiTrafficSampler(Context context) {
+        mConManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        mHandler = new Handler(Looper.getMainLooper());
+        resolveCounterMethods();
+    }
+
+    @SuppressLint("DiscouragedPrivateApi")
+    private void resolveCounterMethods() {
+        try {
+            Method rx = TrafficStats.class.getDeclaredMethod("getRxBytes", String.class);
+            rx.setAccessible(true);
+            Method tx = TrafficStats.class.getDeclaredMethod("getTxBytes", String.class);
+            tx.setAccessible(true);
+            mGetRxBytes = MethodHandles.lookup().unreflect(rx);
+            mGetTxBytes = MethodHandles.lookup().unreflect(tx);
+        } catch (Throwable t) {
+            mGetRxBytes = mGetTxBytes = null;
+            if (DEBUG) log("Error resolving per-interface counter methods: " + t.getMessage());
+        }
+    }
+
+    private final ConnectivityManager.NetworkCallback mNetworkCallback =
+            new ConnectivityManager.NetworkCallback() {
+        @Override
+        public void onLinkPropertiesChanged(Network network, LinkProperties lp) {
+            synchronized (mNetworkIfaces) {
+                mNetworkIfaces.put(network, lp.getInterfaceName());
+                publishCountedIfaces();
+            }
+        }
+
+        @Override
+        public void onLost(Network network) {
+            synchronized (mNetworkIfaces) {
+                mNetworkIfaces.remove(network);
+                publishCountedIfaces();
+            }
+        }
+    };
+
+    // initial state so that samples taken before first callback arrives are consistent
+    @SuppressLint("MissingPermission")
+    private void primeCountedIfaces() {
+        synchronized (mNetworkIfaces) {
+            mNetworkIfaces.clear();
+            for (Network network : mConManager.getAllNetworks()) {
+                NetworkCapabilities nCap = mConManager.getNetworkCapabilities(network);
+                if (nCap == null) continue;
+                if (nCap.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET) &&
+                        nCap.hasCapability(NetworkCapabilities.NET_CAPABILITY_FOREGROUND) &&
+                        nCap.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_VPN)) {
+                    LinkProperties lp = mConManager.getLinkProperties(network);
+                    if (lp != null) {
+                        mNetworkIfaces.put(network, lp.getInterfaceName());
+                    }
+                }
+            }
+            publishCountedIfaces();
+        }
+    }
+
+    private void publishCountedIfaces() {
+        int count = 0;
+        for (String iface : mNetworkIfaces.values()) {
+            if (isCountedInterface(iface)) count++;
+        }
+        String[] ifaces = new String[count];
+        int i = 0;
+        for (String iface : mNetworkIfaces.values()) {
+            if (isCountedInterface(iface)) ifaces[i++] = iface;
+        }
+        mCountedIfaces = ifaces;
+        if (DEBUG) log("Counted interfaces: " + String.join(",", ifaces));
+    }
+
+    private static boolean isCountedInterface(String iface) {
+        return (iface != null &&
+                !iface.equals("ifname") &&
+                !iface.equals("lo") &&
+                !iface.startsWith("tun"));
+    }
+
+    /**
+     * Registers consumer of traffic samples. Connectivity tracking is active
+     * only while there's at least one consumer.
+     */
+    public void addConsumer() {
+        synchronized (lock) {
+            if (mConsumerCount++ == 0 && mGetRxBytes != null) {
+                try {
+                    NetworkRequest request = new NetworkRequest.Builder()
+                            .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                            .addCapability(NetworkCapabilities.NET_CAPABILITY_FOREGROUND)
+                            .addCapability(NetworkCapabilities.NET_CAPABILITY_NOT_VPN)
+                            .build();
+                    primeCountedIfaces();
+                    mConManager.registerNetworkCallback(request, mNetworkCallback, mHandler);
+                    if (DEBUG) log("Network callback registered");
+                } catch (Throwable t) {
+                    GravityBox.log(TAG, "Error registering network callback", t);
+                    mGetRxBytes = mGetTxBytes = null;
+                }
+            }
+        }
+    }
+
+    public void removeConsumer() {
+        synchronized (lock) {
+            if (mConsumerCount > 0 && --mConsumerCount == 0 && mGetRxBytes != null) {
+                try {
+                    mConManager.unregisterNetworkCallback(mNetworkCallback);
+                } catch (Throwable ignore) { }
+                synchronized (mNetworkIfaces) {
+                    mNetworkIfaces.clear();
+                    mCountedIfaces = new String[0];
+                }
+                if (DEBUG) log("Network callback unregistered");
+            }
+        }
+    }
+
+    /**
+     * Samples total received and transmitted bytes of counted interfaces
+     * @param out - array receiving rx bytes at index 0 and tx bytes at index 1
+     */
+    public void sample(long[] out) {
+        final MethodHandle getRxBytes = mGetRxBytes;
+        final MethodHandle getTxBytes = mGetTxBytes;
+        if (getRxBytes != null && getTxBytes != null) {
+            try {
+                long rx = 0, tx = 0;
+                for (String iface : mCountedIfaces) {
+                    rx += (long) getRxBytes.invokeExact(iface);
+                    tx += (long) getTxBytes.invokeExact(iface);
+                }
+                out[0] = rx;
+                out[1] = tx;
+                return;
+            } catch (Throwable t) {
+                if (DEBUG) log("sample: error: " + t.getMessage());
+            }
+        }
+        out[0] = TrafficStats.getTotalRxBytes();
+        out[1] = TrafficStats.getTotalTxBytes();
+    }
+}
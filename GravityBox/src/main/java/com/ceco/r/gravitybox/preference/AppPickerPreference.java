@@ -19,6 +19,7 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -27,7 +28,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
-import com.ceco.r.gravitybox.BitmapUtils;
+import com.ceco.r.gravitybox.AppCatalog;
 import com.ceco.r.gravitybox.R;
 import com.ceco.r.gravitybox.GravityBoxSettings;
 import com.ceco.r.gravitybox.SettingsManager;
@@ -48,9 +49,7 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.ActivityInfo;
-import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
-import android.content.pm.ResolveInfo;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
@@ -478,40 +477,34 @@ public class AppPickerPreference extends DialogPreference
             @Override
             protected ArrayList<IIconListAdapterItem> doInBackground(Void... arg0) {
                 ArrayList<IIconListAdapterItem> itemList = new ArrayList<>();
-                List<ResolveInfo> appList = new ArrayList<>();
-
-                List<PackageInfo> packages = mPackageManager.getInstalledPackages(0);
-                Intent mainIntent = new Intent();
-                if (mMode == MODE_APP) {
-                    mainIntent.setAction(Intent.ACTION_MAIN);
-                    mainIntent.addCategory(Intent.CATEGORY_LAUNCHER);
-                } else if (mMode == MODE_SHORTCUT) {
-                    mainIntent.setAction(Intent.ACTION_CREATE_SHORTCUT);
-                }
-                for(PackageInfo pi : packages) {
+                List<AppCatalog.Component> appList = new ArrayList<>();
+
+                for (AppCatalog.App app : AppCatalog.getInstance(mContext).getApps()) {
                     if (this.isCancelled()) break;
                     if (mMode == MODE_SHORTCUT &&
-                            pi.packageName.equals(mContext.getPackageName()) &&
+                            app.packageName.equals(mContext.getPackageName()) &&
                                     !mAllowGravityBoxActions)
                         continue;
-                    mainIntent.setPackage(pi.packageName);
-                    List<ResolveInfo> activityList = mPackageManager.queryIntentActivities(mainIntent, 0);
-                    for(ResolveInfo ri : activityList) {
-                        appList.add(ri);
-                    }
+                    appList.addAll(mMode == MODE_SHORTCUT ?
+                            app.shortcutActivities : app.launcherActivities);
                 }
 
-                Collections.sort(appList, new ResolveInfo.DisplayNameComparator(mPackageManager));
+                // activity labels come from catalog so sorting doesn't load anything
+                final Collator collator = Collator.getInstance();
+                Collections.sort(appList, (c1, c2) -> collator.compare(c1.label, c2.label));
+                // rows then only decode small cached icons
+                if (!this.isCancelled()) {
+                    AppCatalog.getInstance(mContext).cacheActivityIcons(appList);
+                }
                 if (mNullItemEnabled) {
                     itemList.add(mMode == MODE_SHORTCUT ? 
                         new ShortcutItem(mContext.getString(R.string.app_picker_none), null) :
                         new AppItem(mContext.getString(R.string.app_picker_none), null));
                 }
-                for (ResolveInfo ri : appList) {
+                for (AppCatalog.Component c : appList) {
                     if (this.isCancelled()) break;
-                    String appName = ri.loadLabel(mPackageManager).toString();
                     IIconListAdapterItem ai = mMode == MODE_SHORTCUT ?
-                            new ShortcutItem(appName, ri) : new AppItem(appName, ri);
+                            new ShortcutItem(c.label, c) : new AppItem(c.label, c);
                     itemList.add(ai);
                 }
 
@@ -626,20 +619,18 @@ public class AppPickerPreference extends DialogPreference
     class AppItem implements IIconListAdapterItem {
         protected String mAppName;
         protected BitmapDrawable mAppIcon;
-        protected ResolveInfo mResolveInfo;
+        protected AppCatalog.Component mComponent;
         protected Intent mIntent;
 
         private AppItem() { }
 
-        public AppItem(String appName, ResolveInfo ri) {
+        public AppItem(String appName, AppCatalog.Component component) {
             mAppName = appName;
-            mResolveInfo = ri;
-            if (mResolveInfo != null) {
+            mComponent = component;
+            if (mComponent != null) {
                 mIntent = new Intent(Intent.ACTION_MAIN);
                 mIntent.addCategory(Intent.CATEGORY_LAUNCHER);
-                ComponentName cn = new ComponentName(mResolveInfo.activityInfo.packageName,
-                        mResolveInfo.activityInfo.name);
-                mIntent.setComponent(cn);
+                mIntent.setComponent(mComponent.getComponentName());
                 mIntent.putExtra("mode", MODE_APP);
                 if (mForceCustomIcon) {
                     mIntent.putExtra("iconResName", "ic_shortcut_help");
@@ -675,14 +666,16 @@ public class AppPickerPreference extends DialogPreference
 
         @Override
         public Drawable getIconLeft() {
-            if (mResolveInfo == null) return null;
+            if (mComponent == null) return null;
 
             if (mAppIcon == null) {
                 final String key = getKey();
                 mAppIcon = sAppIconCache.get(key);
                 if (mAppIcon == null) {
-                    Bitmap bitmap = BitmapUtils.drawableToBitmap(mResolveInfo.loadIcon(mPackageManager));
-                    bitmap = Bitmap.createScaledBitmap(bitmap, mAppIconSizePx, mAppIconSizePx, false);
+                    Bitmap bitmap = AppCatalog.getInstance(mContext).loadIcon(
+                            mComponent.packageName, mComponent.className);
+                    if (bitmap == null) return null;
+                    bitmap = Bitmap.createScaledBitmap(bitmap, mAppIconSizePx, mAppIconSizePx, true);
                     mAppIcon = new BitmapDrawable(mResources, bitmap);
                     sAppIconCache.put(key, mAppIcon);
                 }
@@ -704,14 +697,12 @@ public class AppPickerPreference extends DialogPreference
         private Intent mCreateShortcutIntent;
         private ShortcutCreatedListener mShortcutCreatedListener;
 
-        public ShortcutItem(String appName, ResolveInfo ri) {
+        public ShortcutItem(String appName, AppCatalog.Component component) {
             mAppName = appName;
-            mResolveInfo = ri;
-            if (mResolveInfo != null) {
+            mComponent = component;
+            if (mComponent != null) {
                 mCreateShortcutIntent = new Intent(Intent.ACTION_CREATE_SHORTCUT);
-                ComponentName cn = new ComponentName(mResolveInfo.activityInfo.packageName,
-                        mResolveInfo.activityInfo.name);
-                mCreateShortcutIntent.setComponent(cn);
+                mCreateShortcutIntent.setComponent(mComponent.getComponentName());
                 // mark intent so we can later identify it comes from GB
                 mCreateShortcutIntent.putExtra("gravitybox", true);
                 if (mAllowUnlockAction) {
@@ -30,7 +30,6 @@ import com.ceco.r.gravitybox.Utils;
 import com.ceco.r.gravitybox.managers.BroadcastMediator;
 import com.ceco.r.gravitybox.managers.SysUiManagers;
 
-import android.app.ActivityManager;
 import android.content.Context;
 import android.content.Intent;
 import android.text.format.Formatter;
@@ -85,7 +84,6 @@ public class QsPanel implements BroadcastMediator.Receiver {
     private RamBarMode mRamBarMode;
     private TextView mMemoryUsedTextView;
     private TextView mMemoryFreeTextView;
-    private ActivityManager mAm;
     private MemInfoReader mMemInfoReader;
 
     public QsPanel(XSharedPreferences prefs, ClassLoader classLoader) {
@@ -452,9 +450,6 @@ public class QsPanel implements BroadcastMediator.Receiver {
             return;
         }
 
-        if (mAm == null) {
-            mAm = (ActivityManager) mQsPanel.getContext().getSystemService(Context.ACTIVITY_SERVICE);
-        }
         if (mMemInfoReader == null) {
             mMemInfoReader = new MemInfoReader();
         }
@@ -491,8 +486,6 @@ public class QsPanel implements BroadcastMediator.Receiver {
         mMemoryFreeTextView.setTextColor(primaryTextColor);
 
         // update memory usage
-        ActivityManager.MemoryInfo memInfo = new ActivityManager.MemoryInfo();
-        mAm.getMemoryInfo(memInfo);
         long secServerMem = 0;//XposedHelpers.getLongField(memInfo, "secondaryServerThreshold");
         mMemInfoReader.readMemInfo();
         long availMem = mMemInfoReader.getFreeSize() + mMemInfoReader.getCachedSize() -
@@ -33,6 +33,9 @@ abstract class AVisualizerLayout extends FrameLayout implements VisualizerContro
     private static final String TAG = "GB:AVisualizerLayout";
     private static final boolean DEBUG = false;
 
+    // bars are built from lowest 32 bins of default sized capture
+    static final int DEFAULT_CAPTURE_SIZE = 1024;
+
     private static void log(String message) {
         XposedBridge.log(TAG + ": " + message);
     }
@@ -147,4 +150,14 @@ abstract class AVisualizerLayout extends FrameLayout implements VisualizerContro
 
     @Override
     public void setLight(boolean light) { }
+
+    @Override
+    public int getCaptureSize() {
+        return DEFAULT_CAPTURE_SIZE;
+    }
+
+    @Override
+    public int getCaptureRate() {
+        return Visualizer.getMaxCaptureRate();
+    }
 }
@@ -23,6 +23,7 @@ import com.ceco.r.gravitybox.ModStatusBar.StatusBarState;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.Color;
+import android.media.audiofx.Visualizer;
 import android.view.LayoutInflater;
 import android.view.ViewGroup;
 import android.widget.FrameLayout;
@@ -97,6 +98,12 @@ public class NavbarVisualizerLayout extends AVisualizerLayout {
         return super.isEnabled() && mEnabled;
     }
 
+    @Override
+    public int getCaptureRate() {
+        // small navbar bars don't need full capture rate
+        return Visualizer.getMaxCaptureRate() / 2;
+    }
+
     @Override
     public void onColorUpdated(int color) {
         color = Color.rgb(Color.red(color), Color.green(color), Color.blue(color));
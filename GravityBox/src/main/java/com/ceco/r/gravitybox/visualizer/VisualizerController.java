@@ -17,6 +17,7 @@ package com.ceco.r.gravitybox.visualizer;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.ceco.r.gravitybox.ArtworkColorExtractor;
 import com.ceco.r.gravitybox.GravityBox;
 import com.ceco.r.gravitybox.GravityBoxSettings;
 import com.ceco.r.gravitybox.ModLockscreen;
@@ -34,10 +35,8 @@ import android.media.MediaMetadata;
 import android.media.audiofx.Visualizer;
 import android.media.session.MediaController;
 import android.media.session.PlaybackState;
-import android.os.AsyncTask;
 import android.os.Handler;
-import android.os.Looper;
-import androidx.palette.graphics.Palette;
+import android.os.HandlerThread;
 import android.view.ViewGroup;
 import de.robv.android.xposed.XC_MethodHook;
 import de.robv.android.xposed.XSharedPreferences;
@@ -47,7 +46,7 @@ import de.robv.android.xposed.XposedHelpers;
 public class VisualizerController implements StatusBarStateChangedListener,
                                              SysUiBatteryInfoManager.BatteryStatusListener,
                                              BroadcastMediator.Receiver,
-                                             Palette.PaletteAsyncListener,
+                                             ArtworkColorExtractor.Callback,
                                              Visualizer.OnDataCaptureListener {
     private static final String TAG = "GB:VisualizerController";
     private static final boolean DEBUG = false;
@@ -77,6 +76,10 @@ public class VisualizerController implements StatusBarStateChangedListener,
         void setLight(boolean light);
         boolean isEnabled();
         boolean isAttached();
+        /** @return preferred FFT capture size in bytes */
+        int getCaptureSize();
+        /** @return preferred capture rate in milliHertz */
+        int getCaptureRate();
     }
 
     private final XSharedPreferences mPrefs;
@@ -88,38 +91,56 @@ public class VisualizerController implements StatusBarStateChangedListener,
     private int mDefaultColor;
     private int mCurrentColor;
     private int mOpacity;
+    private final ArtworkColorExtractor mColorExtractor = new ArtworkColorExtractor();
+    private int mArtworkRequestId;
+    private Handler mWorkerHandler;
+    private int mRequestedCaptureSize;
+    private int mRequestedCaptureRate;
+    // consumers of FFT data; read by visualizer thread
+    private volatile Listener[] mCaptureListeners = new Listener[0];
+
+    // owned by visualizer thread
     private Visualizer mVisualizer;
-    private Handler mHandler;
+    private int mCaptureSize;
+    private int mCaptureRate;
 
-    private final Runnable mLinkVisualizer = new Runnable() {
-        @Override
-        public void run() {
-            if (DEBUG) {
-                log("+++ mLinkVisualizer run()");
-            }
-
-            if (mVisualizer != null) {
-                mUnlinkVisualizer.run();
-            }
+    private void linkVisualizer(int captureSize, int captureRate) {
+        if (DEBUG) {
+            log("+++ linkVisualizer: captureSize=" + captureSize + "; captureRate=" + captureRate);
+        }
 
+        if (mVisualizer == null) {
             try {
                 mVisualizer = new Visualizer(0);
             } catch (Exception e) {
                 GravityBox.log(TAG, "error initializing visualizer", e);
                 return;
             }
+            mCaptureSize = 0;
+            mCaptureRate = 0;
+        }
+
+        if (mCaptureSize == captureSize && mCaptureRate == captureRate) {
+            return;
+        }
 
+        try {
             mVisualizer.setEnabled(false);
-            mVisualizer.setCaptureSize(66);
-            mVisualizer.setDataCaptureListener(VisualizerController.this, Visualizer.getMaxCaptureRate(),
+            mVisualizer.setCaptureSize(captureSize);
+            // listener is set from this thread so callbacks are delivered on its looper
+            mVisualizer.setDataCaptureListener(VisualizerController.this, captureRate,
                     false, true);
             mVisualizer.setEnabled(true);
+            mCaptureSize = captureSize;
+            mCaptureRate = captureRate;
+        } catch (Exception e) {
+            GravityBox.log(TAG, "error configuring visualizer", e);
+        }
 
-            if (DEBUG) {
-                log("--- mLinkVisualizer run()");
-            }
+        if (DEBUG) {
+            log("--- linkVisualizer");
         }
-    };
+    }
 
     private final Runnable mUnlinkVisualizer = new Runnable() {
         @Override
@@ -140,8 +161,6 @@ public class VisualizerController implements StatusBarStateChangedListener,
         }
     };
 
-    private final Runnable mAsyncUnlinkVisualizer = () -> AsyncTask.execute(mUnlinkVisualizer);
-
     public VisualizerController(ClassLoader cl, XSharedPreferences prefs) {
         mPrefs = prefs;
         mListeners = new ArrayList<>();
@@ -150,6 +169,10 @@ public class VisualizerController implements StatusBarStateChangedListener,
         mOpacity = Math.round(255f * ((float)prefs.getInt(GravityBoxSettings.PREF_KEY_VISUALIZER_OPACITY, 50)/100f));
         mCurrentColor = mDynamicColorEnabled ? Color.TRANSPARENT : mDefaultColor;
 
+        HandlerThread workerThread = new HandlerThread("GbVisualizer");
+        workerThread.start();
+        mWorkerHandler = new Handler(workerThread.getLooper());
+
         SysUiManagers.BroadcastMediator.subscribe(this,
                 Intent.ACTION_SCREEN_ON,
                 Intent.ACTION_SCREEN_OFF,
@@ -254,19 +277,6 @@ public class VisualizerController implements StatusBarStateChangedListener,
         updateActiveState(true);
     }
 
-    private void postRunnable(Runnable r, long delayMs) {
-        if (mHandler == null) {
-            mHandler = new Handler(Looper.getMainLooper());
-        }
-        mHandler.postDelayed(r, delayMs);
-    }
-
-    private void removeRunnable(Runnable r) {
-        if (mHandler != null) {
-            mHandler.removeCallbacks(r);
-        }
-    }
-
     private void updateMediaMetaData(Object sb, boolean metaDataChanged) {
         MediaController mc = (MediaController) XposedHelpers
                 .getObjectField(sb, "mMediaController");
@@ -293,8 +303,14 @@ public class VisualizerController implements StatusBarStateChangedListener,
                         log("updateMediaMetaData: artwork change detected; bitmap=" + artworkBitmap);
                 }
                 if (mDynamicColorEnabled) {
-                    if (artworkBitmap != null) { 
-                        Palette.from(artworkBitmap).generate(this);
+                    final int requestId = ++mArtworkRequestId;
+                    if (artworkBitmap != null) {
+                        mColorExtractor.extract(artworkBitmap, color -> {
+                            // ignore results of outdated requests
+                            if (requestId == mArtworkRequestId) {
+                                onArtworkColorExtracted(color);
+                            }
+                        });
                     } else {
                         notifyColorUpdated(mDefaultColor);
                     }
@@ -322,14 +338,17 @@ public class VisualizerController implements StatusBarStateChangedListener,
         boolean newActive = mPlaying && mIsScreenOn && !isPowerSaving() && atLeastOneListenerEnabled;
         if (newActive != mActive) {
             mActive = newActive;
-            removeRunnable(mAsyncUnlinkVisualizer);
-            if (mActive) {
-                AsyncTask.execute(mLinkVisualizer);
-            } else {
-                postRunnable(mAsyncUnlinkVisualizer, 800);
+            if (!mActive) {
+                mRequestedCaptureSize = 0;
+                mRequestedCaptureRate = 0;
+                // keep current consumers fed while they fade out
+                mWorkerHandler.postDelayed(mUnlinkVisualizer, 800);
             }
             forceNotifyListeners = true;
         }
+        if (mActive) {
+            updateCaptureConfig();
+        }
         if (forceNotifyListeners) {
             for (Listener l : mListeners) {
                 l.onActiveStateChanged(mActive);
@@ -337,6 +356,37 @@ public class VisualizerController implements StatusBarStateChangedListener,
         }
     }
 
+    /**
+     * Capture size and rate follow the most demanding consumer currently on screen
+     */
+    private void updateCaptureConfig() {
+        final List<Listener> consumers = new ArrayList<>(mListeners.size());
+        int captureSize = 0;
+        int captureRate = 0;
+        for (Listener l : mListeners) {
+            if (l.isEnabled()) {
+                consumers.add(l);
+                captureSize = Math.max(captureSize, l.getCaptureSize());
+                captureRate = Math.max(captureRate, l.getCaptureRate());
+            }
+        }
+        mCaptureListeners = consumers.toArray(new Listener[0]);
+
+        final int[] sizeRange = Visualizer.getCaptureSizeRange();
+        captureSize = Integer.highestOneBit(Math.min(Math.max(
+                captureSize, sizeRange[0]), sizeRange[1]));
+        captureRate = Math.min(captureRate, Visualizer.getMaxCaptureRate());
+
+        mWorkerHandler.removeCallbacks(mUnlinkVisualizer);
+        if (captureSize != mRequestedCaptureSize || captureRate != mRequestedCaptureRate) {
+            mRequestedCaptureSize = captureSize;
+            mRequestedCaptureRate = captureRate;
+            final int size = captureSize;
+            final int rate = captureRate;
+            mWorkerHandler.post(() -> linkVisualizer(size, rate));
+        }
+    }
+
     private boolean isPowerSaving() {
         if (SysUiManagers.BatteryInfoManager != null) {
             BatteryData bd = SysUiManagers.BatteryInfoManager.getCurrentBatteryData();
@@ -417,18 +467,8 @@ public class VisualizerController implements StatusBarStateChangedListener,
     }
 
     @Override
-    public void onGenerated(Palette palette) {
-        int color = palette.getVibrantColor(Color.TRANSPARENT);
-        if (color == Color.TRANSPARENT) {
-            color = palette.getLightVibrantColor(color);
-            if (color == Color.TRANSPARENT) {
-                color = palette.getDarkVibrantColor(color);
-                if (color == Color.TRANSPARENT) {
-                    color = mDefaultColor;
-                }
-            }
-        }
-        notifyColorUpdated(color);
+    public void onArtworkColorExtracted(int color) {
+        notifyColorUpdated(color != Color.TRANSPARENT ? color : mDefaultColor);
     }
 
     private void notifyColorUpdated(int color) {
@@ -441,10 +481,8 @@ public class VisualizerController implements StatusBarStateChangedListener,
 
     @Override
     public void onFftDataCapture(Visualizer visualizer, byte[] fft, int samplingRate) {
-        for (Listener l : mListeners) {
-            if (l.isEnabled()) {
-                l.onFftDataCapture(visualizer, fft, samplingRate);
-            }
+        for (Listener l : mCaptureListeners) {
+            l.onFftDataCapture(visualizer, fft, samplingRate);
         }
     }
 
@@ -17,19 +17,42 @@
 
 package com.ceco.r.gravitybox.visualizer;
 
-import android.animation.ValueAnimator;
 import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.view.View;
+import android.view.animation.AnimationUtils;
 
 public class VisualizerView extends View {
 
+    private static final int BAR_COUNT = 32;
+    private static final long ANIM_DURATION = 128;
+
+    // 10*log10(magnitude) for every possible squared magnitude of signed byte pair
+    private static final int MAX_MAGNITUDE = 128 * 128 * 2;
+    private static final byte[] DB_TABLE = new byte[MAX_MAGNITUDE + 1];
+    static {
+        for (int m = 1; m <= MAX_MAGNITUDE; m++) {
+            DB_TABLE[m] = (byte) (10 * Math.log10(m));
+        }
+    }
+
     private Paint mPaint;
-    private ValueAnimator[] mValueAnimators;
     private float[] mFFTPoints;
     private float mDbCapValue = 16f;
 
+    // latest capture; may be written from capture thread and is consumed by next frame
+    private final Object mCaptureLock = new Object();
+    private final int[] mCaptureDb = new int[BAR_COUNT];
+    private boolean mHasPendingCapture;
+    private boolean mFrameScheduled;
+
+    // bar interpolation state; main thread only
+    private final float[] mBarFrom = new float[BAR_COUNT];
+    private final float[] mBarTo = new float[BAR_COUNT];
+    private long mAnimStartTime;
+    private boolean mAnimating;
+
     private boolean mSupportsVerticalPosition = false;
     private boolean mIsVertical = false;
     private boolean mIsVerticalLeft = false;
@@ -40,8 +63,7 @@ public class VisualizerView extends View {
         mPaint = new Paint();
         mPaint.setAntiAlias(true);
 
-        mFFTPoints = new float[128];
-        loadValueAnimators();
+        mFFTPoints = new float[BAR_COUNT * 4];
     }
 
     void setDbCapValue(float dbCap) {
@@ -63,54 +85,74 @@ public class VisualizerView extends View {
         }
     }
 
-    private void loadValueAnimators() {
-        if (mValueAnimators != null) {
-            for (int i = 0; i < 32; i++) {
-                mValueAnimators[i].cancel();
+    /**
+     * Stores bar levels of FFT capture to be picked up by next animation frame.
+     * Can be called from any thread; captures arriving faster than frames replace
+     * the pending one.
+     */
+    void setData(byte[] fft) {
+        synchronized (mCaptureLock) {
+            for (int i = 0; i < BAR_COUNT; i++) {
+                final int rfk = fft[i * 2 + 2];
+                final int ifk = fft[i * 2 + 3];
+                mCaptureDb[i] = DB_TABLE[rfk * rfk + ifk * ifk];
             }
+            mHasPendingCapture = true;
+            scheduleFrameLocked();
         }
+    }
 
-        mValueAnimators = new ValueAnimator[32];
-        for (int i = 0; i < 32; i++) {
-            final int j;
-            if (mIsVertical) {
-                j = i * 4;
-            } else {
-                j = i * 4 + 1;
-            }
-            mValueAnimators[i] = new ValueAnimator();
-            mValueAnimators[i].setDuration(128);
-            mValueAnimators[i].addUpdateListener(animation -> {
-                mFFTPoints[j] = (float) animation.getAnimatedValue();
-                postInvalidate();
-            });
+    private void scheduleFrameLocked() {
+        if (!mFrameScheduled) {
+            mFrameScheduled = true;
+            postOnAnimation(mFrameRunnable);
         }
     }
 
-    void setData(byte[] fft) {
-        byte rfk, ifk;
-        int dbValue;
-        float magnitude;
-        for (int i = 0; i < 32; i++) {
-            mValueAnimators[i].cancel();
-            rfk = fft[i * 2 + 2];
-            ifk = fft[i * 2 + 3];
-            magnitude = rfk * rfk + ifk * ifk;
-            dbValue = magnitude > 0 ? (int) (10 * Math.log10(magnitude)) : 0;
-
-            if (mIsVertical) {
-                if (mIsVerticalLeft) {
-                    mValueAnimators[i].setFloatValues(mFFTPoints[i * 4],
-                            dbValue * mDbCapValue);
-                } else {
-                    mValueAnimators[i].setFloatValues(mFFTPoints[i * 4],
-                            mFFTPoints[2] - (dbValue * mDbCapValue));
+    private int getBarPointIndex(int bar) {
+        return (mIsVertical ? bar * 4 : bar * 4 + 1);
+    }
+
+    private float getBarTarget(int dbValue) {
+        if (mIsVertical) {
+            return (mIsVerticalLeft ? dbValue * mDbCapValue :
+                    mFFTPoints[2] - (dbValue * mDbCapValue));
+        }
+        return mFFTPoints[3] - (dbValue * mDbCapValue);
+    }
+
+    private final Runnable mFrameRunnable = this::doFrame;
+
+    private void doFrame() {
+        final long now = AnimationUtils.currentAnimationTimeMillis();
+        synchronized (mCaptureLock) {
+            mFrameScheduled = false;
+            if (mHasPendingCapture) {
+                mHasPendingCapture = false;
+                for (int i = 0; i < BAR_COUNT; i++) {
+                    mBarFrom[i] = mFFTPoints[getBarPointIndex(i)];
+                    mBarTo[i] = getBarTarget(mCaptureDb[i]);
                 }
-            } else {
-                mValueAnimators[i].setFloatValues(mFFTPoints[i * 4 + 1],
-                        mFFTPoints[3] - (dbValue * mDbCapValue));
+                mAnimStartTime = now;
+                mAnimating = true;
             }
-            mValueAnimators[i].start();
+        }
+        if (!mAnimating) return;
+
+        // all bars share start time so easing is evaluated once per frame
+        final float t = Math.min(1f, (now - mAnimStartTime) / (float) ANIM_DURATION);
+        final float eased = (float) (Math.cos((t + 1) * Math.PI) / 2.0f) + 0.5f;
+        for (int i = 0; i < BAR_COUNT; i++) {
+            mFFTPoints[getBarPointIndex(i)] = mBarFrom[i] + (mBarTo[i] - mBarFrom[i]) * eased;
+        }
+        invalidate();
+
+        if (t < 1f) {
+            synchronized (mCaptureLock) {
+                scheduleFrameLocked();
+            }
+        } else {
+            mAnimating = false;
         }
     }
 
@@ -119,7 +161,7 @@ public class VisualizerView extends View {
         super.onSizeChanged(w, h, oldw, oldh);
 
         mIsVertical = mSupportsVerticalPosition && (h > w);
-        loadValueAnimators();
+        mAnimating = false;
         if (mIsVertical) {
             setVertical(w, h);
         } else {
@@ -128,12 +170,12 @@ public class VisualizerView extends View {
     }
 
     private void setHorizontal(int w, int h) {
-        float barUnit = w / 32f;
+        float barUnit = w / (float) BAR_COUNT;
         float barWidth = barUnit * 8f / 9f;
         barUnit = barWidth + (barUnit - barWidth) * 32f / 31f;
         mPaint.setStrokeWidth(barWidth);
 
-        for (int i = 0; i < 32; i++) {
+        for (int i = 0; i < BAR_COUNT; i++) {
             mFFTPoints[i * 4] = mFFTPoints[i * 4 + 2] = i * barUnit + (barWidth / 2);
             mFFTPoints[i * 4 + 1] = h;
             mFFTPoints[i * 4 + 3] = h;
@@ -141,11 +183,11 @@ public class VisualizerView extends View {
     }
 
     private void setVertical(int w, int h) {
-        float barUnit = h / 32f;
+        float barUnit = h / (float) BAR_COUNT;
         float barHeight = barUnit * 8f / 9f;
         barUnit = barHeight + (barUnit - barHeight) * 32f / 31f;
         mPaint.setStrokeWidth(barHeight);
-        for (int i = 0; i < 32; i++) {
+        for (int i = 0; i < BAR_COUNT; i++) {
             mFFTPoints[i * 4 + 1] = mFFTPoints[i * 4 + 3] = i * barUnit + (barHeight / 2);
             mFFTPoints[i * 4] = mIsVerticalLeft ? 0 : w;
             mFFTPoints[i * 4 + 2] = mIsVerticalLeft ? 0 : w;